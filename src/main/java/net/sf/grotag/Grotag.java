@@ -3,20 +3,33 @@ package net.sf.grotag;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.UIManager;
 import javax.swing.WindowConstants;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.Tools;
 import net.sf.grotag.guide.DomWriter;
 import net.sf.grotag.guide.ExportTools;
 import net.sf.grotag.guide.Guide;
+import net.sf.grotag.guide.GuideCache;
 import net.sf.grotag.guide.GuidePile;
+import net.sf.grotag.parse.MessageCode;
+import net.sf.grotag.parse.MessagePool;
 import net.sf.grotag.view.GrotagFrame;
 
 import org.xml.sax.SAXException;
@@ -30,12 +43,151 @@ import com.martiansoftware.jsap.JSAPResult;
  * @author Thomas Aglassinger
  */
 public class Grotag {
+    /**
+     * Exit code in case some input files could not be processed.
+     */
+    private static final int EXIT_FAILED = 1;
+
+    /**
+     * Action to apply to a single input file in batch mode.
+     */
+    private interface FileAction {
+        void process(File file, MessagePool fileMessagePool) throws Exception;
+    }
+
+    /**
+     * Source of the input files to process in batch mode.
+     */
+    private interface FileFinder {
+        /**
+         * Pass all input files to <code>fileConsumer</code> as soon as they
+         * are found.
+         */
+        void findFiles(Consumer<File> fileConsumer) throws IOException;
+    }
+
+    /**
+     * Outcome of processing a single input file in batch mode.
+     */
+    private static class FileResult {
+        private MessagePool messagePool;
+        private Exception error;
+
+        FileResult(MessagePool newMessagePool, Exception newError) {
+            assert newMessagePool != null;
+            messagePool = newMessagePool;
+            error = newError;
+        }
+    }
+
+    /**
+     * Input files being processed in parallel, whose messages and errors are
+     * reported in the order the files have been submitted.
+     */
+    private class Batch {
+        private ExecutorService batchService;
+        private String actionName;
+        private FileAction action;
+        private List<File> files;
+        private List<Future<FileResult>> fileResults;
+        private int reportedFileCount;
+        private int exitCode;
+
+        Batch(int jobs, String newActionName, FileAction newAction) {
+            assert jobs >= 1;
+            assert newActionName != null;
+            assert newAction != null;
+            actionName = newActionName;
+            action = newAction;
+            files = new ArrayList<File>();
+            fileResults = new ArrayList<Future<FileResult>>();
+            batchService = Executors.newFixedThreadPool(jobs, runnable -> {
+                Thread result = new Thread(runnable, "batch worker");
+                result.setDaemon(true);
+                return result;
+            });
+        }
+
+        void submit(File file) {
+            assert file != null;
+            files.add(file);
+            fileResults.add(batchService.submit(() -> {
+                MessagePool fileMessagePool = MessagePool.createDeferredPool(messagePool);
+                Exception error = null;
+                try {
+                    action.process(file, fileMessagePool);
+                } catch (Exception processError) {
+                    error = processError;
+                }
+                return new FileResult(fileMessagePool, error);
+            }));
+            // Report files that are already done so their messages show up
+            // early and do not pile up in memory.
+            while ((reportedFileCount < fileResults.size()) && fileResults.get(reportedFileCount).isDone()) {
+                reportNextFile();
+            }
+        }
+
+        void reportRemainingFiles() {
+            while (reportedFileCount < fileResults.size()) {
+                reportNextFile();
+            }
+        }
+
+        private void reportNextFile() {
+            File file = files.get(reportedFileCount);
+            FileResult fileResult = getFileResult(fileResults.get(reportedFileCount), file);
+            fileResults.set(reportedFileCount, null);
+            reportedFileCount += 1;
+            fileResult.messagePool.drainTo(messagePool);
+            if (fileResult.error != null) {
+                // Report the error after the messages of the same file.
+                messagePool.flush();
+                log.log(Level.SEVERE, "cannot " + actionName + " " + tools.sourced(file) + ": "
+                        + fileResult.error.getMessage(), fileResult.error);
+                exitCode = EXIT_FAILED;
+            }
+        }
+
+        private FileResult getFileResult(Future<FileResult> fileResult, File file) {
+            FileResult result;
+            try {
+                result = fileResult.get();
+            } catch (ExecutionException error) {
+                Throwable cause = error.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException("cannot " + actionName + " " + tools.sourced(file), cause);
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting to " + actionName + " "
+                        + tools.sourced(file), error);
+            }
+            return result;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        void shutdown() {
+            batchService.shutdownNow();
+        }
+    }
+
     private GrotagFrame viewer;
     private GrotagJsap jsap;
     private AmigaPathList amigaPaths;
+    private MessagePool messagePool;
+    private Tools tools;
+    private Logger log;
 
     private Grotag() throws JSAPException {
         jsap = new GrotagJsap();
+        messagePool = new MessagePool();
+        tools = Tools.getInstance();
+        log = Logger.getLogger(Grotag.class.getName());
     }
 
     private void setAmigaPaths() throws SAXException, IOException, ParserConfigurationException {
@@ -43,13 +195,20 @@ public class Grotag {
         try {
             amigaPaths.read(new File("grotag.xml"));
         } catch (FileNotFoundException errorToIgnore) {
-            Logger.getLogger(Grotag.class.getName()).fine("ignored missing grotag.xml");
+            log.fine("ignored missing grotag.xml");
         }
     }
 
+    /**
+     * Process the command line <code>arguments</code>.
+     *
+     * @return the exit code, which is 0 unless some input files could not be
+     *         processed
+     */
     @SuppressWarnings("unchecked")
-    private void work(String[] arguments) throws IOException, ParserConfigurationException, TransformerException,
-            SAXException {
+    private int work(String[] arguments) throws IOException, ParserConfigurationException, TransformerException,
+            SAXException, XMLStreamException {
+        int result = 0;
         JSAPResult options = jsap.parse(arguments);
 
         if (!options.success()) {
@@ -65,11 +224,25 @@ public class Grotag {
             throw new IllegalArgumentException(errorMessage);
         }
 
+        File cacheFolder = options.getFile(GrotagJsap.ARG_CACHE);
+        if (cacheFolder != null) {
+            GuideCache.getInstance().setFolder(cacheFolder);
+        }
+        int maxMemoryGuideCount = options.getInt(GrotagJsap.ARG_MEMORY_CACHE);
+        if (maxMemoryGuideCount < 0) {
+            throw new IllegalArgumentException("--" + GrotagJsap.ARG_MEMORY_CACHE + " must be at least 0 but is "
+                    + maxMemoryGuideCount);
+        }
+        GuideCache.getInstance().setMaxMemoryGuideCount(maxMemoryGuideCount);
+        Guide.setPackingItems(options.getBoolean(GrotagJsap.ARG_COMPACT));
+        setupMessagePool(options);
+
         boolean isDocBook = options.getBoolean(GrotagJsap.ARG_DOCBOOK);
         boolean isXhtml = options.getBoolean(GrotagJsap.ARG_XHTML);
         boolean isHtml = options.getBoolean(GrotagJsap.ARG_HTML);
         boolean isPretty = options.getBoolean(GrotagJsap.ARG_PRETTY);
         boolean isValidate = options.getBoolean(GrotagJsap.ARG_VALIDATE);
+        boolean isRecursive = options.getBoolean(GrotagJsap.ARG_RECURSIVE);
         if (isDocBook || isHtml || isPretty || isValidate || isXhtml) {
             File files[] = options.getFileArray(GrotagJsap.ARG_FILE);
             // According to JSAP API documentation, this is never is null.
@@ -78,16 +251,23 @@ public class Grotag {
                 throw new IllegalArgumentException("Amigaguide input file must be specified");
             }
             setAmigaPaths();
-            if (isDocBook) {
-                docBook(files);
-            } else if (isHtml || isXhtml) {
-                html(files, isXhtml);
-            } else if (isPretty) {
-                pretty(files);
-            } else if (isValidate) {
-                validate(files);
-            } else {
-                assert false;
+            try {
+                if (isDocBook) {
+                    result = docBook(files, options.getBoolean(GrotagJsap.ARG_STREAM), getJobs(options),
+                            isRecursive);
+                } else if (isHtml || isXhtml) {
+                    result = html(files, isXhtml, getJobs(options), options.getBoolean(GrotagJsap.ARG_STREAM),
+                            isRecursive);
+                } else if (isPretty) {
+                    result = pretty(files, getJobs(options), isRecursive);
+                } else if (isValidate) {
+                    result = validate(files, getJobs(options), isRecursive);
+                } else {
+                    assert false;
+                }
+            } finally {
+                flushMessages();
+                logMemoryCacheStatistics();
             }
         } else if (options.getBoolean(GrotagJsap.ARG_HELP)) {
             jsap.printHelp(System.err);
@@ -102,6 +282,9 @@ public class Grotag {
             if (files.length > 1) {
                 throw new IllegalArgumentException("only one Amigaguide input file must be specified for viewing");
             }
+            if (isRecursive) {
+                throw new IllegalArgumentException("--" + GrotagJsap.ARG_RECURSIVE + " cannot be used for viewing");
+            }
             setAmigaPaths();
             viewer = new GrotagFrame();
             viewer.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
@@ -111,10 +294,95 @@ public class Grotag {
                 viewer.read(files[0], amigaPaths);
             }
         }
+        return result;
+    }
+
+    private int getJobs(JSAPResult options) {
+        int result = options.getInt(GrotagJsap.ARG_JOBS);
+        if (result < 1) {
+            throw new IllegalArgumentException("--" + GrotagJsap.ARG_JOBS + " must be at least 1 but is " + result);
+        }
+        return result;
+    }
+
+    private void setupMessagePool(JSAPResult options) {
+        int maxMessages = options.getInt(GrotagJsap.ARG_MAX_MESSAGES);
+        if (maxMessages < 0) {
+            throw new IllegalArgumentException("--" + GrotagJsap.ARG_MAX_MESSAGES + " must be at least 0 but is "
+                    + maxMessages);
+        }
+        messagePool.setMaxItemCount(maxMessages);
+
+        String minSeverityText = options.getString(GrotagJsap.ARG_MIN_SEVERITY);
+        try {
+            messagePool.setMinSeverity(MessageCode.Severity.valueOfIgnoringCase(minSeverityText));
+        } catch (IllegalArgumentException error) {
+            throw new IllegalArgumentException("--" + GrotagJsap.ARG_MIN_SEVERITY
+                    + " must be info, warning or error but is " + tools.sourced(minSeverityText), error);
+        }
+
+        for (String messageLimit : options.getStringArray(GrotagJsap.ARG_MESSAGE_LIMIT)) {
+            setMessageLimit(messageLimit);
+        }
     }
 
-    private void docBook(File[] files) throws IOException, ParserConfigurationException, TransformerException {
+    /**
+     * Set the maximum number of messages for a code as specified by
+     * <code>messageLimit</code>, for example "dangling-at-sign=10".
+     */
+    private void setMessageLimit(String messageLimit) {
+        assert messageLimit != null;
+        String errorPrefix = "--" + GrotagJsap.ARG_MESSAGE_LIMIT + " " + tools.sourced(messageLimit);
+        int equalsIndex = messageLimit.indexOf('=');
+        if (equalsIndex == -1) {
+            throw new IllegalArgumentException(errorPrefix + " must have the form code=count");
+        }
+        String codeName = messageLimit.substring(0, equalsIndex).trim();
+        String countText = messageLimit.substring(equalsIndex + 1).trim();
+        MessageCode code;
+        int count;
+        try {
+            code = MessageCode.valueOfIgnoringCase(codeName);
+        } catch (IllegalArgumentException error) {
+            throw new IllegalArgumentException(errorPrefix + " must specify a valid message code instead of "
+                    + tools.sourced(codeName), error);
+        }
+        try {
+            count = Integer.parseInt(countText);
+        } catch (NumberFormatException error) {
+            throw new IllegalArgumentException(errorPrefix + " must specify a number as count", error);
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException(errorPrefix + " must specify a count of at least 0");
+        }
+        messagePool.setMaxItemCount(code, count);
+    }
+
+    /**
+     * Log how many guides have been found in memory during this run.
+     */
+    private void logMemoryCacheStatistics() {
+        GuideCache cache = GuideCache.getInstance();
+        log.info("guides found in memory: " + cache.getMemoryHitCount() + " hits, " + cache.getMemoryMissCount()
+                + " misses");
+    }
+
+    /**
+     * Wait until all messages have been printed and report how many of them
+     * have been dropped because of <code>--max-messages</code>.
+     */
+    private void flushMessages() {
+        messagePool.flush();
+        int droppedMessageCount = messagePool.getDroppedItemCount();
+        if (droppedMessageCount > 0) {
+            System.err.println("omitted " + droppedMessageCount + " further messages");
+        }
+    }
+
+    private int docBook(File[] files, boolean isStreaming, int jobs, boolean isRecursive) throws IOException,
+            ParserConfigurationException, TransformerException, XMLStreamException {
         ExportTools exportTools = ExportTools.getInstance();
+        int result = 0;
         int fileCount = files.length;
         File inputFile;
         File outputFile;
@@ -122,8 +390,12 @@ public class Grotag {
             throw new IllegalArgumentException("Amigaguide input file must be specified");
         } else if (fileCount == 1) {
             inputFile = files[0];
-            File outputFileFolder = inputFile.getParentFile();
-            outputFile = exportTools.targetFileFor(inputFile, outputFileFolder, "xml");
+            if (isRecursive) {
+                outputFile = inputFile;
+            } else {
+                File outputFileFolder = inputFile.getParentFile();
+                outputFile = exportTools.targetFileFor(inputFile, outputFileFolder, "xml");
+            }
         } else if (fileCount == 2) {
             inputFile = files[0];
             outputFile = files[1];
@@ -131,13 +403,27 @@ public class Grotag {
             throw new IllegalArgumentException("with --" + GrotagJsap.ARG_DOCBOOK
                     + " only 2 files must be specified instead of " + fileCount);
         }
-        GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths);
-        exportTools.exportAsDocBookXml(pile, outputFile);
+        if (isRecursive) {
+            // Convert every guide in the input folder to a DocBook file in
+            // the matching folder below the output folder.
+            result = processInBatch(filesInFolders(new File[] { inputFile }), jobs, "convert", onlyGuides((
+                    guideFile, fileMessagePool) -> {
+                GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths, 1, fileMessagePool);
+                File targetFolder = targetFolderFor(guideFile, inputFile, outputFile);
+                exportTools.exportAsDocBookXml(pile, exportTools.targetFileFor(guideFile, targetFolder, "xml"),
+                        isStreaming);
+            }));
+        } else {
+            GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths, 1, messagePool);
+            exportTools.exportAsDocBookXml(pile, outputFile, isStreaming);
+        }
+        return result;
     }
 
-    private void html(File[] files, boolean isXhtml) throws IOException, ParserConfigurationException,
-            TransformerException {
+    private int html(File[] files, boolean isXhtml, int jobs, boolean isStreaming, boolean isRecursive)
+            throws IOException, ParserConfigurationException, TransformerException {
         assert files != null;
+        assert jobs >= 1;
         String argumentName;
         DomWriter.Dtd dtd;
 
@@ -167,21 +453,157 @@ public class Grotag {
                     + fileCount);
         }
 
-        GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths);
-        ExportTools.getInstance().exportAsHtml(pile, outputFolder, dtd);
+        int result = 0;
+        if (isRecursive) {
+            // Export guides one after another because guides in the same
+            // folder share the output folder and usually link to each other;
+            // each export uses all jobs on its own.
+            result = processInBatch(filesInFolders(new File[] { inputFile }), 1, "export", onlyGuides((guideFile,
+                    fileMessagePool) -> {
+                GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths, jobs, fileMessagePool);
+                File targetFolder = targetFolderFor(guideFile, inputFile, outputFolder);
+                ExportTools.getInstance().exportAsHtml(pile, targetFolder, dtd, jobs, isStreaming);
+            }));
+        } else {
+            GuidePile pile = GuidePile.createGuidePile(inputFile, amigaPaths, jobs, messagePool);
+            ExportTools.getInstance().exportAsHtml(pile, outputFolder, dtd, jobs, isStreaming);
+        }
+        return result;
     }
 
-    private void pretty(File[] files) throws IOException {
-        for (File guideFile : files) {
-            Guide guide = Guide.createGuide(guideFile, amigaPaths);
+    private int pretty(File[] files, int jobs, boolean isRecursive) throws IOException {
+        FileAction prettyAction = (guideFile, fileMessagePool) -> {
+            Guide guide = Guide.createGuide(guideFile, amigaPaths, fileMessagePool);
             guide.writePretty(guideFile);
+        };
+        return processInBatch(inputFiles(files, isRecursive), jobs, "pretty print", inputAction(prettyAction,
+                isRecursive));
+    }
+
+    private int validate(File[] files, int jobs, boolean isRecursive) throws IOException {
+        FileAction validateAction = (guideFile, fileMessagePool) -> GuidePile.createGuidePile(guideFile,
+                amigaPaths, 1, fileMessagePool);
+        return processInBatch(inputFiles(files, isRecursive), jobs, "validate", inputAction(validateAction,
+                isRecursive));
+    }
+
+    /**
+     * Apply <code>action</code> to all files found by <code>finder</code>
+     * using up to <code>jobs</code> threads. Files are processed as soon as
+     * they are found. A file that cannot be processed does not stop the
+     * others. Messages and errors are reported per file in the order the
+     * files were found no matter how many jobs are used.
+     *
+     * @param actionName
+     *                the name of the action for error messages, for example
+     *                "validate"
+     * @return the exit code, which is 0 if all files could be processed
+     */
+    private int processInBatch(FileFinder finder, int jobs, String actionName, FileAction action)
+            throws IOException {
+        assert finder != null;
+        assert jobs >= 1;
+        assert actionName != null;
+        assert action != null;
+
+        Batch batch = new Batch(jobs, actionName, action);
+        try {
+            finder.findFiles(file -> batch.submit(file));
+            batch.reportRemainingFiles();
+        } finally {
+            batch.shutdown();
         }
+        return batch.getExitCode();
+    }
+
+    /**
+     * <code>FileFinder</code> for the files specified on the command line.
+     */
+    private FileFinder listedFiles(File[] files) {
+        assert files != null;
+        return fileConsumer -> {
+            for (File file : files) {
+                fileConsumer.accept(file);
+            }
+        };
+    }
+
+    /**
+     * <code>FileFinder</code> for all files in <code>folders</code> and
+     * their sub folders.
+     */
+    private FileFinder filesInFolders(File[] folders) {
+        assert folders != null;
+        return fileConsumer -> {
+            for (File folder : folders) {
+                if (!folder.isDirectory()) {
+                    throw new IllegalArgumentException("with --" + GrotagJsap.ARG_RECURSIVE
+                            + " input must be a folder: " + tools.sourced(folder));
+                }
+                tools.visitFiles(folder, fileConsumer);
+            }
+        };
     }
 
-    private void validate(File[] files) throws IOException {
-        for (File guideFile : files) {
-            GuidePile.createGuidePile(guideFile, amigaPaths);
+    /**
+     * <code>FileFinder</code> for the files specified on the command line or,
+     * with <code>isRecursive</code>, all files in the specified folders.
+     */
+    private FileFinder inputFiles(File[] files, boolean isRecursive) {
+        FileFinder result;
+        if (isRecursive) {
+            result = filesInFolders(files);
+        } else {
+            result = listedFiles(files);
+        }
+        return result;
+    }
+
+    /**
+     * <code>FileAction</code> that applies <code>action</code> only to
+     * files that start with <code>@database</code> and skips all others.
+     * The check only reads the first few bytes of each file and runs in the
+     * batch threads, so scanning many files for guides happens in parallel.
+     */
+    private FileAction onlyGuides(FileAction action) {
+        assert action != null;
+        return (file, fileMessagePool) -> {
+            if (AmigaTools.getInstance().isAmigaguide(file)) {
+                action.process(file, fileMessagePool);
+            } else {
+                log.fine("skipped non-guide: " + tools.sourced(file));
+            }
+        };
+    }
+
+    /**
+     * Same as <code>onlyGuides()</code> if <code>isRecursive</code>,
+     * otherwise <code>action</code> itself.
+     */
+    private FileAction inputAction(FileAction action, boolean isRecursive) {
+        FileAction result;
+        if (isRecursive) {
+            result = onlyGuides(action);
+        } else {
+            result = action;
+        }
+        return result;
+    }
+
+    /**
+     * Folder in <code>outputFolder</code> that corresponds to the folder of
+     * <code>guideFile</code> within <code>inputFolder</code>.
+     */
+    private File targetFolderFor(File guideFile, File inputFolder, File outputFolder) throws IOException {
+        File guideFolder = guideFile.getAbsoluteFile().getParentFile();
+        File result;
+        if (guideFolder.equals(inputFolder.getAbsoluteFile())) {
+            result = outputFolder;
+        } else {
+            result = new File(outputFolder, tools.getRelativePath(inputFolder, guideFolder));
         }
+        tools.mkdirs(result);
+        return result;
     }
 
     public static void main(final String[] arguments) throws Exception {
@@ -192,8 +614,7 @@ public class Grotag {
             UIManager.setLookAndFeel(
                     UIManager.getSystemLookAndFeelClassName());
             Grotag grotag = new Grotag();
-            grotag.work(arguments);
-            exitCode = 0;
+            exitCode = grotag.work(arguments);
         } catch (IllegalArgumentException error) {
             mainLog.log(Level.FINE, "cannot process command line options: " + error.getMessage(), error);
             System.err.println("cannot process command line options: " + error.getMessage());
@@ -1,7 +1,12 @@
 package net.sf.grotag;
 
 import java.io.PrintStream;
+import java.util.Locale;
 
+import net.sf.grotag.parse.MessageCode;
+import net.sf.grotag.parse.MessagePool;
+
+import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPException;
 import com.martiansoftware.jsap.JSAPResult;
@@ -16,12 +21,21 @@ import com.martiansoftware.jsap.stringparsers.FileStringParser;
  * @author Thomas Aglassinger
  */
 public class GrotagJsap extends JSAP {
+    public static final String ARG_CACHE = "cache";
+    public static final String ARG_COMPACT = "compact";
     public static final String ARG_DOCBOOK = "docbook";
     public static final String ARG_FILE = "file";
     public static final String ARG_HELP = "help";
     public static final String ARG_HTML = "html";
+    public static final String ARG_JOBS = "jobs";
     public static final String ARG_LICENSE = "license";
+    public static final String ARG_MAX_MESSAGES = "max-messages";
+    public static final String ARG_MEMORY_CACHE = "memory-cache";
+    public static final String ARG_MESSAGE_LIMIT = "message-limit";
+    public static final String ARG_MIN_SEVERITY = "min-severity";
     public static final String ARG_PRETTY = "pretty";
+    public static final String ARG_RECURSIVE = "recursive";
+    public static final String ARG_STREAM = "stream";
     public static final String ARG_VALIDATE = "validate";
     public static final String ARG_VERSION = "version";
     public static final String ARG_XHTML = "xhtml";
@@ -58,6 +72,21 @@ public class GrotagJsap extends JSAP {
                 + ", --" + ARG_PRETTY + " or --" + ARG_VALIDATE);
         registerParameter(fileOption);
 
+        FlaggedOption cacheOption = new FlaggedOption(ARG_CACHE);
+        cacheOption.setShortFlag('c');
+        cacheOption.setLongFlag(ARG_CACHE);
+        cacheOption.setStringParser(FileStringParser.getParser());
+        cacheOption.setHelp("folder to cache parsed Amigaguide documents in, for example \"~/.grotag/cache\"; "
+                + "unchanged documents are then read from the cache instead of being parsed and validated again");
+        registerParameter(cacheOption);
+
+        Switch compactSwitch = new Switch(ARG_COMPACT);
+        compactSwitch.setShortFlag(NO_SHORTFLAG);
+        compactSwitch.setLongFlag(ARG_COMPACT);
+        compactSwitch.setHelp("store the items of Amigaguide documents in a compact form, which needs less memory "
+                + "for large documents");
+        registerParameter(compactSwitch);
+
         Switch docBookSwitch = new Switch(ARG_DOCBOOK);
         docBookSwitch.setShortFlag('d');
         docBookSwitch.setLongFlag(ARG_DOCBOOK);
@@ -74,12 +103,74 @@ public class GrotagJsap extends JSAP {
                 + "is written to the current directory");
         registerParameter(htmlSwitch);
 
+        FlaggedOption jobsOption = new FlaggedOption(ARG_JOBS);
+        jobsOption.setShortFlag('j');
+        jobsOption.setLongFlag(ARG_JOBS);
+        jobsOption.setStringParser(JSAP.INTEGER_PARSER);
+        jobsOption.setDefault("1");
+        jobsOption.setHelp("number of threads to use with --" + ARG_HTML + " and --" + ARG_XHTML
+                + " or number of files to process at the same time with --" + ARG_PRETTY + " and --"
+                + ARG_VALIDATE);
+        registerParameter(jobsOption);
+
+        FlaggedOption maxMessagesOption = new FlaggedOption(ARG_MAX_MESSAGES);
+        maxMessagesOption.setShortFlag(NO_SHORTFLAG);
+        maxMessagesOption.setLongFlag(ARG_MAX_MESSAGES);
+        maxMessagesOption.setStringParser(JSAP.INTEGER_PARSER);
+        maxMessagesOption.setDefault(Integer.toString(MessagePool.UNLIMITED));
+        maxMessagesOption.setHelp("maximum number of messages to report; further messages are only counted");
+        registerParameter(maxMessagesOption);
+
+        FlaggedOption memoryCacheOption = new FlaggedOption(ARG_MEMORY_CACHE);
+        memoryCacheOption.setShortFlag(NO_SHORTFLAG);
+        memoryCacheOption.setLongFlag(ARG_MEMORY_CACHE);
+        memoryCacheOption.setStringParser(JSAP.INTEGER_PARSER);
+        memoryCacheOption.setDefault("32");
+        memoryCacheOption.setHelp("number of parsed Amigaguide documents to keep in memory, so documents linked "
+                + "from several input files are read only once; 0 disables it");
+        registerParameter(memoryCacheOption);
+
+        FlaggedOption messageLimitOption = new FlaggedOption(ARG_MESSAGE_LIMIT);
+        messageLimitOption.setShortFlag(NO_SHORTFLAG);
+        messageLimitOption.setLongFlag(ARG_MESSAGE_LIMIT);
+        messageLimitOption.setAllowMultipleDeclarations(true);
+        messageLimitOption.setList(true);
+        messageLimitOption.setListSeparator(',');
+        messageLimitOption.setUsageName("code=count");
+        messageLimitOption.setHelp("maximum number of messages to report for a message code, for example "
+                + "\"dangling-at-sign=10\"; 0 ignores such messages altogether; codes are: "
+                + messageCodesText());
+        registerParameter(messageLimitOption);
+
+        FlaggedOption minSeverityOption = new FlaggedOption(ARG_MIN_SEVERITY);
+        minSeverityOption.setShortFlag(NO_SHORTFLAG);
+        minSeverityOption.setLongFlag(ARG_MIN_SEVERITY);
+        minSeverityOption.setDefault(MessageCode.Severity.INFO.toString().toLowerCase(Locale.ROOT));
+        minSeverityOption.setHelp("minimum severity of messages to report: info, warning or error");
+        registerParameter(minSeverityOption);
+
+        Switch streamSwitch = new Switch(ARG_STREAM);
+        streamSwitch.setShortFlag('s');
+        streamSwitch.setLongFlag(ARG_STREAM);
+        streamSwitch.setHelp("with --" + ARG_DOCBOOK + ", --" + ARG_HTML + " and --" + ARG_XHTML
+                + ", write output files directly instead of building a DOM first, which is faster and needs "
+                + "less memory but indents the output differently");
+        registerParameter(streamSwitch);
+
         Switch prettySwitch = new Switch(ARG_PRETTY);
         prettySwitch.setShortFlag('v');
         prettySwitch.setLongFlag(ARG_PRETTY);
         prettySwitch.setHelp("cleanup specified Amigaguide file, overwritting the original");
         registerParameter(prettySwitch);
 
+        Switch recursiveSwitch = new Switch(ARG_RECURSIVE);
+        recursiveSwitch.setShortFlag('r');
+        recursiveSwitch.setLongFlag(ARG_RECURSIVE);
+        recursiveSwitch.setHelp("process all Amigaguide documents in the specified folder and its sub folders; "
+                + "with --" + ARG_DOCBOOK + ", --" + ARG_HTML + " and --" + ARG_XHTML
+                + " the optional second file is the output folder");
+        registerParameter(recursiveSwitch);
+
         Switch validateSwitch = new Switch(ARG_VALIDATE);
         validateSwitch.setShortFlag('p');
         validateSwitch.setLongFlag(ARG_VALIDATE);
@@ -113,6 +204,17 @@ public class GrotagJsap extends JSAP {
         registerParameter(xhtmlSwitch);
     }
 
+    private static String messageCodesText() {
+        StringBuilder result = new StringBuilder();
+        for (MessageCode code : MessageCode.values()) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(code.toString().toLowerCase(Locale.ROOT).replace('_', '-'));
+        }
+        return result.toString();
+    }
+
     @Override
     public JSAPResult parse(String argument) {
         JSAPResult result = super.parse(argument);
@@ -2,8 +2,8 @@ package net.sf.grotag.common;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -96,7 +96,9 @@ public class AmigaPathList {
     private List<AmigaPathFilePair> pathList;
 
     public AmigaPathList() {
-        pathList = new LinkedList<AmigaPathFilePair>();
+        // Guides might be parsed in parallel, possibly adding undefined paths
+        // while other threads look up paths.
+        pathList = new CopyOnWriteArrayList<AmigaPathFilePair>();
     }
 
     public void read(File inFile) throws SAXException, IOException, ParserConfigurationException {
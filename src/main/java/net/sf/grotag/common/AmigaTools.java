@@ -3,6 +3,10 @@ package net.sf.grotag.common;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import net.sf.grotag.common.AmigaPathList.AmigaPathFilePair;
 
@@ -41,12 +45,28 @@ public class AmigaTools {
     }
 
     public boolean isAmigaguide(File file) throws IOException {
-        boolean result;
-        try {
-            ensureIsAmigaguide(file);
-            result = true;
-        } catch (IllegalArgumentException errorToIgnore) {
-            result = false;
+        assert file != null;
+        return isAmigaguide(file.toPath());
+    }
+
+    /**
+     * Does <code>file</code> start with <code>@database</code>? This only
+     * reads the first few bytes of the file and is cheap enough to scan
+     * many files for Amigaguide documents.
+     */
+    public boolean isAmigaguide(Path file) throws IOException {
+        assert file != null;
+        ByteBuffer header = ByteBuffer.allocate(GUIDE_ID.length());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int bytesRead = 0;
+            while (header.hasRemaining() && (bytesRead != -1)) {
+                bytesRead = channel.read(header);
+            }
+        }
+        boolean result = !header.hasRemaining();
+        for (int byteIndex = 0; result && (byteIndex < header.capacity()); byteIndex += 1) {
+            char some = (char) (header.get(byteIndex) & 0xff);
+            result = (Character.toLowerCase(some) == GUIDE_ID.charAt(byteIndex));
         }
         return result;
     }
@@ -62,15 +82,39 @@ public class AmigaTools {
             byte[] first9Bytes = new byte[GUIDE_ID.length()];
             in.read(first9Bytes);
             String id = new String(first9Bytes, AmigaTools.ENCODING);
-            if (!id.toLowerCase().equals(GUIDE_ID)) {
-                throw new IllegalArgumentException("Amigaguide document must start with " + tools.sourced(GUIDE_ID)
-                        + " instead of " + tools.sourced(id) + ": ");
-            }
+            ensureHasAmigaguideHeader(id);
         } finally {
             in.close();
         }
     }
 
+    /**
+     * Validate that <code>text</code> starts with <code>@database</code>.
+     * 
+     * @throws IllegalArgumentException
+     *                 if the text does not start with the expected header
+     */
+    public void ensureHasAmigaguideHeader(CharSequence text) {
+        if (!hasAmigaguideHeader(text)) {
+            String id = text.subSequence(0, Math.min(GUIDE_ID.length(), text.length())).toString();
+            throw new IllegalArgumentException("Amigaguide document must start with " + tools.sourced(GUIDE_ID)
+                    + " instead of " + tools.sourced(id) + ": ");
+        }
+    }
+
+    /**
+     * Does <code>text</code> start with <code>@database</code>?
+     */
+    public boolean hasAmigaguideHeader(CharSequence text) {
+        assert text != null;
+        int idLength = GUIDE_ID.length();
+        boolean result = (text.length() >= idLength);
+        for (int charIndex = 0; result && (charIndex < idLength); charIndex += 1) {
+            result = (Character.toLowerCase(text.charAt(charIndex)) == GUIDE_ID.charAt(charIndex));
+        }
+        return result;
+    }
+
     public File getFileFor(String amigaPath, AmigaPathList amigaPaths) {
         assert amigaPath != null;
         assert amigaPaths != null;
@@ -16,15 +16,20 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -56,7 +61,6 @@ public class Tools {
 
     private Map<Character, String> escapeMap;
     private Logger log;
-    private Pattern trailingWhiteSpacePattern;
     private Pattern whiteSpacePattern;
 
     public static synchronized Tools getInstance() {
@@ -136,7 +140,6 @@ public class Tools {
             fileIndex += 1;
         }
 
-        trailingWhiteSpacePattern = Pattern.compile("\\s+$");
         whiteSpacePattern = Pattern.compile("\\s+");
 
         escapeMap = new TreeMap<>();
@@ -188,6 +191,42 @@ public class Tools {
         }
     }
 
+    /**
+     * Pass all regular files in <code>folder</code> and its sub folders to
+     * <code>visitor</code> as soon as they are found. The files of a folder
+     * are visited in alphabetical order before its sub folders, so the order
+     * is the same for every run. Links to folders are not followed, and sub
+     * folders that cannot be read only cause a warning in the log.
+     */
+    public void visitFiles(File folder, Consumer<File> visitor) throws IOException {
+        assert folder != null;
+        assert visitor != null;
+
+        List<Path> entries = new ArrayList<Path>();
+        try (DirectoryStream<Path> folderStream = Files.newDirectoryStream(folder.toPath())) {
+            for (Path entry : folderStream) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+
+        List<File> subFolders = new LinkedList<File>();
+        for (Path entry : entries) {
+            if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                subFolders.add(entry.toFile());
+            } else if (Files.isRegularFile(entry)) {
+                visitor.accept(entry.toFile());
+            }
+        }
+        for (File subFolder : subFolders) {
+            try {
+                visitFiles(subFolder, visitor);
+            } catch (IOException error) {
+                log.log(Level.WARNING, "skipped unreadable folder " + sourced(subFolder), error);
+            }
+        }
+    }
+
     /**
      * Attempt to delete <code>file</code>. If this fails, log a warning.
      */
@@ -214,7 +253,45 @@ public class Tools {
      */
     public String withoutTrailingWhiteSpace(String some) {
         assert some != null;
-        return trailingWhiteSpacePattern.matcher(some).replaceFirst("");
+        return withoutTrailingWhiteSpace((CharSequence) some).toString();
+    }
+
+    /**
+     * Same as <code>withoutTrailingWhiteSpace(String)</code>, but usually
+     * returns <code>some.subSequence()</code> instead of a copy.
+     */
+    public CharSequence withoutTrailingWhiteSpace(CharSequence some) {
+        assert some != null;
+        CharSequence result;
+        int whiteSpaceEnd = some.length();
+
+        // Same as replacing the regular expression "\s+$": white space is
+        // [ \t\n\x0B\f\r], and a final line terminator that is not white
+        // space itself is preserved.
+        if ((whiteSpaceEnd > 0) && isNonWhiteSpaceLineTerminator(some.charAt(whiteSpaceEnd - 1))) {
+            whiteSpaceEnd -= 1;
+        }
+        int whiteSpaceStart = whiteSpaceEnd;
+        while ((whiteSpaceStart > 0) && isRegExWhiteSpace(some.charAt(whiteSpaceStart - 1))) {
+            whiteSpaceStart -= 1;
+        }
+        if (whiteSpaceStart == whiteSpaceEnd) {
+            result = some;
+        } else if (whiteSpaceEnd == some.length()) {
+            result = some.subSequence(0, whiteSpaceStart);
+        } else {
+            result = some.subSequence(0, whiteSpaceStart).toString() + some.subSequence(whiteSpaceEnd, some.length());
+        }
+        return result;
+    }
+
+    private boolean isRegExWhiteSpace(char some) {
+        return (some == ' ') || (some == '\t') || (some == '\n') || (some == '\u000b') || (some == '\f')
+                || (some == '\r');
+    }
+
+    private boolean isNonWhiteSpaceLineTerminator(char some) {
+        return (some == '\u0085') || (some == '\u2028') || (some == '\u2029');
     }
 
     /**
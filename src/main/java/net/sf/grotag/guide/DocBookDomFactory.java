@@ -7,8 +7,6 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,7 +30,7 @@ public class DocBookDomFactory extends AbstractDomFactory {
 
     private Logger log;
     private Tools tools;
-    private Map<String, String> agNodeToDbNodeMap;
+    private String[] nodeIdToDbNodeNames;
 
     public DocBookDomFactory(GuidePile newPile) throws ParserConfigurationException {
         super(newPile);
@@ -42,20 +40,17 @@ public class DocBookDomFactory extends AbstractDomFactory {
 
         // Map the Amigaguide node names to DocBook id's that conform to the
         // NCName definition.
-        agNodeToDbNodeMap = new HashMap<String, String>();
-        int nodeCounter = 1;
+        nodeIdToDbNodeNames = new String[newPile.getNodeIdCount()];
         for (Guide guide : newPile.getGuides()) {
             for (NodeInfo nodeInfo : guide.getNodeInfos()) {
-                String agNodeName = nodeKey(guide, nodeInfo);
-                String dbNodeName = "n" + nodeCounter;
+                int nodeId = nodeId(guide, nodeInfo);
+                String dbNodeName = "n" + (nodeId + 1);
 
-                log.log(Level.INFO, "add mapped node {0} from {1}", new Object[] { dbNodeName, agNodeName });
+                log.log(Level.INFO, "add mapped node {0} from {1}", new Object[] { dbNodeName,
+                        nodeInfo.getName() + "@" + guide.getSource().getFullName() });
 
-                assert !agNodeToDbNodeMap.containsKey(agNodeName) : "duplicate agNode: " + tools.sourced(agNodeName);
-                assert !agNodeToDbNodeMap.containsValue(dbNodeName) : "duplicate dbNode: " + tools.sourced(dbNodeName);
-
-                agNodeToDbNodeMap.put(agNodeName, dbNodeName);
-                nodeCounter += 1;
+                assert nodeIdToDbNodeNames[nodeId] == null : "duplicate node: " + tools.sourced(dbNodeName);
+                nodeIdToDbNodeNames[nodeId] = dbNodeName;
             }
         }
     }
@@ -98,26 +93,43 @@ public class DocBookDomFactory extends AbstractDomFactory {
     protected Node createLinkToGuideNode(Guide sourceGuide, File guideFile, String targetNode, String linkLabel) {
         Node result;
         Element resultElement = null;
-        Guide guide = getPile().getGuide(guideFile);
 
-        if (guide != null) {
-            String mappedNode = agNodeToDbNodeMap.get(nodeKey(guide, targetNode));
-            if (mappedNode != null) {
-                resultElement = getDom().createElement("link");
-                resultElement.setAttribute("linkend", mappedNode);
-                resultElement.appendChild(getDom().createTextNode(linkLabel));
-            }
+        String mappedNode = getLinkendFor(guideFile, targetNode);
+        if (mappedNode != null) {
+            resultElement = getDom().createElement("link");
+            resultElement.setAttribute("linkend", mappedNode);
+            resultElement.appendChild(getDom().createTextNode(linkLabel));
         }
 
         if (resultElement != null) {
             result = resultElement;
         } else {
             result = getDom().createTextNode(linkLabel);
+        }
+
+        return result;
+    }
+
+    /**
+     * The DocBook id of <code>targetNode</code> in <code>guideFile</code>,
+     * or <code>null</code> (with a warning logged) if the node is not part of
+     * the pile.
+     */
+    String getLinkendFor(File guideFile, String targetNode) {
+        String result = null;
+        Guide guide = getPile().getGuide(guideFile);
+
+        if (guide != null) {
+            NodeInfo nodeInfo = guide.getNodeInfo(targetNode);
+            if (nodeInfo != null) {
+                result = getIdFor(guide, nodeInfo);
+            }
+        }
+        if (result == null) {
             String fileText = tools.sourced(guideFile);
             String nodeText = tools.sourced(targetNode);
             log.warning("skipped link to unknown node " + nodeText + " in " + fileText);
         }
-
         return result;
     }
 
@@ -198,7 +210,7 @@ public class DocBookDomFactory extends AbstractDomFactory {
      * Create node that holds all the meta information about the document, such
      * as <code>@author</code>, <code>@(c)</code>, <code>@keywords</code> and so on.
      */
-    private Node createMetaInfoNode(Guide guide) {
+    Node createMetaInfoNode(Guide guide) {
         Element result;
         if (guide == getPile().getGuides().get(0)) {
             DatabaseInfo dbInfo = guide.getDatabaseInfo();
@@ -292,8 +304,13 @@ public class DocBookDomFactory extends AbstractDomFactory {
         return result;
     }
 
-    private String getIdFor(Guide guideContainingNode, NodeInfo nodeInfo) {
-        return agNodeToDbNodeMap.get(nodeKey(guideContainingNode, nodeInfo));
+    String getIdFor(Guide guideContainingNode, NodeInfo nodeInfo) {
+        String result = null;
+        int nodeId = nodeId(guideContainingNode, nodeInfo);
+        if (nodeId < nodeIdToDbNodeNames.length) {
+            result = nodeIdToDbNodeNames[nodeId];
+        }
+        return result;
     }
 
     @Override
@@ -0,0 +1,326 @@
+package net.sf.grotag.guide;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.Tools;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Writer for DocBook XML that streams the chapters and sections of a pile to
+ * a file while traversing the nodes instead of building a DOM for the whole
+ * book first, so only the paragraph currently rendered has to be held in
+ * memory. Ids, links and book information are the same as with the
+ * <code>DocBookDomFactory</code> the writer is created for.
+ *
+ * @author Thomas Aglassinger
+ */
+public class DocBookStreamWriter {
+    private static final String INDENT = "    ";
+
+    /**
+     * Content of a paragraph that is written once the paragraph ends.
+     */
+    private interface ParagraphContent {
+        void writeTo(XMLStreamWriter target) throws XMLStreamException;
+    }
+
+    /**
+     * Builder to write the content of a section to <code>xml</code>.
+     */
+    private class StreamContentBuilder implements NodeContentBuilder {
+        private List<ParagraphContent> paragraphContents;
+        private String paragraphName;
+        private boolean isMonospacedParagraph;
+        private int depth;
+
+        private StreamContentBuilder() {
+            paragraphContents = new ArrayList<ParagraphContent>();
+        }
+
+        public void appendHeading(String heading) throws IOException {
+            try {
+                writeTextElement(depth, "title", heading);
+            } catch (XMLStreamException error) {
+                throw new IOException("cannot write heading: " + tools.sourced(heading), error);
+            }
+        }
+
+        public void startParagraph(Wrap wrap, boolean isProportional) {
+            paragraphContents.clear();
+            if (wrap == Wrap.NONE) {
+                paragraphName = "literallayout";
+            } else {
+                assert wrap != Wrap.DEFAULT;
+                paragraphName = "para";
+            }
+            isMonospacedParagraph = !isProportional && (wrap == Wrap.NONE);
+        }
+
+        public void appendText(String text) {
+            paragraphContents.add(target -> target.writeCharacters(text));
+        }
+
+        public void appendAmigaguide() {
+            paragraphContents.add(target -> {
+                target.writeStartElement("productname");
+                target.writeAttribute("class", "registered");
+                target.writeCharacters("Amigaguide");
+                target.writeEndElement();
+            });
+        }
+
+        public void appendLinkToGuideNode(Guide sourceGuide, File targetFile, String targetNode, String linkLabel) {
+            String mappedNode = factory.getLinkendFor(targetFile, targetNode);
+            if (mappedNode != null) {
+                paragraphContents.add(target -> {
+                    target.writeStartElement("link");
+                    target.writeAttribute("linkend", mappedNode);
+                    target.writeCharacters(linkLabel);
+                    target.writeEndElement();
+                });
+            } else {
+                appendText(linkLabel);
+            }
+        }
+
+        public void appendOtherFileLink(Guide sourceGuide, File linkedFile, String linkLabel) {
+            // TODO: Copy linked file to same folder as target document.
+            appendUlink(linkedFile, linkLabel);
+        }
+
+        public void appendLinkToNonGuideNode(Guide sourceGuide, File linkedFile, String linkLabel) {
+            appendUlink(linkedFile, linkLabel);
+        }
+
+        private void appendUlink(File linkedFile, String linkLabel) {
+            String linkedUrl = factory.createUrl("file", "localhost", linkedFile).toExternalForm();
+            paragraphContents.add(target -> {
+                target.writeStartElement("ulink");
+                target.writeAttribute("url", linkedUrl);
+                target.writeCharacters(linkLabel);
+                target.writeEndElement();
+            });
+        }
+
+        public void endParagraph() throws IOException {
+            try {
+                writeIndent(depth);
+                xml.writeStartElement(paragraphName);
+                if (isMonospacedParagraph) {
+                    xml.writeAttribute("class", "monospaced");
+                }
+                for (ParagraphContent content : paragraphContents) {
+                    content.writeTo(xml);
+                }
+                xml.writeEndElement();
+            } catch (XMLStreamException error) {
+                throw new IOException("cannot write paragraph", error);
+            }
+            paragraphContents.clear();
+        }
+
+        public void appendEmbeddedFile(File embeddedFile) throws IOException {
+            StringBuilder embeddedText = new StringBuilder();
+            IOException embedError = null;
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(embeddedFile),
+                        AmigaTools.ENCODING));
+                try {
+                    String textLine = reader.readLine();
+                    while (textLine != null) {
+                        embeddedText.append(textLine).append('\n');
+                        textLine = reader.readLine();
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (UnsupportedEncodingException error) {
+                throw new IllegalStateException("Amiga encoding not supported", error);
+            } catch (IOException error) {
+                embedError = error;
+            }
+
+            try {
+                if (embedError == null) {
+                    writeIndent(depth);
+                    xml.writeStartElement("literallayout");
+                    xml.writeAttribute("class", "monospaced");
+                    xml.writeCharacters(embeddedText.toString());
+                    xml.writeEndElement();
+                } else {
+                    writeIndent(depth);
+                    xml.writeStartElement("caution");
+                    writeTextElement(depth + 1, "title", "Missing embedded file");
+                    writeTextElement(depth + 1, "para", "@embed for " + tools.sourced(embeddedFile) + " failed: "
+                            + embedError.getMessage());
+                    writeIndent(depth);
+                    xml.writeEndElement();
+                }
+            } catch (XMLStreamException error) {
+                throw new IOException("cannot write embedded file: " + tools.sourced(embeddedFile), error);
+            }
+        }
+    }
+
+    private DocBookDomFactory factory;
+    private String encoding;
+    private Logger log;
+    private Tools tools;
+    private XMLStreamWriter xml;
+
+    public DocBookStreamWriter(DocBookDomFactory newFactory) {
+        assert newFactory != null;
+
+        log = Logger.getLogger(DocBookStreamWriter.class.getName());
+        tools = Tools.getInstance();
+
+        factory = newFactory;
+        encoding = DomWriter.DEFAULT_ENCODING;
+    }
+
+    public void setEncoding(String newEncoding) {
+        assert newEncoding != null;
+        encoding = newEncoding;
+    }
+
+    /**
+     * Write a book that contains a chapter for each Amigaguide document and a
+     * section for each node to <code>targetFile</code>.
+     */
+    public void write(File targetFile) throws IOException, XMLStreamException {
+        assert targetFile != null;
+
+        log.log(Level.INFO, "write DocBook XML to {0} using encoding {1}", new Object[] {
+                tools.sourced(targetFile), tools.sourced(encoding) });
+        tools.mkdirs(targetFile.getParentFile());
+        Writer targetWriter = tools.createBufferedWriter(targetFile, encoding);
+        try {
+            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(targetWriter);
+            try {
+                writeBook();
+            } finally {
+                xml.close();
+                xml = null;
+            }
+        } finally {
+            targetWriter.close();
+        }
+    }
+
+    private void writeBook() throws IOException, XMLStreamException {
+        List<Guide> guides = factory.getPile().getGuides();
+
+        xml.writeStartDocument(encoding, "1.0");
+        xml.writeCharacters("\n");
+        xml.writeDTD("<!DOCTYPE book PUBLIC \"" + DomWriter.DOCBOOK_PUBLIC_ID + "\" \""
+                + DomWriter.DOCBOOK_SYSTEM_ID + "\">");
+        xml.writeCharacters("\n");
+        log.info("create book");
+        xml.writeStartElement("book");
+        if (guides.size() > 0) {
+            Node metaInfoNode = factory.createMetaInfoNode(guides.get(0));
+            if (metaInfoNode != null) {
+                writeDomElement(1, (Element) metaInfoNode);
+            }
+        }
+        for (Guide guide : guides) {
+            writeChapter(guide);
+        }
+        writeIndent(0);
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+        xml.writeEndDocument();
+    }
+
+    private void writeChapter(Guide guide) throws IOException, XMLStreamException {
+        String chapterTitle = guide.getDatabaseInfo().getName();
+        StreamContentBuilder contentBuilder = new StreamContentBuilder();
+        NodeContentTraverser contentTraverser = factory.getContentTraverser();
+
+        log.info("create chapter " + tools.sourced(chapterTitle));
+        writeIndent(1);
+        xml.writeStartElement("chapter");
+        writeTextElement(2, "title", chapterTitle);
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            String sectionId = factory.getIdFor(guide, nodeInfo);
+
+            log.log(Level.INFO, "create section with id={0} from node {1}: {2}", new Object[] {
+                    tools.sourced(sectionId), tools.sourced(nodeInfo.getName()),
+                    tools.sourced(nodeInfo.getTitle()) });
+            writeIndent(2);
+            xml.writeStartElement("section");
+            xml.writeAttribute("id", sectionId);
+            contentBuilder.depth = 3;
+            contentTraverser.traverse(guide, nodeInfo, contentBuilder);
+            writeIndent(2);
+            xml.writeEndElement();
+        }
+        writeIndent(1);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Write <code>element</code>, which must contain either only text or only
+     * elements, indenting nested elements.
+     */
+    private void writeDomElement(int depth, Element element) throws XMLStreamException {
+        writeIndent(depth);
+        xml.writeStartElement(element.getNodeName());
+        NamedNodeMap attributes = element.getAttributes();
+        for (int attributeIndex = 0; attributeIndex < attributes.getLength(); attributeIndex += 1) {
+            Node attribute = attributes.item(attributeIndex);
+            xml.writeAttribute(attribute.getNodeName(), attribute.getNodeValue());
+        }
+        boolean hasChildElements = false;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                writeDomElement(depth + 1, (Element) child);
+                hasChildElements = true;
+            } else if (child.getNodeType() == Node.TEXT_NODE) {
+                assert !hasChildElements : "element must not contain mixed content: " + element.getNodeName();
+                xml.writeCharacters(child.getNodeValue());
+            }
+        }
+        if (hasChildElements) {
+            writeIndent(depth);
+        }
+        xml.writeEndElement();
+    }
+
+    private void writeTextElement(int depth, String name, String text) throws XMLStreamException {
+        writeIndent(depth);
+        xml.writeStartElement(name);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    /**
+     * Start a new line indented according to <code>depth</code>. This must
+     * only be used between elements that cannot contain text.
+     */
+    private void writeIndent(int depth) throws XMLStreamException {
+        StringBuilder indent = new StringBuilder("\n");
+        for (int level = 0; level < depth; level += 1) {
+            indent.append(INDENT);
+        }
+        xml.writeCharacters(indent.toString());
+    }
+}
@@ -36,6 +36,13 @@ public class DomWriter {
 
     public static final String DEFAULT_ENCODING = "UTF-8";
 
+    public static final String DOCBOOK_PUBLIC_ID = "-//OASIS//DTD DocBook XML V4.5//EN";
+    public static final String DOCBOOK_SYSTEM_ID = "http://www.oasis-open.org/docbook/xml/4.5/docbookx.dtd";
+    public static final String HTML_PUBLIC_ID = "-//W3C//DTD HTML 4.01//EN";
+    public static final String HTML_SYSTEM_ID = "http://www.w3.org/TR/html4/strict.dtd";
+    public static final String XHTML_PUBLIC_ID = "-//W3C//DTD XHTML 1.0 Strict//EN";
+    public static final String XHTML_SYSTEM_ID = "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd";
+
     private Logger log;
     private Tools tools;
     private String encoding;
@@ -54,17 +61,16 @@ public class DomWriter {
         transformer.setOutputProperty(OutputKeys.INDENT, "yes");
         if (dtd == Dtd.DOCBOOK) {
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//OASIS//DTD DocBook XML V4.5//EN");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
-                    "http://www.oasis-open.org/docbook/xml/4.5/docbookx.dtd");
+            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, DOCBOOK_PUBLIC_ID);
+            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, DOCBOOK_SYSTEM_ID);
         } else if (dtd == Dtd.HTML) {
             transformer.setOutputProperty(OutputKeys.METHOD, "html");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//W3C//DTD HTML 4.01//EN");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, "http://www.w3.org/TR/html4/strict.dtd");
+            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, HTML_PUBLIC_ID);
+            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, HTML_SYSTEM_ID);
         } else if (dtd == Dtd.XHTML) {
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, "-//W3C//DTD XHTML 1.0 Strict//EN");
-            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, "http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd");
+            transformer.setOutputProperty(OutputKeys.DOCTYPE_PUBLIC, XHTML_PUBLIC_ID);
+            transformer.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM, XHTML_SYSTEM_ID);
         } else {
             assert false : "dtd=" + dtd;
         }
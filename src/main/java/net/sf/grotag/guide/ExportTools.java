@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 
@@ -49,17 +50,42 @@ public class ExportTools {
         domWriter.write(dom, outputFile);
     }
 
+    /**
+     * Export <code>pile</code> as DocBook XML book to <code>outputFile</code>.
+     * 
+     * @param isStreaming
+     *                write the book while traversing the nodes instead of
+     *                building a DOM for the whole book first
+     */
+    public void exportAsDocBookXml(GuidePile pile, File outputFile, boolean isStreaming)
+            throws ParserConfigurationException, IOException, TransformerConfigurationException, TransformerException,
+            XMLStreamException {
+        if (isStreaming) {
+            DocBookStreamWriter docBookWriter = new DocBookStreamWriter(new DocBookDomFactory(pile));
+            docBookWriter.write(outputFile);
+        } else {
+            exportAsDocBookXml(pile, outputFile);
+        }
+    }
+
     public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd) throws ParserConfigurationException,
             IOException, TransformerConfigurationException, TransformerException {
-        for (Guide guide : pile.getGuides()) {
-            HtmlDomFactory factory = new HtmlDomFactory(pile, outputFolder);
-            factory.copyStyleFile();
-            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
-                Document htmlDocument = factory.createNodeDocument(guide, nodeInfo);
-                File targetFile = factory.getTargetFileFor(guide, nodeInfo);
-                DomWriter htmlWriter = new DomWriter(dtd);
-                htmlWriter.write(htmlDocument, targetFile);
-            }
-        }
+        exportAsHtml(pile, outputFolder, dtd, 1, false);
+    }
+
+    /**
+     * Export all nodes in <code>pile</code> to HTML files in
+     * <code>outputFolder</code>, using <code>jobs</code> threads.
+     * 
+     * @param isStreaming
+     *                write the HTML files directly instead of building a DOM
+     *                for each node first
+     */
+    public void exportAsHtml(GuidePile pile, File outputFolder, DomWriter.Dtd dtd, int jobs, boolean isStreaming)
+            throws ParserConfigurationException, IOException, TransformerConfigurationException, TransformerException {
+        HtmlExportSession session = new HtmlExportSession(pile, outputFolder, dtd);
+        session.setJobs(jobs);
+        session.setStreaming(isStreaming);
+        session.exportAll();
     }
 }
@@ -7,12 +7,15 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import net.sf.grotag.common.AmigaPathList;
 import net.sf.grotag.common.AmigaTools;
@@ -23,9 +26,11 @@ import net.sf.grotag.parse.AbstractTextItem;
 import net.sf.grotag.parse.CommandItem;
 import net.sf.grotag.parse.FileSource;
 import net.sf.grotag.parse.ItemReader;
+import net.sf.grotag.parse.MessageCode;
 import net.sf.grotag.parse.MessageItem;
 import net.sf.grotag.parse.MessagePool;
 import net.sf.grotag.parse.NewLineItem;
+import net.sf.grotag.parse.PackedItemList;
 import net.sf.grotag.parse.SpaceItem;
 import net.sf.grotag.parse.StringSource;
 import net.sf.grotag.parse.Tag;
@@ -35,10 +40,20 @@ import net.sf.grotag.parse.TextItem;
 
 /**
  * An Amigaguide document.
+ * <p>
+ * Once a guide has been read and validated, it is frozen: structures only
+ * needed while building it are dropped and the items, nodes and relations
+ * cannot be modified anymore. A frozen guide can be shared between threads
+ * and piles as long as it is published safely, for example using a
+ * concurrent collection. The state of its links however is set by the
+ * <code>GuidePile</code> validating them.
  * 
  * @author Thomas Aglassinger
  */
 public class Guide {
+    private static final int PRETTY_BUFFER_SIZE = 8192;
+    private static volatile boolean packingItems;
+    private static final Relation[] RELATIONS = Relation.values();
     private Logger log;
     private AbstractSource guideSource;
     private List<AbstractItem> items;
@@ -51,58 +66,69 @@ public class Guide {
     private Map<String, CommandItem> endNodeMap;
     private Map<String, CommandItem> uniqueGlobalCommandsOccurred;
     private Map<String, CommandItem> uniqueNodeCommandsOccurred;
+    private String openNodeName;
+    private NodeInfo currentNodeInfo;
+    private int currentNodeStartItemIndex;
+    private AbstractItem lastAppendedItem;
+    private List<CommandItem> linkCommands;
     private boolean hasMacros;
     private DatabaseInfo databaseInfo;
     private Map<String, NodeInfo> nodeInfoMap;
+    private List<NodeInfo> nodeInfos;
     private List<Link> links;
     private Map<Relation, Link> globalRelationLinkMap;
     private AmigaPathList amigaPaths;
+    private volatile boolean frozen;
 
-    private Guide(AbstractSource newGuideSource, AmigaPathList newAmigaPaths) {
+    private Guide(AbstractSource newGuideSource, AmigaPathList newAmigaPaths, MessagePool newMessagePool) {
         assert newGuideSource != null;
         assert newAmigaPaths != null;
+        assert newMessagePool != null;
 
         tools = Tools.getInstance();
-        messagePool = MessagePool.getInstance();
+        messagePool = newMessagePool;
         log = Logger.getLogger(Guide.class.getName());
 
         guideSource = newGuideSource;
         amigaPaths = newAmigaPaths;
         tagPool = new TagPool();
-        nodeInfoMap = new TreeMap<>();
-        globalRelationLinkMap = new TreeMap<>();
-    }
-
-    private void defineMacros() {
-        for (AbstractItem item : items) {
-            if (isLineCommand(item)) {
-                CommandItem possibleMacroItem = (CommandItem) item;
-                String commandName = possibleMacroItem.getCommandName();
-
-                if (commandName.equals("macro")) {
-                    Tag macro = createMacro(possibleMacroItem);
-
-                    if (macro != null) {
-                        String macroName = macro.getName();
-                        Tag existingMacro = tagPool.getTag(macroName, Tag.Scope.INLINE);
-
-                        if (existingMacro != null) {
-                            if (existingMacro.isMacro()) {
-                                MessageItem currentMacroMessage = new MessageItem(possibleMacroItem,
-                                        "ignored duplicate definition of macro " + tools.sourced(macroName));
-                                MessageItem existingMacroMessage = new MessageItem(existingMacro.getMacroTextItem(),
-                                        "previous definition of macro");
-
-                                currentMacroMessage.setSeeAlso(existingMacroMessage);
-                                messagePool.add(currentMacroMessage);
-                            } else {
-                                messagePool.add(new MessageItem(possibleMacroItem, "replaced standard tag "
-                                        + tools.sourced(existingMacro.getName()) + " with macro"));
-                            }
+        nodeInfoMap = new HashMap<>();
+        nodeInfos = Collections.emptyList();
+        globalRelationLinkMap = new EnumMap<>(Relation.class);
+    }
+
+    /**
+     * If <code>item</code> is a <code>@macro</code>, define it so it is
+     * available for all items, including those before the definition.
+     */
+    private void defineMacroIfMacro(AbstractItem item) {
+        if (isLineCommand(item)) {
+            CommandItem possibleMacroItem = (CommandItem) item;
+
+            if (possibleMacroItem.getTagName() == Tag.Name.macro) {
+                Tag macro = createMacro(possibleMacroItem);
+
+                if (macro != null) {
+                    String macroName = macro.getName();
+                    Tag existingMacro = tagPool.getTag(macroName, Tag.Scope.INLINE);
+
+                    if (existingMacro != null) {
+                        if (existingMacro.isMacro()) {
+                            MessageItem currentMacroMessage = new MessageItem(MessageCode.MACRO, possibleMacroItem,
+                                    () -> "ignored duplicate definition of macro " + tools.sourced(macroName));
+                            MessageItem existingMacroMessage = new MessageItem(existingMacro.getMacroTextItem(),
+                                    "previous definition of macro");
+
+                            currentMacroMessage.setSeeAlso(existingMacroMessage);
+                            messagePool.add(currentMacroMessage);
                         } else {
-                            hasMacros = true;
-                            tagPool.addTag(macro);
+                            messagePool.add(new MessageItem(MessageCode.MACRO, possibleMacroItem,
+                                    () -> "replaced standard tag " + tools.sourced(existingMacro.getName())
+                                            + " with macro"));
                         }
+                    } else {
+                        hasMacros = true;
+                        tagPool.addMacro(macro);
                     }
                 }
             }
@@ -110,75 +136,120 @@ public class Guide {
     }
 
     /**
-     * Replace all items calling a macro by the resolved sequence of items.
+     * Build the final items of the guide from the items read in a single
+     * pass: resolve macros, add missing and remove dangling
+     * <code>@endnode</code>s, validate commands and collect nodes and links.
      */
-    private void resolveMacros() throws IOException {
-        int itemIndex = 0;
-        while (itemIndex < items.size()) {
-            AbstractItem item = items.get(itemIndex);
-            log.fine("process " + item);
-            if (isInlineCommand(item)) {
-                CommandItem tagItem = (CommandItem) item;
-                Tag macro = tagPool.getMacro(tagItem.getCommandName());
-                if (macro != null) {
-                    // messagePool.add(new MessageItem(tagItem, "resolving
-                    // macro @{" + macro.getName() + "}..."));
-                    // Write resolved macro to file and parse it.
-                    String resolvedMacro = resolveMacro(tagItem, macro);
-                    StringSource macroSource = new StringSource(guideSource.getShortName() + "@macro-"
-                            + macro.getName(), resolvedMacro);
-
-                    ItemReader itemReader = new ItemReader(macroSource);
-                    itemReader.read();
-                    List<AbstractItem> macroItems = itemReader.getItems();
-
-                    assert macroItems.size() > 0;
-                    assert macroItems.get(macroItems.size() - 1) instanceof NewLineItem;
-                    macroItems.remove(macroItems.size() - 1);
-                    items.remove(itemIndex);
-                    items.addAll(itemIndex, macroItems);
-                    itemIndex -= 1;
-                }
-            }
-            itemIndex += 1;
+    private void processItems() throws IOException {
+        List<AbstractItem> itemsRead = items;
+        Map<String, List<AbstractItem>> resolvedMacroCache = new HashMap<>();
+        Set<Tag> macrosBeingResolved = new HashSet<>();
+
+        items = new ArrayList<>(itemsRead.size() + 1);
+        nodeList = new ArrayList<>();
+        nodeMap = new HashMap<>();
+        endNodeMap = new HashMap<>();
+        uniqueGlobalCommandsOccurred = new HashMap<>();
+        uniqueNodeCommandsOccurred = new HashMap<>();
+        linkCommands = new ArrayList<>();
+
+        appendWithResolvedMacros(itemsRead, resolvedMacroCache, macrosBeingResolved);
+        if (openNodeName != null) {
+            appendMissingEndnodeAtEndOfFile();
         }
-    }
 
-    private String resolveMacro(CommandItem caller, Tag macro) {
-        // Replace macro options.
-        String macroText = macro.getMacroTextItem().getText();
-        String result = "";
-        int i = 0;
-        while (i < macroText.length()) {
-            char some = macroText.charAt(i);
-            if ((some == '$') && (i < (macroText.length() - 1) && Character.isDigit(macroText.charAt(i + 1)))) {
-                // TODO: Check how Amigaguide handles integer overflow for macro
-                // options.
-                int optionIndex = 0;
-                String optionText;
+        // At this point, a possible missing @endnode should have been fixed
+        // already.
+        assert currentNodeInfo == null;
 
-                while ((i < (macroText.length() - 1) && Character.isDigit(macroText.charAt(i + 1)))) {
-                    i += 1;
-                    optionIndex = 10 * optionIndex + (macroText.charAt(i) - '0');
-                }
-                int accessOptionIndex = 1 + 2 * (optionIndex - 1);
+        for (CommandItem node : nodeList) {
+            log.fine("node: " + node);
+            log.fine("  endnode: " + endNodeMap.get(getNodeName(node)));
+        }
+        nodeInfos = createNodeInfos();
+        assertNodeConsistency();
+        collectLinks();
+
+        // No more need for those, but GC wouldn't know.
+        uniqueGlobalCommandsOccurred = null;
+        uniqueNodeCommandsOccurred = null;
+        lastAppendedItem = null;
+        linkCommands = null;
+    }
 
-                if (accessOptionIndex < caller.getItems().size()) {
-                    optionText = ((AbstractTextItem) caller.getItems().get(accessOptionIndex)).getText();
-                    log.fine("  substituting $" + optionIndex + " by: " + tools.sourced(optionText));
+    /**
+     * Append <code>itemsToAppend</code> to the items of the guide, replacing
+     * calls to macros by their (possibly nested) resolved items.
+     * 
+     * @param resolvedMacroCache
+     *                cache of already parsed macro texts, so calling the same
+     *                macro with the same options several times requires to
+     *                parse the macro text only once
+     * @param macrosBeingResolved
+     *                the macros that are currently being resolved further up
+     *                in the call chain, which are used to detect recursive
+     *                macros
+     */
+    private void appendWithResolvedMacros(List<AbstractItem> itemsToAppend,
+            Map<String, List<AbstractItem>> resolvedMacroCache, Set<Tag> macrosBeingResolved) throws IOException {
+        for (AbstractItem item : itemsToAppend) {
+            Tag macro = null;
+            if (hasMacros && isInlineCommand(item)) {
+                macro = tagPool.getMacro(((CommandItem) item).getCommandName());
+            }
+            if (macro != null) {
+                CommandItem tagItem = (CommandItem) item;
+                if (macrosBeingResolved.contains(macro)) {
+                    String macroName = macro.getName();
+                    messagePool.add(new MessageItem(MessageCode.MACRO, tagItem, () -> "removed recursive call to macro "
+                            + tools.sourced(macroName)));
                 } else {
-                    optionText = "";
-                    log.fine("  substituting $" + optionIndex + " by empty text");
+                    List<AbstractItem> macroItems = getResolvedMacroItems(tagItem, macro, resolvedMacroCache);
+                    macrosBeingResolved.add(macro);
+                    appendWithResolvedMacros(macroItems, resolvedMacroCache, macrosBeingResolved);
+                    macrosBeingResolved.remove(macro);
                 }
-                result += optionText;
             } else {
-                result += some;
+                appendItem(item);
             }
-            i += 1;
         }
-        log.fine("resolved macro: " + result);
+    }
 
-        return result;
+    /**
+     * Items resulting from resolving the call to <code>macro</code> in
+     * <code>caller</code>, possibly containing calls to further macros.
+     */
+    private List<AbstractItem> getResolvedMacroItems(CommandItem caller, Tag macro,
+            Map<String, List<AbstractItem>> resolvedMacroCache) throws IOException {
+        String resolvedMacro = macro.getMacroTemplate().resolve(caller);
+        String cacheKey = macro.getName() + "\n" + resolvedMacro;
+        List<AbstractItem> result = resolvedMacroCache.get(cacheKey);
+
+        if (result == null) {
+            log.log(Level.FINE, "resolved macro: {0}", resolvedMacro);
+            StringSource macroSource = new StringSource(guideSource.getShortName() + "@macro-" + macro.getName(),
+                    resolvedMacro);
+            ItemReader itemReader = new ItemReader(macroSource, messagePool);
+            itemReader.read();
+            result = itemReader.getItems();
+
+            if (result.size() > 0) {
+                assert result.get(result.size() - 1) instanceof NewLineItem;
+                result.remove(result.size() - 1);
+            }
+            resolvedMacroCache.put(cacheKey, result);
+        }
+
+        // Commands can be changed later on, so every call gets its own copy.
+        List<AbstractItem> resultCopy = new ArrayList<>(result.size());
+        for (AbstractItem item : result) {
+            if (item instanceof CommandItem) {
+                resultCopy.add(((CommandItem) item).copy());
+            } else {
+                resultCopy.add(item);
+            }
+        }
+        return resultCopy;
     }
 
     private void collectLinks() {
@@ -192,54 +263,71 @@ public class Guide {
         }
 
         // Collect links from link commands.
-        for (AbstractItem item : items) {
-            if (item instanceof CommandItem) {
-                CommandItem command = (CommandItem) item;
-                if (command.isLink()) {
-                    String label = command.getOriginalCommandName();
-                    label = label.substring(1, label.length() - 1);
-                    String type = command.getOption(0);
-                    Tag linkTag = tagPool.getTag(type, Tag.Scope.LINK);
-
-                    if (linkTag != null) {
-                        assert !linkTag.nameEquals(Tag.Name.alink) : "alink must have been replaced: " + command;
-                        if (linkTag.nameEquals(Tag.Name.link) || linkTag.nameEquals(Tag.Name.guide)) {
-                            String target = command.getOption(1);
-                            assert target != null : "empty target: " + command;
-                            if (target.length() > 0) {
-                                try {
-                                    Link link = new Link(command, amigaPaths);
-                                    links.add(link);
-                                } catch (NumberFormatException error) {
-                                    String lineText = command.getOption(2);
-                                    log
-                                            .log(Level.INFO, "ignored broken line number: " + tools.sourced(lineText),
-                                                    error);
-                                    MessageItem message = new MessageItem(command.getOptionItem(2),
-                                            "ignored broken line number: " + tools.sourced(lineText));
-                                    messagePool.add(message);
-                                    command.cutOptionsAt(2);
-                                    Link link = new Link(command, amigaPaths);
-                                    links.add(link);
-                                }
-                            } else {
-                                // Empty link, for example @{"label" link ""}.
-                                MessageItem message = new MessageItem(command.getOptionItem(1),
-                                        "ignored empty link target");
-                                messagePool.add(message);
-                            }
-                        }
-                    } else {
-                        // Unknown link type, for example: @{"label" oops}.
-                        MessageItem message = new MessageItem(command.getOptionItem(0), "ignored unknown link type "
-                                + tools.sourced(type) + ", valid types are: " + tagPool.getValidLinkTypes());
-                        messagePool.add(message);
-                    }
+        for (CommandItem command : linkCommands) {
+            Tag.Name linkTypeName = command.getLinkTypeName();
+            if (linkTypeName == null) {
+                addUnknownLinkTypeMessage(command);
+            } else {
+                switch (linkTypeName) {
+                case alink:
+                    assert false : "alink must have been replaced: " + command;
+                    break;
+                case guide:
+                case link:
+                    collectLink(command);
+                    break;
+                case beep:
+                case close:
+                case quit:
+                case rx:
+                case rxs:
+                case system:
+                    // Pseudo links are not collected.
+                    break;
+                default:
+                    addUnknownLinkTypeMessage(command);
+                    break;
                 }
             }
         }
     }
 
+    private void collectLink(CommandItem command) {
+        String target = command.getOption(1);
+        assert target != null : "empty target: " + command;
+        if (target.length() > 0) {
+            try {
+                Link link = new Link(command, amigaPaths);
+                links.add(link);
+            } catch (NumberFormatException error) {
+                String lineText = command.getOption(2);
+                log.log(Level.INFO, "ignored broken line number: " + tools.sourced(lineText), error);
+                MessageItem message = new MessageItem(MessageCode.BROKEN_LINK, command.getOptionItem(2),
+                        () -> "ignored broken line number: " + tools.sourced(lineText));
+                messagePool.add(message);
+                command.cutOptionsAt(2);
+                Link link = new Link(command, amigaPaths);
+                links.add(link);
+            }
+        } else {
+            // Empty link, for example @{"label" link ""}.
+            MessageItem message = new MessageItem(MessageCode.BROKEN_LINK, command.getOptionItem(1),
+                    "ignored empty link target");
+            messagePool.add(message);
+        }
+    }
+
+    /**
+     * Report the unknown link type of <code>command</code>, for example:
+     * <code>@{"label" oops}</code>.
+     */
+    private void addUnknownLinkTypeMessage(CommandItem command) {
+        MessageItem message = new MessageItem(MessageCode.BROKEN_LINK, command.getOptionItem(0),
+                () -> "ignored unknown link type " + tools.sourced(command.getOption(0)) + ", valid types are: "
+                        + tagPool.getValidLinkTypes());
+        messagePool.add(message);
+    }
+
     private void collectLinksFromRelationMap(Map<Relation, Link> relationMap) {
         assert links != null;
         // TODO #3: Check if streams are useful here.
@@ -248,83 +336,92 @@ public class Guide {
         }
     }
 
-    private void collectNodes() {
-        nodeList = new ArrayList<>();
-        nodeMap = new TreeMap<>();
-        endNodeMap = new TreeMap<>();
-
-        String nodeName = null;
-        int i = 0;
-
-        while (i < items.size()) {
-            AbstractItem item = items.get(i);
-            if (isLineCommand(item)) {
-                CommandItem command = (CommandItem) item;
-                String commandName = command.getCommandName();
-
-                if (commandName.equals("node")) {
-                    if (nodeName != null) {
-                        // Add missing @endnode.
-                        CommandItem endNodeItem = new CommandItem(command.getFile(), command.getLine(), command
-                                .getColumn(), "endnode", false, new ArrayList<>());
-                        items.add(i, endNodeItem);
-                        endNodeMap.put(nodeName, endNodeItem);
-                        i += 1;
-                        CommandItem startNodeItem = nodeList.get(nodeList.size() - 1);
-
-                        MessageItem message = new MessageItem(command, "added missing @endnode before @node");
-                        MessageItem seeAlso = new MessageItem(startNodeItem, "previous @node");
+    /**
+     * Append <code>item</code> to the items of the guide. Add a missing
+     * <code>@endnode</code> before a <code>@node</code>, skip a dangling
+     * <code>@endnode</code> and validate commands on the way.
+     */
+    private void appendItem(AbstractItem item) {
+        boolean skipItem = false;
+
+        if (isLineCommand(item)) {
+            CommandItem command = (CommandItem) item;
+            Tag.Name commandTagName = command.getTagName();
+
+            if (commandTagName == Tag.Name.node) {
+                if (openNodeName != null) {
+                    // Add missing @endnode.
+                    CommandItem endNodeItem = new CommandItem(command.getFile(), command.getLine(), command
+                            .getColumn(), "endnode", false, new ArrayList<>());
+                    endNodeMap.put(openNodeName, endNodeItem);
+                    CommandItem startNodeItem = nodeList.get(nodeList.size() - 1);
+
+                    MessageItem message = new MessageItem(MessageCode.NODE_STRUCTURE, command,
+                            "added missing @endnode before @node");
+                    MessageItem seeAlso = new MessageItem(startNodeItem, "previous @node");
+                    message.setSeeAlso(seeAlso);
+                    messagePool.add(message);
+                    appendValidatedItem(endNodeItem);
+                }
+                String nodeName = getNodeNameOrNull(command);
+                if (nodeName != null) {
+                    CommandItem nodeWithSameName = nodeMap.get(nodeName);
+                    if (nodeWithSameName != null) {
+                        // Change duplicate node name to something unique.
+                        AbstractTextItem uniqueNodeNameItem = getUniqueNodeNameItem(command.getItems().get(1));
+                        nodeName = uniqueNodeNameItem.getText();
+                        command.setOption(0, nodeName);
+                        String uniqueNodeName = nodeName;
+                        MessageItem message = new MessageItem(MessageCode.DUPLICATE_NODE, command,
+                                () -> "changed duplicate node name " + tools.sourced(uniqueNodeName) + " to "
+                                        + tools.sourced(uniqueNodeName));
+                        MessageItem seeAlso = new MessageItem(nodeWithSameName, "existing node with same name");
                         message.setSeeAlso(seeAlso);
                         messagePool.add(message);
                     }
-                    nodeName = getNodeNameOrNull(command);
-                    if (nodeName != null) {
-                        CommandItem nodeWithSameName = nodeMap.get(nodeName);
-                        if (nodeWithSameName != null) {
-                            // Change duplicate node name to something unique.
-                            AbstractTextItem uniqueNodeNameItem = getUniqueNodeNameItem(command.getItems().get(1));
-                            nodeName = uniqueNodeNameItem.getText();
-                            command.setOption(0, nodeName);
-                            MessageItem message = new MessageItem(command, "changed duplicate node name "
-                                    + tools.sourced(nodeName) + " to " + tools.sourced(nodeName));
-                            MessageItem seeAlso = new MessageItem(nodeWithSameName, "existing node with same name");
-                            message.setSeeAlso(seeAlso);
-                            messagePool.add(message);
-                        }
-                    } else {
-                        nodeName = getUniqueNodeName();
-                        command.getItems().add(
-                                new SpaceItem(command.getFile(), command.getLine(), command.getColumn(), " "));
-                        command.getItems().add(
-                                new TextItem(command.getFile(), command.getLine(), command.getColumn(), nodeName));
-                        MessageItem message = new MessageItem(command, "assigned name " + tools.sourced(nodeName)
-                                + " to unnamed node");
-                        messagePool.add(message);
-                    }
-                    nodeList.add(command);
-                    nodeMap.put(nodeName, command);
-                } else if (commandName.equals("endnode")) {
-                    if (nodeName == null) {
-                        items.remove(i);
-                        i -= 1;
-                        messagePool.add(new MessageItem(command, "removed dangling @endnode"));
-                    } else {
-                        endNodeMap.put(nodeName, command);
-                        nodeName = null;
-                    }
+                } else {
+                    nodeName = getUniqueNodeName();
+                    command.getItems().add(
+                            new SpaceItem(command.getFile(), command.getLine(), command.getColumn(), " "));
+                    command.getItems().add(
+                            new TextItem(command.getFile(), command.getLine(), command.getColumn(), nodeName));
+                    String unnamedNodeName = nodeName;
+                    MessageItem message = new MessageItem(MessageCode.NODE_STRUCTURE, command,
+                            () -> "assigned name " + tools.sourced(unnamedNodeName) + " to unnamed node");
+                    messagePool.add(message);
+                }
+                openNodeName = nodeName;
+                nodeList.add(command);
+                nodeMap.put(nodeName, command);
+            } else if (commandTagName == Tag.Name.endnode) {
+                if (openNodeName == null) {
+                    skipItem = true;
+                    messagePool.add(new MessageItem(MessageCode.NODE_STRUCTURE, command, "removed dangling @endnode"));
+                } else {
+                    endNodeMap.put(openNodeName, command);
+                    openNodeName = null;
                 }
-
             }
-            i += 1;
         }
-        if (nodeName != null) {
-            appendMissingEndnodeAtEndOfFile(nodeName);
+        if (!skipItem) {
+            lastAppendedItem = item;
+            appendValidatedItem(item);
         }
+    }
 
-        for (CommandItem node : nodeList) {
-            log.fine("node: " + node);
-            log.fine("  endnode: " + endNodeMap.get(getNodeName(node)));
+    /**
+     * Append <code>item</code> to the items of the guide. If it is a
+     * command, validate it first, which might replace it by a text item.
+     */
+    private void appendValidatedItem(AbstractItem item) {
+        AbstractItem itemToAppend = item;
+        if (item instanceof CommandItem) {
+            itemToAppend = validateCommand(items.size(), (CommandItem) item);
+            if ((itemToAppend instanceof CommandItem) && ((CommandItem) itemToAppend).isLink()) {
+                linkCommands.add((CommandItem) itemToAppend);
+            }
         }
+        items.add(itemToAppend);
     }
 
     /**
@@ -353,21 +450,24 @@ public class Guide {
         return result;
     }
 
-    private void appendMissingEndnodeAtEndOfFile(String nodeName) {
-        // Create and add the missing @endnode.
-        AbstractItem lastItem = items.get(items.size() - 1);
+    private void appendMissingEndnodeAtEndOfFile() {
+        // Create the missing @endnode.
+        AbstractItem lastItem = lastAppendedItem;
         assert lastItem instanceof NewLineItem : "lastItem=" + lastItem.getClass().getName();
         CommandItem endNodeItem = new CommandItem(lastItem.getFile(), lastItem.getLine(), lastItem.getColumn(),
                 "endnode", false, new ArrayList<>());
-        items.add(endNodeItem);
-        endNodeMap.put(nodeName, endNodeItem);
+        endNodeMap.put(openNodeName, endNodeItem);
 
         // Now report what we just did.
-        CommandItem startNodeItem = nodeMap.get(nodeName);
-        MessageItem message = new MessageItem(lastItem, "added missing" + endNodeItem.toShortAmigaguide() + " at end");
+        CommandItem startNodeItem = nodeMap.get(openNodeName);
+        MessageItem message = new MessageItem(MessageCode.NODE_STRUCTURE, lastItem,
+                () -> "added missing" + endNodeItem.toShortAmigaguide() + " at end");
         MessageItem seeAlso = new MessageItem(startNodeItem, "matching " + startNodeItem.toShortAmigaguide());
         message.setSeeAlso(seeAlso);
         messagePool.add(message);
+
+        openNodeName = null;
+        appendValidatedItem(endNodeItem);
     }
 
     private void assertNodeConsistency() {
@@ -384,160 +484,170 @@ public class Guide {
             assert nodeInfo != null;
             assert nodeInfo.getStartNode() != null;
             assert nodeInfo.getEndNode() != null;
+            assert items.get(nodeInfo.getStartItemIndex()) == nodeInfo.getStartNode();
+            assert items.get(nodeInfo.getEndItemIndex()) == nodeInfo.getEndNode();
+            assert nodeInfos.get(nodeInfo.getOrdinal()) == nodeInfo;
         }
     }
 
-    private void validateCommands() {
-        uniqueGlobalCommandsOccurred = new TreeMap<>();
-        uniqueNodeCommandsOccurred = new TreeMap<>();
-        NodeInfo currentNodeInfo = null;
-        int itemIndex = 0;
+    /**
+     * Validate <code>command</code>, which will be appended to the items of
+     * the guide at <code>itemIndex</code>, and keep track of the node it is
+     * part of.
+     * 
+     * @return the item to append, which usually is <code>command</code>
+     *         but can also be a text item replacing a broken link
+     */
+    private AbstractItem validateCommand(int itemIndex, CommandItem command) {
+        AbstractItem result = command;
+        log.log(Level.FINE, "validate {0}", command.toPrettyAmigaguide());
+        Tag.Name commandTagName = command.getTagName();
+        if (commandTagName == Tag.Name.node) {
+            assert currentNodeInfo == null;
+            String nodeName = getNodeName(command);
+            String nodeTitle = command.getOption(1);
+
+            currentNodeInfo = new NodeInfo(getDatabaseInfo(), nodeName, nodeTitle);
+            currentNodeInfo.setOrdinal(nodeInfoMap.size());
+            currentNodeStartItemIndex = itemIndex;
+            assert !nodeInfoMap.containsKey(nodeName);
+            nodeInfoMap.put(nodeName, currentNodeInfo);
+
+        } else if (commandTagName == Tag.Name.endnode) {
+            assert currentNodeInfo != null;
+            CommandItem startNode = (CommandItem) items.get(currentNodeStartItemIndex);
+            assert command == endNodeMap.get(getNodeName(startNode)) : "@endnode must match @node: " + startNode;
+            currentNodeInfo.setStartAndEndNode(startNode, command);
+            currentNodeInfo.setItemRange(currentNodeStartItemIndex, itemIndex);
+            currentNodeInfo = null;
+            uniqueNodeCommandsOccurred.clear();
+        }
 
-        while (itemIndex < items.size()) {
-            AbstractItem item = items.get(itemIndex);
-            if (item instanceof CommandItem) {
-                CommandItem command = (CommandItem) item;
-                log.log(Level.FINE, "validate {0}", item.toPrettyAmigaguide());
-                if (command.getCommandName().equals("node")) {
-                    assert currentNodeInfo == null;
-                    String nodeName = getNodeName(command);
-                    String nodeTitle = command.getOption(1);
-                    CommandItem matchingEndNode = endNodeMap.get(nodeName);
-
-                    currentNodeInfo = new NodeInfo(getDatabaseInfo(), nodeName, nodeTitle);
-                    currentNodeInfo.setStartAndEndNode(command, matchingEndNode);
-                    assert !nodeInfoMap.containsKey(nodeName);
-                    nodeInfoMap.put(nodeName, currentNodeInfo);
-
-                } else if (command.getCommandName().equals("endnode")) {
-                    assert currentNodeInfo != null;
-                    currentNodeInfo = null;
-                    uniqueNodeCommandsOccurred.clear();
-                }
+        Tag.Scope scope = getScopeFor(command, (currentNodeInfo != null));
+        if (scope == Tag.Scope.LINK) {
+            result = validateLink(command);
+        } else {
+            boolean removeCommand = false;
+            Tag tag = tagPool.getTag(command.getCommandName(), scope);
+            if (tag != null) {
+                TagOption[] tagOptions = tag.getOptions();
+                boolean lastOptionIsAnyOrSome = false;
+                int optionIndex = 0;
 
-                int oldItemCount = items.size();
-                Tag.Scope scope = getScopeFor(command, (currentNodeInfo != null));
-                if (scope == Tag.Scope.LINK) {
-                    validateLink(itemIndex, command);
-                } else {
-                    boolean removeCommand = false;
-                    Tag tag = tagPool.getTag(command.getCommandName(), scope);
-                    if (tag != null) {
-                        TagOption[] tagOptions = tag.getOptions();
-                        boolean lastOptionIsAnyOrSome = false;
-                        int optionIndex = 0;
+                removeCommand = !isValidPossiblyUniqueCommand(command, tag);
 
-                        removeCommand = !isValidPossiblyUniqueCommand(command, tag);
+                if (!removeCommand) {
+                    validateUnusedAndObsoleteCommand(command, tag);
+                }
+                while (!removeCommand && (tagOptions != null) && (optionIndex < tagOptions.length)) {
+                    TagOption tagOption = tagOptions[optionIndex];
+                    String optionValue = command.getOption(optionIndex);
+                    String validationError = tagOption.validationError(optionValue);
+                    if (validationError != null) {
+                        AbstractItem baseItem = command.getOptionItem(optionIndex);
 
-                        if (!removeCommand) {
-                            validateUnusedAndObsoleteCommand(command, tag);
-                        }
-                        while (!removeCommand && (tagOptions != null) && (optionIndex < tagOptions.length)) {
-                            TagOption tagOption = tagOptions[optionIndex];
-                            String optionValue = command.getOption(optionIndex);
-                            String validationError = tagOption.validationError(optionValue);
-                            if (validationError != null) {
-                                AbstractItem baseItem = command.getOptionItem(optionIndex);
-
-                                if (baseItem == null) {
-                                    baseItem = command;
-                                }
-                                MessageItem message = new MessageItem(baseItem, "removed "
-                                        + command.toShortAmigaguide() + " because option #" + (optionIndex + 1)
-                                        + " is broken: " + validationError);
-                                messagePool.add(message);
-                                removeCommand = true;
-                            } else {
-                                assert !lastOptionIsAnyOrSome : "option of type \"any\" or \"some\" must be the last: "
-                                        + tag;
-                                lastOptionIsAnyOrSome = (tagOption.getType() == TagOption.Type.ANY)
-                                        || (tagOption.getType() == TagOption.Type.SOME);
-                            }
-                            optionIndex += 1;
+                        if (baseItem == null) {
+                            baseItem = command;
                         }
+                        int brokenOptionNumber = optionIndex + 1;
+                        MessageItem message = new MessageItem(MessageCode.BROKEN_OPTION, baseItem,
+                                () -> "removed " + command.toShortAmigaguide() + " because option #"
+                                        + brokenOptionNumber + " is broken: " + validationError);
+                        messagePool.add(message);
+                        removeCommand = true;
+                    } else {
+                        assert !lastOptionIsAnyOrSome : "option of type \"any\" or \"some\" must be the last: "
+                                + tag;
+                        lastOptionIsAnyOrSome = (tagOption.getType() == TagOption.Type.ANY)
+                                || (tagOption.getType() == TagOption.Type.SOME);
+                    }
+                    optionIndex += 1;
+                }
 
-                        if (!removeCommand && !lastOptionIsAnyOrSome) {
-                            AbstractTextItem optionItem = command.getOptionItem(optionIndex);
-                            if (optionItem != null) {
-                                MessageItem message = new MessageItem(optionItem, "ignored unexpected option #"
-                                        + (optionIndex + 1) + " (and possible further options) for "
-                                        + command.toShortAmigaguide() + ": " + tools.sourced(optionItem.getText()));
-                                messagePool.add(message);
-                            }
-                        }
+                if (!removeCommand && !lastOptionIsAnyOrSome) {
+                    AbstractTextItem optionItem = command.getOptionItem(optionIndex);
+                    if (optionItem != null) {
+                        int unexpectedOptionNumber = optionIndex + 1;
+                        MessageItem message = new MessageItem(MessageCode.UNEXPECTED_OPTION, optionItem,
+                                () -> "ignored unexpected option #" + unexpectedOptionNumber
+                                        + " (and possible further options) for " + command.toShortAmigaguide()
+                                        + ": " + tools.sourced(optionItem.getText()));
+                        messagePool.add(message);
+                    }
+                }
 
-                        // Validate and process special commands.
-                        if (!removeCommand) {
-                            String commandName = command.getCommandName();
-                            AbstractInfo scopedInfo;
+                // Validate and process special commands.
+                if (!removeCommand) {
+                    String commandName = command.getCommandName();
+                    AbstractInfo scopedInfo;
 
-                            if (currentNodeInfo == null) {
-                                scopedInfo = getDatabaseInfo();
-                            } else {
-                                scopedInfo = currentNodeInfo;
-                            }
+                    if (currentNodeInfo == null) {
+                        scopedInfo = getDatabaseInfo();
+                    } else {
+                        scopedInfo = currentNodeInfo;
+                    }
 
-                            if (commandName.equals("author")) {
-                                databaseInfo.setAuthor(command.getAllOptionsText());
-                            } else if (commandName.equals("font")) {
-                                removeCommand = !isValidFont(command);
-                                if (!removeCommand) {
-                                    String fontName = command.getOption(0);
-                                    int fontSize = Integer.parseInt(command.getOption(1));
-                                    scopedInfo.setFont(fontName, fontSize);
-                                }
-                            } else if (commandName.equals(Tag.Name.proportional.toString())
-                                    && (currentNodeInfo != null)) {
+                    if (commandTagName != null) {
+                        switch (commandTagName) {
+                        case author:
+                            databaseInfo.setAuthor(command.getAllOptionsText());
+                            break;
+                        case font:
+                            removeCommand = !isValidFont(command);
+                            if (!removeCommand) {
+                                String fontName = command.getOption(0);
+                                int fontSize = Integer.parseInt(command.getOption(1));
+                                scopedInfo.setFont(fontName, fontSize);
+                            }
+                            break;
+                        case proportional:
+                            if (currentNodeInfo != null) {
                                 currentNodeInfo.setProportional(true);
-                            } else if (commandName.equals("smartwrap")) {
-                                scopedInfo.setWrap(Wrap.SMART);
-                            } else if (commandName.equals("wordwrap")) {
-                                scopedInfo.setWrap(Wrap.WORD);
-                            } else if (commandName.equals("$ver:")) {
-                                databaseInfo.setVersion(command.getAllOptionsText());
-                            } else if (commandName.equals("(c)")) {
-                                databaseInfo.setCopyright(command.getAllOptionsText());
-                            } else if (command.isRelation()) {
-                                assert command.getOption(0) != null : "tag must be defined to require 1 option: "
-                                        + commandName;
-                                Relation relation = Relation.valueOf(commandName);
-                                Link link = new Link(command, amigaPaths);
-                                if (currentNodeInfo == null) {
-                                    assert !globalRelationLinkMap.containsKey(relation) : "tag must be defined to be unique: "
-                                            + commandName;
-                                    globalRelationLinkMap.put(relation, link);
-                                } else {
-                                    assert currentNodeInfo.getRelation(relation) == null : "tag must be defined to be unique: "
-                                            + commandName;
-                                    currentNodeInfo.setEmptyRelationToDefault(relation, link);
-                                }
                             }
+                            break;
+                        case smartwrap:
+                            scopedInfo.setWrap(Wrap.SMART);
+                            break;
+                        case wordwrap:
+                            scopedInfo.setWrap(Wrap.WORD);
+                            break;
+                        default:
+                            if (command.isRelation()) {
+                                validateRelation(command, currentNodeInfo);
+                            }
+                            break;
                         }
-                    } else {
-                        MessageItem message = new MessageItem(command, "removed unknown command "
-                                + command.toShortAmigaguide());
-                        messagePool.add(message);
-                        removeCommand = true;
+                    } else if (commandName.equals("$ver:")) {
+                        databaseInfo.setVersion(command.getAllOptionsText());
+                    } else if (commandName.equals("(c)")) {
+                        databaseInfo.setCopyright(command.getAllOptionsText());
                     }
-
-                    // TODO: Move global commands inside node below @database.
                 }
-                // Adjust itemIndex to whatever number validateXXX() has
-                // added or removed.
-                itemIndex += items.size() - oldItemCount;
+            } else {
+                MessageItem message = new MessageItem(MessageCode.UNKNOWN_COMMAND, command,
+                        () -> "removed unknown command " + command.toShortAmigaguide());
+                messagePool.add(message);
+                removeCommand = true;
             }
-            itemIndex += 1;
-        }
-
-        // At this point, a possible missing @endnode should have been fixed
-        // already.
-        assert currentNodeInfo == null;
 
-        assertNodeConsistency();
+            // TODO: Move global commands inside node below @database.
+        }
+        return result;
+    }
 
-        // No more need for those, but GC wouldn't know.
-        uniqueGlobalCommandsOccurred = null;
-        uniqueNodeCommandsOccurred = null;
+    private void validateRelation(CommandItem command, NodeInfo currentNodeInfo) {
+        assert command.getOption(0) != null : "tag must be defined to require 1 option: " + command.getCommandName();
+        Relation relation = command.getRelation();
+        Link link = new Link(command, amigaPaths);
+        if (currentNodeInfo == null) {
+            assert !globalRelationLinkMap.containsKey(relation) : "tag must be defined to be unique: "
+                    + command.getCommandName();
+            globalRelationLinkMap.put(relation, link);
+        } else {
+            assert currentNodeInfo.getRelation(relation) == null : "tag must be defined to be unique: "
+                    + command.getCommandName();
+            currentNodeInfo.setRelation(relation, link);
+        }
     }
 
     private boolean isValidFont(CommandItem command) {
@@ -557,8 +667,9 @@ public class Guide {
             if (location == null) {
                 location = command;
             }
-            MessageItem message = new MessageItem(location, "removed " + command.toShortAmigaguide()
-                    + " because font size must be a number greater than 0");
+            MessageItem message = new MessageItem(MessageCode.BROKEN_OPTION, location,
+                    () -> "removed " + command.toShortAmigaguide()
+                            + " because font size must be a number greater than 0");
             messagePool.add(message);
         }
         return result;
@@ -587,16 +698,17 @@ public class Guide {
 
             CommandItem existingUniqueCommand = uniqueCommandsOccurred.get(command.getCommandName());
             if (existingUniqueCommand != null) {
-                String messageText = "removed duplicate " + command.toShortAmigaguide()
-                        + " because it must be unique within ";
+                String scopeText;
                 if (scope == Tag.Scope.GLOBAL) {
-                    messageText += "document";
+                    scopeText = "document";
                 } else {
                     assert scope == Tag.Scope.NODE;
-                    messageText += "node";
+                    scopeText = "node";
                 }
 
-                MessageItem message = new MessageItem(command, messageText);
+                MessageItem message = new MessageItem(MessageCode.DUPLICATE_COMMAND, command,
+                        () -> "removed duplicate " + command.toShortAmigaguide() + " because it must be unique within "
+                                + scopeText);
                 MessageItem seeAlso = new MessageItem(existingUniqueCommand, "previous occurrence");
                 message.setSeeAlso(seeAlso);
                 messagePool.add(message);
@@ -613,22 +725,31 @@ public class Guide {
         assert tag != null;
         assert command.getCommandName().equals(tag.getName());
 
-        String reasonToIgnore = null;
+        String reasonToIgnore;
 
         if (tag.isObsolete()) {
             reasonToIgnore = "obsolete";
         } else if (tag.isUnused()) {
             reasonToIgnore = "unused";
+        } else {
+            reasonToIgnore = null;
         }
 
         if (reasonToIgnore != null) {
-            MessageItem message = new MessageItem(command, "ignored " + reasonToIgnore + " command "
-                    + command.toShortAmigaguide());
+            MessageItem message = new MessageItem(MessageCode.IGNORED_COMMAND, command,
+                    () -> "ignored " + reasonToIgnore + " command " + command.toShortAmigaguide());
             messagePool.add(message);
         }
     }
 
-    private void validateLink(int itemIndex, CommandItem command) {
+    /**
+     * Validate the link <code>command</code>.
+     * 
+     * @return <code>command</code> or, if the link is broken, a text item
+     *         with its label
+     */
+    private AbstractItem validateLink(CommandItem command) {
+        AbstractItem result = command;
         String linkType = command.getOption(0);
         String reasonToReplaceLinkByText = null;
         MessageItem seeAlso = null;
@@ -657,11 +778,11 @@ public class Guide {
                 }
 
                 // Change possible alink to link.
-                if (linkTag.nameEquals(Tag.Name.alink)) {
+                if (command.getLinkTypeName() == Tag.Name.alink) {
                     log.fine("old alink: " + command);
                     command.setOption(0, Tag.Name.link.toString());
                     log.fine("new link: " + command);
-                    MessageItem message = new MessageItem(command.getOptionItem(0),
+                    MessageItem message = new MessageItem(MessageCode.OBSOLETE_LINK, command.getOptionItem(0),
                             "replaced obsolete @{... alink} by @{... link}");
                     messagePool.add(message);
                 }
@@ -670,8 +791,10 @@ public class Guide {
                 optionIndex += 1;
                 if (command.getOption(optionIndex) != null) {
                     log.info("remove link options from: " + command);
-                    MessageItem message = new MessageItem(command.getOptionItem(optionIndex),
-                            "removed unexpected link options starting with option #" + optionIndex);
+                    int unexpectedOptionIndex = optionIndex;
+                    MessageItem message = new MessageItem(MessageCode.UNEXPECTED_OPTION,
+                            command.getOptionItem(optionIndex),
+                            () -> "removed unexpected link options starting with option #" + unexpectedOptionIndex);
                     messagePool.add(message);
                     command.cutOptionsAt(optionIndex);
                 }
@@ -680,14 +803,16 @@ public class Guide {
             reasonToReplaceLinkByText = "empty link";
         }
         if (reasonToReplaceLinkByText != null) {
-            MessageItem message = new MessageItem(command, "replaced " + reasonToReplaceLinkByText + " by its label: "
-                    + command.toPrettyAmigaguide());
+            String reasonToReplace = reasonToReplaceLinkByText;
+            MessageItem message = new MessageItem(MessageCode.BROKEN_LINK, command,
+                    () -> "replaced " + reasonToReplace + " by its label: " + command.toPrettyAmigaguide());
             if (seeAlso != null) {
                 message.setSeeAlso(seeAlso);
             }
             messagePool.add(message);
-            items.set(itemIndex, command.toTextItem());
+            result = command.toTextItem();
         }
+        return result;
     }
 
     private Tag.Scope getScopeFor(CommandItem command, boolean insideNode) {
@@ -729,21 +854,175 @@ public class Guide {
     }
 
     public static Guide createGuide(File newGuideFile, AmigaPathList newAmigaPaths) throws IOException {
+        return createGuide(newGuideFile, newAmigaPaths, new MessagePool());
+    }
+
+    /**
+     * Same as <code>createGuide(File, AmigaPathList)</code> but report
+     * messages to <code>newMessagePool</code>.
+     */
+    public static Guide createGuide(File newGuideFile, AmigaPathList newAmigaPaths, MessagePool newMessagePool)
+            throws IOException {
         assert newGuideFile != null;
 
-        AmigaTools amigaTools = AmigaTools.getInstance();
-        Guide result = new Guide(new FileSource(newGuideFile), newAmigaPaths);
-        amigaTools.ensureIsAmigaguide(newGuideFile);
+        GuideCache cache = GuideCache.getInstance();
+        GuideCache.Stamp stamp = cache.getStamp(newGuideFile);
+        Guide result = null;
+
+        if (stamp != null) {
+            result = cache.read(newGuideFile, stamp, newAmigaPaths, newMessagePool);
+        }
+        if (result == null) {
+            if (stamp != null) {
+                // Collect the messages separately so they can be stored
+                // along with the guide.
+                MessagePool parseMessagePool = cache.createParseMessagePool(newMessagePool);
+                try {
+                    result = parseGuide(newGuideFile, newAmigaPaths, parseMessagePool);
+                    cache.write(result, newGuideFile, stamp, newAmigaPaths, parseMessagePool);
+                } finally {
+                    parseMessagePool.drainTo(newMessagePool);
+                }
+            } else {
+                result = parseGuide(newGuideFile, newAmigaPaths, newMessagePool);
+            }
+        }
+        return result;
+    }
+
+    private static Guide parseGuide(File newGuideFile, AmigaPathList newAmigaPaths, MessagePool newMessagePool)
+            throws IOException {
+        FileSource guideSource = new FileSource(newGuideFile);
+        Guide result = new Guide(guideSource, newAmigaPaths, newMessagePool);
+        // Read the file only once to check the header and read the items.
+        guideSource.ensureIsAmigaguide();
         result.readItems();
-        result.defineMacros();
-        result.resolveMacros();
-        result.collectNodes();
-        result.validateCommands();
-        result.collectLinks();
+        result.processItems();
+        result.freeze();
+
+        return result;
+    }
+
+    /**
+     * Guide restored by <code>GuideCache</code> from the items, node table
+     * and links of a guide that has been read and validated before.
+     */
+    static Guide createRestoredGuide(FileSource newGuideSource, AmigaPathList newAmigaPaths,
+            MessagePool newMessagePool, List<AbstractItem> newItems, DatabaseInfo newDatabaseInfo,
+            boolean newHasMacros, List<NodeInfo> newNodeInfos, Map<Relation, Link> newGlobalRelationLinkMap,
+            List<Link> newLinks) {
+        assert newItems != null;
+        assert newNodeInfos != null;
+        assert newGlobalRelationLinkMap != null;
+        assert newLinks != null;
+
+        Guide result = new Guide(newGuideSource, newAmigaPaths, newMessagePool);
+        result.items = newItems;
+        result.databaseInfo = newDatabaseInfo;
+        result.hasMacros = newHasMacros;
+        for (NodeInfo nodeInfo : newNodeInfos) {
+            assert nodeInfo.getOrdinal() == result.nodeInfoMap.size();
+            result.nodeInfoMap.put(nodeInfo.getName(), nodeInfo);
+        }
+        result.nodeInfos = Collections.unmodifiableList(new ArrayList<>(newNodeInfos));
+        result.globalRelationLinkMap.putAll(newGlobalRelationLinkMap);
+        result.links = newLinks;
+        result.freeze();
 
         return result;
     }
 
+    /**
+     * Specify whether guides created afterwards should store their items
+     * in a <code>PackedItemList</code>, which needs less memory for large
+     * guides but creates a new item each time one is retrieved.
+     */
+    public static void setPackingItems(boolean newPackingItems) {
+        packingItems = newPackingItems;
+    }
+
+    public static boolean isPackingItems() {
+        return packingItems;
+    }
+
+    /**
+     * Complete the relations of the nodes, drop the structures only needed
+     * to build the guide and prevent further modifications.
+     */
+    private void freeze() {
+        assert !frozen : "guide must be frozen only once: " + guideSource.getFullName();
+
+        if (packingItems) {
+            items = new PackedItemList(items);
+        } else {
+            items = Collections.unmodifiableList(items);
+        }
+        freezeNodeInfos();
+        globalRelationLinkMap = Collections.unmodifiableMap(globalRelationLinkMap);
+        links = Collections.unmodifiableList(links);
+
+        nodeList = null;
+        nodeMap = null;
+        endNodeMap = null;
+        tagPool = null;
+        messagePool = null;
+
+        // Publish the guide only after all of the above.
+        frozen = true;
+    }
+
+    /**
+     * Freeze the nodes with their relations, using the relations of the
+     * guide and the neighboring nodes for relations a node does not declare
+     * itself.
+     */
+    private void freezeNodeInfos() {
+        int nodeCount = getNodeCount();
+        Link nodeLink = null;
+        Link nextNodeLink = null;
+
+        if (nodeCount > 0) {
+            nextNodeLink = new Link(getNodeInfo(0).getStartNode(), amigaPaths);
+        }
+        for (int ordinal = 0; ordinal < nodeCount; ordinal += 1) {
+            NodeInfo nodeInfo = getNodeInfo(ordinal);
+            Link previousNodeLink = nodeLink;
+
+            // The link to a node serves as "previous" of the next node and as
+            // "next" of the previous node.
+            nodeLink = nextNodeLink;
+            if ((ordinal + 1) < nodeCount) {
+                nextNodeLink = new Link(getNodeInfo(ordinal + 1).getStartNode(), amigaPaths);
+            } else {
+                nextNodeLink = null;
+            }
+
+            Link[] relationLinks = new Link[RELATIONS.length];
+            for (Relation relation : RELATIONS) {
+                Link link = nodeInfo.getRelation(relation);
+                if (link == null) {
+                    if (relation == Relation.next) {
+                        link = nextNodeLink;
+                    } else if (relation == Relation.previous) {
+                        link = previousNodeLink;
+                    } else {
+                        link = getRelation(relation);
+                    }
+                }
+                relationLinks[relation.ordinal()] = link;
+            }
+            nodeInfo.freeze(relationLinks);
+        }
+    }
+
+    /**
+     * Has the guide been completely read and validated, so it cannot be
+     * modified anymore?
+     */
+    boolean isFrozen() {
+        return frozen;
+    }
+
     private Tag createMacro(CommandItem macro) {
         assert macro.getCommandName().equals("macro");
         Tag result = null;
@@ -787,43 +1066,66 @@ public class Guide {
         return result;
     }
 
+    /**
+     * Read the items of the guide and define its macros while reading.
+     */
     private void readItems() throws IOException {
-        ItemReader itemReader = new ItemReader(guideSource);
-
-        itemReader.read();
-        items = itemReader.getItems();
-
-        // Setup initial @database information.
-        if (items.size() > 0) {
-            AbstractItem firstItem = items.get(0);
-            if (firstItem instanceof CommandItem) {
-                CommandItem firstCommand = (CommandItem) firstItem;
-                if (firstCommand.getCommandName().equals("database")) {
-                    String databaseName = firstCommand.getOption(0);
-                    if (databaseName == null) {
-                        databaseName = guideSource.getShortName();
-                        MessageItem message = new MessageItem(guideSource, 0, 0, "changed missing database name to "
-                                + tools.sourced(databaseName));
-                        messagePool.add(message);
-                    }
-                    databaseInfo = new DatabaseInfo(databaseName);
-                } else {
-                    log.info("first command is: " + firstItem);
-                }
-            } else {
-                log.info("first item is: " + firstItem);
+        ItemReader itemReader = new ItemReader(guideSource, messagePool);
+        ItemReader.ItemIterator itemIterator = itemReader.createItemIterator();
+
+        items = new ArrayList<>();
+        if (itemIterator.hasNext()) {
+            AbstractItem firstItem = itemIterator.next();
+            setupDatabaseInfo(firstItem);
+            if (getDatabaseInfo() != null) {
+                items.add(firstItem);
             }
         } else {
             log.info("guide is empty: " + guideSource);
         }
 
+        // Without @database the items are dropped, but they still are read
+        // to report possible errors.
+        while (itemIterator.hasNext()) {
+            AbstractItem item = itemIterator.next();
+            if (getDatabaseInfo() != null) {
+                defineMacroIfMacro(item);
+                items.add(item);
+            }
+        }
+
         if (getDatabaseInfo() == null) {
-            items.clear();
-            MessageItem message = new MessageItem(guideSource, 0, 0, "Amigaguide must start with @database.");
+            MessageItem message = new MessageItem(MessageCode.MISSING_DATABASE, guideSource, 0, 0,
+                    "Amigaguide must start with @database.");
             messagePool.add(message);
         }
     }
 
+    /**
+     * Setup initial <code>@database</code> information from the
+     * <code>firstItem</code> of the guide.
+     */
+    private void setupDatabaseInfo(AbstractItem firstItem) {
+        if (firstItem instanceof CommandItem) {
+            CommandItem firstCommand = (CommandItem) firstItem;
+            if (firstCommand.getCommandName().equals("database")) {
+                String databaseName = firstCommand.getOption(0);
+                if (databaseName == null) {
+                    databaseName = guideSource.getShortName();
+                    String defaultDatabaseName = databaseName;
+                    MessageItem message = new MessageItem(MessageCode.MISSING_DATABASE, guideSource, 0, 0,
+                            () -> "changed missing database name to " + tools.sourced(defaultDatabaseName));
+                    messagePool.add(message);
+                }
+                databaseInfo = new DatabaseInfo(databaseName);
+            } else {
+                log.info("first command is: " + firstItem);
+            }
+        } else {
+            log.info("first item is: " + firstItem);
+        }
+    }
+
     /**
      * Items the guide consists of after it has been fixed and cleaned up.
      */
@@ -846,21 +1148,58 @@ public class Guide {
 
     /**
      * List of <code>NodeInfo</code>s in the same order as the nodes occurred
-     * in the guide.
+     * in the guide. The list is built once after the guide has been validated
+     * and cannot be modified.
      */
     public List<NodeInfo> getNodeInfos() {
-        List<NodeInfo> result = nodeList.stream().map(nodeCommand -> {
+        return nodeInfos;
+    }
+
+    /**
+     * The <code>NodeInfo</code> of the node at position <code>ordinal</code>.
+     * 
+     * @see NodeInfo#getOrdinal()
+     */
+    public NodeInfo getNodeInfo(int ordinal) {
+        assert ordinal >= 0;
+        assert ordinal < getNodeCount() : "ordinal=" + ordinal + ", nodeCount=" + getNodeCount();
+        return nodeInfos.get(ordinal);
+    }
+
+    /**
+     * Number of nodes in the guide.
+     */
+    public int getNodeCount() {
+        return nodeInfos.size();
+    }
+
+    /**
+     * The <code>NodeInfo</code> of the first node in the guide, or
+     * <code>null</code> if the guide does not contain any nodes.
+     */
+    public NodeInfo getFirstNodeInfo() {
+        NodeInfo result;
+        if (getNodeCount() > 0) {
+            result = getNodeInfo(0);
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    private List<NodeInfo> createNodeInfos() {
+        List<NodeInfo> result = new ArrayList<>(nodeList.size());
+        for (CommandItem nodeCommand : nodeList) {
             String nodeName = getNodeName(nodeCommand);
-            assert nodeName != null;
             NodeInfo nodeInfo = getNodeInfo(nodeName);
             assert nodeInfo != null;
             assert nodeInfo.getName().equals(nodeName);
-            return nodeInfo;
-        }).collect(Collectors.toList());
-        assert result.size() == nodeList.size();
+            assert nodeInfo.getOrdinal() == result.size() : "ordinal of " + nodeInfo + " must be " + result.size();
+            result.add(nodeInfo);
+        }
         assert result.size() == nodeInfoMap.size();
 
-        return result;
+        return Collections.unmodifiableList(result);
     }
 
     // TODO: Implement pretty printing with macros and remove
@@ -873,8 +1212,43 @@ public class Guide {
 
     public void writePretty(Writer writer) throws IOException {
         checkNoMacrosHaveBeenDefined();
-        for (AbstractItem item : getItems()) {
-            writer.write(item.toPrettyAmigaguide());
+        if (items instanceof PackedItemList) {
+            PackedItemList packedItems = (PackedItemList) items;
+            StringBuilder text = new StringBuilder();
+            for (int itemIndex = 0; itemIndex < packedItems.size(); itemIndex += 1) {
+                PackedItemList.Kind kind = packedItems.getKind(itemIndex);
+                if (kind == PackedItemList.Kind.SPACE) {
+                    packedItems.appendText(itemIndex, text);
+                } else if (kind == PackedItemList.Kind.TEXT) {
+                    appendPrettyText(packedItems, itemIndex, text);
+                } else if (kind == PackedItemList.Kind.NEW_LINE) {
+                    text.append('\n');
+                } else {
+                    text.append(packedItems.getKeptItem(itemIndex).toPrettyAmigaguide());
+                }
+                if (text.length() >= PRETTY_BUFFER_SIZE) {
+                    writer.append(text);
+                    text.setLength(0);
+                }
+            }
+            writer.append(text);
+        } else {
+            for (AbstractItem item : getItems()) {
+                writer.write(item.toPrettyAmigaguide());
+            }
+        }
+    }
+
+    /**
+     * Same as <code>TextItem.toPrettyAmigaguide()</code> for a packed item.
+     */
+    private void appendPrettyText(PackedItemList packedItems, int itemIndex, StringBuilder target) {
+        int textStart = target.length();
+        packedItems.appendText(itemIndex, target);
+        for (int charIndex = target.length() - 1; charIndex >= textStart; charIndex -= 1) {
+            if (target.charAt(charIndex) == '\\') {
+                target.insert(charIndex, '\\');
+            }
         }
     }
 
@@ -915,4 +1289,18 @@ public class Guide {
     public Link getRelation(Relation relation) {
         return globalRelationLinkMap.get(relation);
     }
+
+    /**
+     * Relations specified outside of any node.
+     */
+    Map<Relation, Link> getGlobalRelationLinkMap() {
+        return globalRelationLinkMap;
+    }
+
+    /**
+     * Have any macros been defined in the guide?
+     */
+    boolean hasMacros() {
+        return hasMacros;
+    }
 }
@@ -0,0 +1,957 @@
+package net.sf.grotag.guide;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.AbstractSource;
+import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.FileSource;
+import net.sf.grotag.parse.MessageCode;
+import net.sf.grotag.parse.MessageItem;
+import net.sf.grotag.parse.MessagePool;
+import net.sf.grotag.parse.NewLineItem;
+import net.sf.grotag.parse.PackedItemList;
+import net.sf.grotag.parse.SpaceItem;
+import net.sf.grotag.parse.StringItem;
+import net.sf.grotag.parse.StringSource;
+import net.sf.grotag.parse.TextItem;
+
+/**
+ * Cache that stores guides that have been read and validated in a compact
+ * binary form in a folder. Reading an unchanged guide again then only has to
+ * load the validated items, nodes, links and messages instead of parsing and
+ * validating the guide from scratch. A cache file is only used if the
+ * canonical path, size and modification time of the guide still are the same
+ * as when the cache file was written.
+ * <p>
+ * The cache is disabled unless a folder has been set.
+ * <p>
+ * Independent of the folder, the most recently used guides can be kept in
+ * memory, which is disabled unless <code>setMaxMemoryGuideCount()</code> is
+ * above 0. Such guides are shared by all <code>GuidePile</code>s, so guides
+ * linked from several piles in the same run are read only once. A guide in
+ * memory is only used with the same <code>AmigaPathList</code> it has been
+ * read with because its links depend on it. Unless the cache folder is used,
+ * only the messages the requesting <code>MessagePool</code> keeps are stored
+ * along with the guide, so it is only used again for pools with the same
+ * limits.
+ *
+ * @author Thomas Aglassinger
+ */
+public class GuideCache {
+    /**
+     * Canonical path, size and modification time of a guide file at a
+     * certain point in time.
+     */
+    static class Stamp {
+        private String path;
+        private long size;
+        private long lastModified;
+
+        private Stamp(String newPath, long newSize, long newLastModified) {
+            assert newPath != null;
+
+            path = newPath;
+            size = newSize;
+            lastModified = newLastModified;
+        }
+
+        private boolean matches(String otherPath, long otherSize, long otherLastModified) {
+            return path.equals(otherPath) && (size == otherSize) && (lastModified == otherLastModified);
+        }
+
+        private boolean matches(Stamp other) {
+            return matches(other.path, other.size, other.lastModified);
+        }
+
+        @Override
+        public String toString() {
+            return path + " (size=" + size + ", lastModified=" + lastModified + ")";
+        }
+    }
+
+    /**
+     * Guide kept in memory together with everything needed to decide whether
+     * it can be used again.
+     */
+    private static class MemoryEntry {
+        private Guide guide;
+        private File guideFile;
+        private Stamp stamp;
+        private AmigaPathList amigaPaths;
+        private List<MessageItem> messages;
+        private int droppedMessageCount;
+        private MessagePool limitsPool;
+
+        MemoryEntry(Guide newGuide, File newGuideFile, Stamp newStamp, AmigaPathList newAmigaPaths,
+                List<MessageItem> newMessages, int newDroppedMessageCount, MessagePool newLimitsPool) {
+            guide = newGuide;
+            guideFile = newGuideFile;
+            stamp = newStamp;
+            amigaPaths = newAmigaPaths;
+            messages = newMessages;
+            droppedMessageCount = newDroppedMessageCount;
+            limitsPool = newLimitsPool;
+        }
+
+        /**
+         * Can the guide be used for <code>guideFile</code> with
+         * <code>stamp</code> and <code>amigaPaths</code>?
+         */
+        private boolean matches(File otherGuideFile, Stamp otherStamp, AmigaPathList otherAmigaPaths) {
+            // Different paths to the same file, for example using a symbolic
+            // link, yield different guides because a pile identifies guides
+            // by their path.
+            boolean isPacked = guide.getItems() instanceof PackedItemList;
+            return stamp.matches(otherStamp) && (amigaPaths == otherAmigaPaths)
+                    && guideFile.equals(otherGuideFile.getAbsoluteFile()) && (isPacked == Guide.isPackingItems());
+        }
+
+        /**
+         * Have the messages been collected with limits that still fit
+         * <code>messagePool</code>?
+         */
+        private boolean hasMessagesFor(MessagePool messagePool) {
+            return (limitsPool == null) || limitsPool.hasSameLimits(messagePool);
+        }
+    }
+
+    private static final int MAGIC = 0x47544743; // "GTGC"
+    private static final int FORMAT_VERSION = 2;
+    private static final String CACHE_SUFFIX = ".cache";
+
+    private static final int SOURCE_GUIDE = 0;
+    private static final int SOURCE_FILE = 1;
+    private static final int SOURCE_STRING = 2;
+
+    private static final int ITEM_COMMAND = 0;
+    private static final int ITEM_NEW_LINE = 1;
+    private static final int ITEM_SPACE = 2;
+    private static final int ITEM_STRING = 3;
+    private static final int ITEM_TEXT = 4;
+
+    private static final int LINK_COMMAND = 0;
+    private static final int LINK_GLOBAL_RELATION = 1;
+    private static final int LINK_NODE_RELATION = 2;
+
+    private static final int NO_STRING = -1;
+
+    private static GuideCache instance;
+
+    private Logger log;
+    private Tools tools;
+    private volatile File folder;
+    private volatile int maxMemoryGuideCount;
+    private Map<String, MemoryEntry> memoryEntryMap;
+    private AtomicInteger memoryHitCount;
+    private AtomicInteger memoryMissCount;
+
+    public static synchronized final GuideCache getInstance() {
+        if (instance == null) {
+            instance = new GuideCache();
+        }
+        return instance;
+    }
+
+    private GuideCache() {
+        log = Logger.getLogger(GuideCache.class.getName());
+        tools = Tools.getInstance();
+        maxMemoryGuideCount = 0;
+        // Access order turns the map into a least recently used cache.
+        memoryEntryMap = new LinkedHashMap<String, MemoryEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemoryEntry> eldest) {
+                return size() > maxMemoryGuideCount;
+            }
+        };
+        memoryHitCount = new AtomicInteger();
+        memoryMissCount = new AtomicInteger();
+    }
+
+    /**
+     * The folder to store cache files in, or <code>null</code> if the cache
+     * is disabled.
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Set the folder to store cache files in, creating it if necessary, or
+     * disable the cache if <code>newFolder</code> is <code>null</code>.
+     */
+    public void setFolder(File newFolder) throws IOException {
+        if (newFolder != null) {
+            tools.mkdirs(newFolder);
+            log.info("cache guides in " + tools.sourced(newFolder));
+        }
+        folder = newFolder;
+    }
+
+    public boolean isEnabled() {
+        return getFolder() != null;
+    }
+
+    /**
+     * The maximum number of guides kept in memory; 0 (the default) means that
+     * guides are not kept in memory at all.
+     */
+    public int getMaxMemoryGuideCount() {
+        return maxMemoryGuideCount;
+    }
+
+    /**
+     * Set the maximum number of guides kept in memory, removing the least
+     * recently used guides that exceed it.
+     */
+    public synchronized void setMaxMemoryGuideCount(int newMaxMemoryGuideCount) {
+        assert newMaxMemoryGuideCount >= 0;
+        maxMemoryGuideCount = newMaxMemoryGuideCount;
+        while (memoryEntryMap.size() > maxMemoryGuideCount) {
+            String eldestPath = memoryEntryMap.keySet().iterator().next();
+            memoryEntryMap.remove(eldestPath);
+        }
+    }
+
+    /**
+     * Number of guides currently kept in memory.
+     */
+    public synchronized int getMemoryGuideCount() {
+        return memoryEntryMap.size();
+    }
+
+    /**
+     * Number of guides that have been found in memory.
+     */
+    public int getMemoryHitCount() {
+        return memoryHitCount.get();
+    }
+
+    /**
+     * Number of guides that have been looked for in memory but had to be read
+     * from the cache folder or parsed.
+     */
+    public int getMemoryMissCount() {
+        return memoryMissCount.get();
+    }
+
+    /**
+     * Remove all guides from memory and reset the hit and miss counts.
+     */
+    public synchronized void clearMemory() {
+        memoryEntryMap.clear();
+        memoryHitCount.set(0);
+        memoryMissCount.set(0);
+    }
+
+    private boolean isMemoryEnabled() {
+        return getMaxMemoryGuideCount() > 0;
+    }
+
+    /**
+     * The guide kept in memory for <code>guideFile</code> with
+     * <code>stamp</code> and <code>amigaPaths</code>, or <code>null</code>
+     * if there is none.
+     */
+    private synchronized MemoryEntry getMemoryEntry(File guideFile, Stamp stamp, AmigaPathList amigaPaths) {
+        MemoryEntry result = memoryEntryMap.get(stamp.path);
+        if ((result != null) && !result.matches(guideFile, stamp, amigaPaths)) {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Keep <code>guide</code> in memory.
+     *
+     * @param limitsPool
+     *                pool with the limits <code>messages</code> have been
+     *                collected with, or <code>null</code> if they contain
+     *                all messages
+     */
+    private synchronized void putMemoryEntry(Guide guide, File guideFile, Stamp stamp, AmigaPathList amigaPaths,
+            List<MessageItem> messages, int droppedMessageCount, MessagePool limitsPool) {
+        if (isMemoryEnabled()) {
+            memoryEntryMap.put(stamp.path, new MemoryEntry(guide, guideFile.getAbsoluteFile(), stamp, amigaPaths,
+                    messages, droppedMessageCount, limitsPool));
+        }
+    }
+
+    /**
+     * Stamp of <code>guideFile</code> to identify it in memory and its cache
+     * file, or <code>null</code> if the cache is disabled altogether or the
+     * file cannot be accessed.
+     */
+    Stamp getStamp(File guideFile) {
+        assert guideFile != null;
+        Stamp result = null;
+
+        if (isEnabled() || isMemoryEnabled()) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(guideFile.toPath(), BasicFileAttributes.class);
+                result = new Stamp(guideFile.getCanonicalPath(), attributes.size(), attributes.lastModifiedTime()
+                        .toMillis());
+            } catch (IOException error) {
+                log.log(Level.FINE, "cannot get stamp of " + tools.sourced(guideFile), error);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The cache file for the guide identified by <code>stamp</code>.
+     */
+    File getCacheFile(Stamp stamp) {
+        assert stamp != null;
+        File cacheFolder = getFolder();
+        assert cacheFolder != null;
+
+        StringBuilder name = new StringBuilder();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (byte pathByte : digest.digest(stamp.path.getBytes(StandardCharsets.UTF_8))) {
+                name.append(tools.hexString(pathByte & 0xff, 2, ""));
+            }
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException("SHA-1 must be supported", error);
+        }
+        name.append(CACHE_SUFFIX);
+        return new File(cacheFolder, name.toString());
+    }
+
+    /**
+     * The guide stored in memory or in the cache folder for
+     * <code>guideFile</code>, or <code>null</code> if the cache does not
+     * contain a guide for the current <code>stamp</code> of the file. The
+     * messages reported when the guide was read originally are added to
+     * <code>messagePool</code>.
+     */
+    Guide read(File guideFile, Stamp stamp, AmigaPathList amigaPaths, MessagePool messagePool) {
+        assert guideFile != null;
+        assert stamp != null;
+        assert amigaPaths != null;
+        assert messagePool != null;
+
+        Guide result = null;
+        MemoryEntry memoryEntry = null;
+
+        if (isMemoryEnabled()) {
+            memoryEntry = getMemoryEntry(guideFile, stamp, amigaPaths);
+            if ((memoryEntry != null) && memoryEntry.hasMessagesFor(messagePool)) {
+                memoryHitCount.incrementAndGet();
+                log.fine("found guide in memory for " + stamp);
+                result = memoryEntry.guide;
+                for (MessageItem message : memoryEntry.messages) {
+                    messagePool.add(message);
+                }
+                messagePool.addDroppedItemCount(memoryEntry.droppedMessageCount);
+            } else {
+                memoryMissCount.incrementAndGet();
+            }
+        }
+        if ((result == null) && isEnabled()) {
+            result = readFile(guideFile, stamp, amigaPaths, messagePool);
+        }
+        return result;
+    }
+
+    /**
+     * Same as <code>read()</code> but only use the cache folder.
+     */
+    private Guide readFile(File guideFile, Stamp stamp, AmigaPathList amigaPaths, MessagePool messagePool) {
+        Guide result = null;
+        File cacheFile = getCacheFile(stamp);
+
+        if (cacheFile.exists()) {
+            List<MessageItem> messages = new ArrayList<MessageItem>();
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+                try {
+                    if (readHeader(in, stamp)) {
+                        CacheReader reader = new CacheReader(in, new FileSource(guideFile));
+                        result = reader.readGuide(amigaPaths, messagePool);
+                        reader.readMessages(messages);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException error) {
+                log.log(Level.WARNING, "ignored broken cache file " + tools.sourced(cacheFile) + " for "
+                        + tools.sourced(guideFile), error);
+                result = null;
+            }
+            if (result != null) {
+                log.info("read " + tools.sourced(guideFile) + " from cache " + tools.sourced(cacheFile));
+                for (MessageItem message : messages) {
+                    messagePool.add(message);
+                }
+                putMemoryEntry(result, guideFile, stamp, amigaPaths, messages, 0, null);
+            } else {
+                log.info("ignored outdated cache file " + tools.sourced(cacheFile) + " for " + stamp);
+            }
+        } else {
+            log.fine("found no cache file for " + stamp);
+        }
+        return result;
+    }
+
+    /**
+     * Deferred pool to collect the messages reported while reading a guide
+     * for <code>messagePool</code> before passing it to <code>write()</code>.
+     * If the cache folder is used, this pool keeps all messages because the
+     * cache file must contain them. Otherwise it has the same limits as
+     * <code>messagePool</code>, so messages that are dropped anyway are not
+     * rendered.
+     */
+    MessagePool createParseMessagePool(MessagePool messagePool) {
+        assert messagePool != null;
+        MessagePool result;
+        if (isEnabled()) {
+            result = MessagePool.createDeferredPool();
+        } else {
+            result = MessagePool.createDeferredPool(messagePool);
+        }
+        return result;
+    }
+
+    /**
+     * Store <code>guide</code> read from <code>guideFile</code> together with
+     * the messages in <code>parseMessagePool</code> reported while reading it
+     * in memory and in the cache folder. Problems writing the cache file are
+     * only logged because the guide itself is fine.
+     *
+     * @param stamp
+     *                the stamp of the guide file before it was read, so a
+     *                modification while reading does not end up in the
+     *                cache
+     * @param parseMessagePool
+     *                the pool created by <code>createParseMessagePool()</code>
+     *                before its messages are drained
+     */
+    void write(Guide guide, File guideFile, Stamp stamp, AmigaPathList amigaPaths, MessagePool parseMessagePool) {
+        assert guide != null;
+        assert guideFile != null;
+        assert stamp != null;
+        assert amigaPaths != null;
+        assert parseMessagePool != null;
+
+        List<MessageItem> messages = parseMessagePool.getReportedItems();
+        boolean hasAllMessages = parseMessagePool.hasSameLimits(MessagePool.createDeferredPool());
+        if (hasAllMessages) {
+            putMemoryEntry(guide, guideFile, stamp, amigaPaths, messages, 0, null);
+            if (isEnabled()) {
+                writeFile(guide, stamp, messages);
+            }
+        } else {
+            // Keep only the limits, but not the messages collected so far.
+            MessagePool limitsPool = MessagePool.createDeferredPool(parseMessagePool);
+            putMemoryEntry(guide, guideFile, stamp, amigaPaths, messages, parseMessagePool.getDroppedItemCount(),
+                    limitsPool);
+        }
+    }
+
+    private void writeFile(Guide guide, Stamp stamp, List<MessageItem> messages) {
+        File cacheFile = getCacheFile(stamp);
+        File tempFile = null;
+        try {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+            CacheWriter writer = new CacheWriter(new DataOutputStream(bodyBytes), guide.getSource());
+            writer.writeGuide(guide);
+            writer.writeMessages(messages);
+
+            tempFile = File.createTempFile("guide", CACHE_SUFFIX, cacheFile.getParentFile());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                writeHeader(out, stamp);
+                writer.writeSources(out);
+                bodyBytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException error) {
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+            log.info("wrote cache file " + tools.sourced(cacheFile) + " for " + stamp);
+        } catch (IOException error) {
+            log.log(Level.WARNING, "cannot write cache file " + tools.sourced(cacheFile) + " for " + stamp, error);
+        } finally {
+            if (tempFile != null) {
+                tools.deleteOrWarn(tempFile);
+            }
+        }
+    }
+
+    private void writeHeader(DataOutputStream out, Stamp stamp) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeString(out, stamp.path);
+        out.writeLong(stamp.size);
+        out.writeLong(stamp.lastModified);
+    }
+
+    /**
+     * Read the header of a cache file and check if it matches
+     * <code>stamp</code>.
+     */
+    private boolean readHeader(DataInputStream in, Stamp stamp) throws IOException {
+        boolean result = (in.readInt() == MAGIC) && (in.readInt() == FORMAT_VERSION);
+        if (result) {
+            String path = readString(in);
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            result = stamp.matches(path, size, lastModified);
+        }
+        return result;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(NO_STRING);
+        } else {
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(textBytes.length);
+            out.write(textBytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        String result;
+        int length = in.readInt();
+        if (length == NO_STRING) {
+            result = null;
+        } else {
+            checkRange("string length", length, Integer.MAX_VALUE);
+            byte[] textBytes = new byte[length];
+            in.readFully(textBytes);
+            result = new String(textBytes, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    private static int checkRange(String name, int value, int limit) throws IOException {
+        if ((value < 0) || (value >= limit)) {
+            throw new IOException(name + " must be between 0 and " + (limit - 1) + " but is " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Writer for the body of a cache file that collects the sources referred
+     * to by items and messages, so they can be written once before the body.
+     */
+    private static class CacheWriter {
+        private DataOutputStream out;
+        private AbstractSource guideSource;
+        private List<AbstractSource> sources;
+        private Map<AbstractSource, Integer> sourceIndexMap;
+        private Map<AbstractItem, Integer> itemIndexMap;
+
+        private CacheWriter(DataOutputStream newOut, AbstractSource newGuideSource) {
+            out = newOut;
+            guideSource = newGuideSource;
+            sources = new ArrayList<AbstractSource>();
+            sourceIndexMap = new IdentityHashMap<AbstractSource, Integer>();
+            itemIndexMap = new IdentityHashMap<AbstractItem, Integer>();
+            writeSourceIndex(guideSource);
+        }
+
+        private int writeSourceIndex(AbstractSource source) {
+            Integer result = sourceIndexMap.get(source);
+            if (result == null) {
+                result = sources.size();
+                sources.add(source);
+                sourceIndexMap.put(source, result);
+            }
+            return result;
+        }
+
+        private void writeSources(DataOutputStream target) throws IOException {
+            target.writeInt(sources.size());
+            for (AbstractSource source : sources) {
+                if (source == guideSource) {
+                    target.writeByte(SOURCE_GUIDE);
+                } else if (source instanceof FileSource) {
+                    target.writeByte(SOURCE_FILE);
+                    writeString(target, ((FileSource) source).getFile().getPath());
+                } else if (source instanceof StringSource) {
+                    target.writeByte(SOURCE_STRING);
+                    writeString(target, source.getFullName());
+                } else {
+                    throw new IOException("cannot cache source of type " + source.getClass().getName());
+                }
+            }
+        }
+
+        private void writeLocation(AbstractSource source, int line, int column) throws IOException {
+            out.writeInt(writeSourceIndex(source));
+            out.writeInt(line);
+            out.writeInt(column);
+        }
+
+        private void writeItems(List<AbstractItem> items) throws IOException {
+            out.writeInt(items.size());
+            for (AbstractItem item : items) {
+                writeItem(item);
+            }
+        }
+
+        private void writeItem(AbstractItem item) throws IOException {
+            if (item instanceof CommandItem) {
+                CommandItem command = (CommandItem) item;
+                out.writeByte(ITEM_COMMAND);
+                writeLocation(item.getFile(), item.getLine(), item.getColumn());
+                writeString(out, command.getOriginalCommandName());
+                out.writeBoolean(command.isInline());
+                writeItems(command.getItems());
+            } else if (item instanceof NewLineItem) {
+                out.writeByte(ITEM_NEW_LINE);
+                writeLocation(item.getFile(), item.getLine(), item.getColumn());
+            } else if (item instanceof SpaceItem) {
+                out.writeByte(ITEM_SPACE);
+                writeLocation(item.getFile(), item.getLine(), item.getColumn());
+                writeString(out, ((SpaceItem) item).getSpace());
+            } else if (item instanceof StringItem) {
+                out.writeByte(ITEM_STRING);
+                writeLocation(item.getFile(), item.getLine(), item.getColumn());
+                writeString(out, ((StringItem) item).getText());
+            } else if (item instanceof TextItem) {
+                out.writeByte(ITEM_TEXT);
+                writeLocation(item.getFile(), item.getLine(), item.getColumn());
+                writeString(out, ((TextItem) item).getText());
+            } else {
+                throw new IOException("cannot cache item of type " + item.getClass().getName());
+            }
+        }
+
+        private void writeGuide(Guide guide) throws IOException {
+            List<AbstractItem> items = guide.getItems();
+            for (int itemIndex = 0; itemIndex < items.size(); itemIndex += 1) {
+                itemIndexMap.put(items.get(itemIndex), itemIndex);
+            }
+            writeItems(items);
+
+            DatabaseInfo databaseInfo = guide.getDatabaseInfo();
+            out.writeBoolean(databaseInfo != null);
+            if (databaseInfo != null) {
+                writeString(out, databaseInfo.getName());
+                writeString(out, databaseInfo.getAuthor());
+                writeString(out, databaseInfo.getCopyright());
+                writeString(out, databaseInfo.getVersion());
+                writeString(out, databaseInfo.getFontName());
+                out.writeInt(databaseInfo.getFontSize());
+                out.writeByte(databaseInfo.getWrap().ordinal());
+            }
+            out.writeBoolean(guide.hasMacros());
+
+            out.writeInt(guide.getNodeCount());
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                writeString(out, nodeInfo.getName());
+                writeString(out, nodeInfo.getTitle());
+                writeString(out, nodeInfo.getDeclaredFontName());
+                out.writeInt(nodeInfo.getDeclaredFontSize());
+                out.writeByte(nodeInfo.getDeclaredWrap().ordinal());
+                out.writeBoolean(nodeInfo.isDeclaredProportional());
+                out.writeInt(nodeInfo.getStartItemIndex());
+                out.writeInt(nodeInfo.getEndItemIndex());
+            }
+
+            writeLinks(guide);
+        }
+
+        /**
+         * Write the links of <code>guide</code> as references to the items
+         * they were created from, so they can be created again with the same
+         * identity in the link list and relation maps.
+         */
+        private void writeLinks(Guide guide) throws IOException {
+            Map<Link, Relation> globalRelationMap = new IdentityHashMap<Link, Relation>();
+            Map<Link, Relation> nodeRelationMap = new IdentityHashMap<Link, Relation>();
+            Map<Link, NodeInfo> nodeRelationNodeMap = new IdentityHashMap<Link, NodeInfo>();
+
+            for (Map.Entry<Relation, Link> entry : guide.getGlobalRelationLinkMap().entrySet()) {
+                globalRelationMap.put(entry.getValue(), entry.getKey());
+            }
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                for (Map.Entry<Relation, Link> entry : nodeInfo.getRelationLinkMap().entrySet()) {
+                    nodeRelationMap.put(entry.getValue(), entry.getKey());
+                    nodeRelationNodeMap.put(entry.getValue(), nodeInfo);
+                }
+            }
+
+            List<Link> links = guide.getLinks();
+            out.writeInt(links.size());
+            for (Link link : links) {
+                Integer commandIndex = itemIndexMap.get(link.getLinkCommand());
+                if (commandIndex == null) {
+                    throw new IOException("cannot find command for link: " + link);
+                }
+                Relation relation = globalRelationMap.get(link);
+                if (relation != null) {
+                    out.writeByte(LINK_GLOBAL_RELATION);
+                    out.writeByte(relation.ordinal());
+                } else {
+                    relation = nodeRelationMap.get(link);
+                    if (relation != null) {
+                        out.writeByte(LINK_NODE_RELATION);
+                        out.writeByte(relation.ordinal());
+                        out.writeInt(nodeRelationNodeMap.get(link).getOrdinal());
+                    } else {
+                        out.writeByte(LINK_COMMAND);
+                    }
+                }
+                out.writeInt(commandIndex);
+            }
+        }
+
+        private void writeMessages(List<MessageItem> messages) throws IOException {
+            out.writeInt(messages.size());
+            for (MessageItem message : messages) {
+                writeMessage(message);
+            }
+        }
+
+        private void writeMessage(MessageItem message) throws IOException {
+            writeString(out, message.getCode().name());
+            writeLocation(message.getFile(), message.getLine(), message.getColumn());
+            writeString(out, message.getText());
+            out.writeBoolean(message.getSeeAlso() != null);
+            if (message.getSeeAlso() != null) {
+                writeMessage(message.getSeeAlso());
+            }
+        }
+    }
+
+    /**
+     * Reader for the sources and body of a cache file.
+     */
+    private static class CacheReader {
+        private DataInputStream in;
+        private List<AbstractSource> sources;
+        private FileSource guideSource;
+
+        private CacheReader(DataInputStream newIn, FileSource newGuideSource) throws IOException {
+            in = newIn;
+            guideSource = newGuideSource;
+            sources = new ArrayList<AbstractSource>();
+            readSources();
+        }
+
+        private void readSources() throws IOException {
+            int sourceCount = checkRange("source count", in.readInt(), Integer.MAX_VALUE);
+            for (int sourceIndex = 0; sourceIndex < sourceCount; sourceIndex += 1) {
+                int sourceType = in.readByte();
+                AbstractSource source;
+                if (sourceType == SOURCE_GUIDE) {
+                    source = guideSource;
+                } else if (sourceType == SOURCE_FILE) {
+                    source = new FileSource(new File(readString(in)));
+                } else if (sourceType == SOURCE_STRING) {
+                    // The text of the source is only needed to read items,
+                    // which already happened.
+                    source = new StringSource(readString(in), "");
+                } else {
+                    throw new IOException("unknown source type: " + sourceType);
+                }
+                sources.add(source);
+            }
+        }
+
+        private AbstractSource readSource() throws IOException {
+            return sources.get(checkRange("source index", in.readInt(), sources.size()));
+        }
+
+        private List<AbstractItem> readItems() throws IOException {
+            int itemCount = checkRange("item count", in.readInt(), Integer.MAX_VALUE);
+            List<AbstractItem> result = new ArrayList<AbstractItem>(itemCount);
+            for (int itemIndex = 0; itemIndex < itemCount; itemIndex += 1) {
+                result.add(readItem());
+            }
+            return result;
+        }
+
+        private AbstractItem readItem() throws IOException {
+            AbstractItem result;
+            int itemType = in.readByte();
+            AbstractSource source = readSource();
+            int line = in.readInt();
+            int column = in.readInt();
+
+            if (itemType == ITEM_COMMAND) {
+                String originalCommandName = readString(in);
+                boolean isInline = in.readBoolean();
+                List<AbstractItem> commandItems = readItems();
+                if (isInline) {
+                    // Add dummy for the trailing "}" removed by CommandItem.
+                    commandItems.add(new NewLineItem(source, line, column));
+                }
+                result = new CommandItem(source, line, column, originalCommandName, isInline, commandItems);
+            } else if (itemType == ITEM_NEW_LINE) {
+                result = new NewLineItem(source, line, column);
+            } else if (itemType == ITEM_SPACE) {
+                result = new SpaceItem(source, line, column, readString(in));
+            } else if (itemType == ITEM_STRING) {
+                result = new StringItem(source, line, column, "\"" + readString(in) + "\"");
+            } else if (itemType == ITEM_TEXT) {
+                result = new TextItem(source, line, column, escaped(readString(in)));
+            } else {
+                throw new IOException("unknown item type: " + itemType);
+            }
+            return result;
+        }
+
+        /**
+         * <code>text</code> with escape sequences for backslashes and
+         * at-signs, which <code>TextItem</code> resolves again.
+         */
+        private String escaped(String text) {
+            String result = text;
+            if ((text.indexOf('\\') >= 0) || (text.indexOf('@') >= 0)) {
+                result = text.replace("\\", "\\\\").replace("@", "\\@");
+            }
+            return result;
+        }
+
+        private Guide readGuide(AmigaPathList amigaPaths, MessagePool messagePool) throws IOException {
+            List<AbstractItem> items = readItems();
+
+            DatabaseInfo databaseInfo = null;
+            if (in.readBoolean()) {
+                String name = readString(in);
+                databaseInfo = new DatabaseInfo(name);
+                // Preserve names that still end with ".guide".
+                databaseInfo.setName(name);
+                databaseInfo.setAuthor(readString(in));
+                databaseInfo.setCopyright(readString(in));
+                databaseInfo.setVersion(readString(in));
+                String fontName = readString(in);
+                int fontSize = in.readInt();
+                if (fontName != null) {
+                    databaseInfo.setFont(fontName, fontSize);
+                }
+                databaseInfo.setWrap(readWrap());
+            }
+            boolean hasMacros = in.readBoolean();
+
+            int nodeCount = checkRange("node count", in.readInt(), Integer.MAX_VALUE);
+            if ((nodeCount > 0) && (databaseInfo == null)) {
+                throw new IOException("nodes must have a database");
+            }
+            List<NodeInfo> nodeInfos = new ArrayList<NodeInfo>(nodeCount);
+            for (int ordinal = 0; ordinal < nodeCount; ordinal += 1) {
+                NodeInfo nodeInfo = new NodeInfo(databaseInfo, readString(in), readString(in));
+                String fontName = readString(in);
+                int fontSize = in.readInt();
+                if (fontName != null) {
+                    nodeInfo.setFont(fontName, fontSize);
+                }
+                nodeInfo.setWrap(readWrap());
+                nodeInfo.setProportional(in.readBoolean());
+                int startItemIndex = checkRange("start item index", in.readInt(), items.size());
+                int endItemIndex = checkRange("end item index", in.readInt(), items.size());
+                nodeInfo.setStartAndEndNode(getCommand(items, startItemIndex), getCommand(items, endItemIndex));
+                nodeInfo.setItemRange(startItemIndex, endItemIndex);
+                nodeInfo.setOrdinal(ordinal);
+                nodeInfos.add(nodeInfo);
+            }
+
+            Map<Relation, Link> globalRelationLinkMap = new EnumMap<Relation, Link>(Relation.class);
+            int linkCount = checkRange("link count", in.readInt(), Integer.MAX_VALUE);
+            List<Link> links = new ArrayList<Link>(linkCount);
+            for (int linkIndex = 0; linkIndex < linkCount; linkIndex += 1) {
+                int linkType = in.readByte();
+                Relation relation = null;
+                NodeInfo relationNodeInfo = null;
+                if ((linkType == LINK_GLOBAL_RELATION) || (linkType == LINK_NODE_RELATION)) {
+                    relation = Relation.values()[checkRange("relation", in.readByte(), Relation.values().length)];
+                    if (linkType == LINK_NODE_RELATION) {
+                        relationNodeInfo = nodeInfos.get(checkRange("node", in.readInt(), nodeInfos.size()));
+                    }
+                } else if (linkType != LINK_COMMAND) {
+                    throw new IOException("unknown link type: " + linkType);
+                }
+                CommandItem command = getCommand(items, checkRange("link item index", in.readInt(), items.size()));
+                Link link = new Link(command, amigaPaths);
+                if (relationNodeInfo != null) {
+                    relationNodeInfo.setRelation(relation, link);
+                } else if (relation != null) {
+                    globalRelationLinkMap.put(relation, link);
+                }
+                links.add(link);
+            }
+
+            return Guide.createRestoredGuide(guideSource, amigaPaths, messagePool, items, databaseInfo, hasMacros,
+                    nodeInfos, globalRelationLinkMap, links);
+        }
+
+        private Wrap readWrap() throws IOException {
+            return Wrap.values()[checkRange("wrap", in.readByte(), Wrap.values().length)];
+        }
+
+        private CommandItem getCommand(List<AbstractItem> items, int itemIndex) throws IOException {
+            AbstractItem item = items.get(itemIndex);
+            if (!(item instanceof CommandItem)) {
+                throw new IOException("item #" + itemIndex + " must be a command: " + item);
+            }
+            return (CommandItem) item;
+        }
+
+        private void readMessages(List<MessageItem> messages) throws IOException {
+            int messageCount = checkRange("message count", in.readInt(), Integer.MAX_VALUE);
+            for (int messageIndex = 0; messageIndex < messageCount; messageIndex += 1) {
+                messages.add(readMessage());
+            }
+        }
+
+        private MessageCode readMessageCode() throws IOException {
+            String codeName = readString(in);
+            MessageCode result;
+            try {
+                result = MessageCode.valueOf(codeName);
+            } catch (IllegalArgumentException error) {
+                throw new IOException("unknown message code: " + codeName, error);
+            }
+            return result;
+        }
+
+        private MessageItem readMessage() throws IOException {
+            MessageCode code = readMessageCode();
+            MessageItem result = new MessageItem(code, readSource(), in.readInt(), in.readInt(), readString(in));
+            if (in.readBoolean()) {
+                result.setSeeAlso(readMessage());
+            }
+            return result;
+        }
+    }
+}
@@ -3,48 +3,119 @@ package net.sf.grotag.guide;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
 import net.sf.grotag.common.Tools;
 import net.sf.grotag.parse.CommandItem;
 import net.sf.grotag.parse.FileSource;
+import net.sf.grotag.parse.MessageCode;
 import net.sf.grotag.parse.MessageItem;
 import net.sf.grotag.parse.MessagePool;
 
 /**
  * A "pile" of related Amigaguide documents connected via links.
+ * <p>
+ * Each guide in the pile has an ID, which is its index in
+ * <code>getGuides()</code>, and each node has a dense node ID across all
+ * guides, so tools can keep information about guides and nodes in arrays.
+ * <p>
+ * A lazy pile starts with only one guide and reads further guides only once
+ * they are requested using <code>requireGuide()</code>. Until then, links to
+ * them remain <code>Link.State.UNCHECKED</code>.
+ * <p>
+ * Guides can be shared with other piles, so the pile keeps the state of the
+ * links it validated itself instead of storing it in the <code>Link</code>.
  * 
  * @author Thomas Aglassinger
  */
 public class GuidePile {
-    private Map<String, Guide> guideMap;
+    private Map<String, Integer> guideIdMap;
     private List<Guide> guideList;
+    private Map<Guide, NodeIdRange> nodeIdRangeMap;
+    private volatile int nodeIdCount;
     private List<Link> linksToValidate;
     private Map<CommandItem, Link> linkMap;
+    private Map<Link, Link.State> linkStateMap;
+    private Map<Link, String> linkTargetNodeNameMap;
     private Logger log;
     private MessagePool messagePool;
     private Tools tools;
     private AmigaPathList amigaPaths;
+    private int parallelism;
+    private ExecutorService guideReaderService;
+    private Map<String, Future<GuideReadResult>> guideReadResultMap;
+    private boolean isLazy;
+    private Map<String, List<Link>> pendingLinksMap;
 
-    private GuidePile(AmigaPathList newAmigaPaths) {
+    /**
+     * Outcome of reading a guide in a worker thread: either a
+     * <code>Guide</code> or the error that prevented reading it, together
+     * with all messages reported while reading.
+     */
+    private static class GuideReadResult {
+        private Guide guide;
+        private Exception error;
+        private MessagePool messagePool;
+
+        GuideReadResult(Guide newGuide, Exception newError, MessagePool newMessagePool) {
+            assert (newGuide == null) != (newError == null);
+            assert newMessagePool != null;
+            guide = newGuide;
+            error = newError;
+            messagePool = newMessagePool;
+        }
+    }
+
+    /**
+     * ID of a guide and the node IDs of its nodes.
+     */
+    private static final class NodeIdRange {
+        private final int guideId;
+        private final int firstNodeId;
+        private final int nodeCount;
+
+        NodeIdRange(int newGuideId, int newFirstNodeId, int newNodeCount) {
+            guideId = newGuideId;
+            firstNodeId = newFirstNodeId;
+            nodeCount = newNodeCount;
+        }
+    }
+
+    private GuidePile(AmigaPathList newAmigaPaths, int newParallelism, MessagePool newMessagePool) {
         assert newAmigaPaths != null;
+        assert newParallelism >= 1;
+        assert newMessagePool != null;
 
         log = Logger.getLogger(GuidePile.class.getName());
         tools = Tools.getInstance();
-        messagePool = MessagePool.getInstance();
+        messagePool = newMessagePool;
 
         amigaPaths = newAmigaPaths;
-        guideMap = new TreeMap<String, Guide>();
+        parallelism = newParallelism;
+        guideIdMap = new HashMap<String, Integer>();
         guideList = new ArrayList<Guide>();
+        nodeIdRangeMap = new ConcurrentHashMap<Guide, NodeIdRange>();
         linksToValidate = new ArrayList<Link>();
-        linkMap = new TreeMap<CommandItem, Link>();
+        linkMap = new IdentityHashMap<CommandItem, Link>();
+        // Link does not override equals(), so these maps use its identity.
+        linkStateMap = new ConcurrentHashMap<Link, Link.State>();
+        linkTargetNodeNameMap = new ConcurrentHashMap<Link, String>();
+        pendingLinksMap = new HashMap<String, List<Link>>();
     }
 
     public List<Guide> getGuides() {
@@ -70,54 +141,414 @@ public class GuidePile {
         assert guideFile != null;
 
         Guide result;
-        String guidePath = guideFile.getAbsolutePath();
-        result = guideMap.get(guidePath);
+        Integer guideId = guideIdMap.get(guideFile.getAbsolutePath());
+        if (guideId != null) {
+            result = guideList.get(guideId);
+        } else {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * The guide with the ID <code>guideId</code>.
+     */
+    public Guide getGuide(int guideId) {
+        return guideList.get(guideId);
+    }
+
+    private NodeIdRange getNodeIdRange(Guide guide) {
+        assert guide != null;
+        NodeIdRange result = nodeIdRangeMap.get(guide);
+        assert result != null : "guide must be part of pile: " + guide.getSource().getFullName();
+        return result;
+    }
+
+    /**
+     * The ID of <code>guide</code>, which must be part of the pile.
+     */
+    public int getGuideId(Guide guide) {
+        return getNodeIdRange(guide).guideId;
+    }
+
+    /**
+     * The ID of the node described by <code>nodeInfo</code> in
+     * <code>guide</code>, which must be part of the pile. Node IDs range from
+     * 0 to <code>getNodeIdCount() - 1</code>.
+     */
+    public int getNodeId(Guide guide, NodeInfo nodeInfo) {
+        assert nodeInfo != null;
+        NodeIdRange range = getNodeIdRange(guide);
+        int ordinal = nodeInfo.getOrdinal();
+        assert (ordinal >= 0) && (ordinal < range.nodeCount) : "ordinal=" + ordinal + ", nodeCount="
+                + range.nodeCount;
+        assert guide.getNodeInfo(ordinal) == nodeInfo : "guide must contain node " + nodeInfo.getName();
+        return range.firstNodeId + ordinal;
+    }
+
+    /**
+     * The number of node IDs assigned so far. With a lazy pile, this grows
+     * when further guides are read.
+     */
+    public int getNodeIdCount() {
+        return nodeIdCount;
+    }
+
+    /**
+     * Does the pile read guides only once they are requested?
+     * 
+     * @see #requireGuide(File)
+     */
+    public boolean isLazy() {
+        return isLazy;
+    }
+
+    /**
+     * The guide in the pile stored in <code>guideFile</code>. With a lazy
+     * pile, a guide that has not been needed so far is read now and links
+     * from and to it are validated. Otherwise this is the same as
+     * <code>getGuide()</code>.
+     * 
+     * @throws IllegalArgumentException
+     *                 if <code>guideFile</code> is not an Amigaguide
+     *                 document
+     */
+    public synchronized Guide requireGuide(File guideFile) throws IOException {
+        assert guideFile != null;
+
+        Guide result = getGuide(guideFile);
+        if ((result == null) && isLazy) {
+            result = readLazily(guideFile);
+        }
         return result;
     }
 
+    /**
+     * The pool collecting the messages reported while reading the guides in
+     * the pile and validating their links.
+     */
+    public MessagePool getMessagePool() {
+        return messagePool;
+    }
+
+    /**
+     * The Amiga paths used to resolve links between guides in the pile.
+     */
+    public AmigaPathList getAmigaPaths() {
+        return amigaPaths;
+    }
+
+    /**
+     * The link created from <code>command</code>, which must be the same
+     * item as in <code>Guide.getItems()</code> and not just an equal one.
+     */
     public Link getLink(CommandItem command) {
         assert command != null;
         assert command.isLink();
         return linkMap.get(command);
     }
 
+    /**
+     * The state of <code>link</code> as validated by this pile.
+     */
+    public Link.State getLinkState(Link link) {
+        assert link != null;
+        Link.State result = linkStateMap.get(link);
+        if (result == null) {
+            result = link.getInitialState();
+        }
+        return result;
+    }
+
+    private void setLinkState(Link link, Link.State newState) {
+        assert link != null;
+        assert newState != null;
+        linkStateMap.put(link, newState);
+    }
+
+    /**
+     * The name of the node <code>link</code> points to. In case the link is
+     * of type "guide", this is the first node of the target guide once the
+     * pile validated the link.
+     */
+    public String getLinkTargetNodeName(Link link) {
+        assert link != null;
+        String result = linkTargetNodeNameMap.get(link);
+        if (result == null) {
+            result = link.getTargetNodeName();
+        }
+        return result;
+    }
+
     private Guide getCachedGuideFor(File guideFile) throws IOException {
         assert guideFile != null;
-        Guide result;
-        String guideKey = guideFile.getAbsolutePath();
-        result = guideMap.get(guideKey);
+        Guide result = getGuide(guideFile);
         if (result == null) {
-            result = Guide.createGuide(guideFile, amigaPaths);
-            guideMap.put(guideKey, result);
-            guideList.add(result);
+            if (guideReaderService == null) {
+                result = Guide.createGuide(guideFile, amigaPaths, messagePool);
+            } else {
+                result = getGuideReadInBackground(guideFile);
+            }
+            addGuide(guideFile, result);
         }
         return result;
     }
 
+    /**
+     * Add <code>guide</code> read from <code>guideFile</code> and assign IDs
+     * to it and its nodes.
+     */
+    private void addGuide(File guideFile, Guide guide) {
+        assert !nodeIdRangeMap.containsKey(guide) : "guide must be added only once: " + tools.sourced(guideFile);
+        int guideId = guideList.size();
+        int nodeCount = guide.getNodeCount();
+        guideList.add(guide);
+        guideIdMap.put(guideFile.getAbsolutePath(), guideId);
+        nodeIdRangeMap.put(guide, new NodeIdRange(guideId, nodeIdCount, nodeCount));
+        nodeIdCount += nodeCount;
+    }
+
+    /**
+     * Start reading <code>guideFile</code> in a worker thread unless this
+     * already happens.
+     */
+    private void startReadingInBackground(File guideFile) {
+        assert guideFile != null;
+        assert guideReaderService != null;
+
+        String guideKey = guideFile.getAbsolutePath();
+        if (!guideIdMap.containsKey(guideKey) && !guideReadResultMap.containsKey(guideKey)) {
+            log.log(Level.FINE, "read in background: {0}", guideFile);
+            Future<GuideReadResult> guideReadResult = guideReaderService.submit(() -> {
+                MessagePool guideMessagePool = MessagePool.createDeferredPool(messagePool);
+                GuideReadResult result;
+                try {
+                    Guide guide = Guide.createGuide(guideFile, amigaPaths, guideMessagePool);
+                    result = new GuideReadResult(guide, null, guideMessagePool);
+                } catch (IOException | IllegalArgumentException error) {
+                    result = new GuideReadResult(null, error, guideMessagePool);
+                }
+                return result;
+            });
+            guideReadResultMap.put(guideKey, guideReadResult);
+        }
+    }
+
+    /**
+     * Start reading the guides linked from <code>guide</code> in worker
+     * threads, so they are available once the links are followed.
+     */
+    private void startReadingLinkedGuidesInBackground(Guide guide) {
+        assert guide != null;
+        if (guideReaderService != null) {
+            for (Link link : guide.getLinks()) {
+                if (link.isDataLink()) {
+                    startReadingInBackground(link.getLocalTargetFile());
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for <code>guideFile</code> being read in a worker thread and add
+     * the messages reported during reading to the pile's messages. Because
+     * this happens in the same order as reading would have happened in a
+     * single thread, the messages show up in the same order, too.
+     */
+    private Guide getGuideReadInBackground(File guideFile) throws IOException {
+        assert guideFile != null;
+
+        startReadingInBackground(guideFile);
+
+        // A read result is used only once, so if reading failed and the file
+        // is linked again, it is read again just like in a single thread.
+        Future<GuideReadResult> guideReadResultFuture = guideReadResultMap.remove(guideFile.getAbsolutePath());
+        GuideReadResult guideReadResult;
+        try {
+            guideReadResult = guideReadResultFuture.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading " + tools.sourced(guideFile));
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("cannot read " + tools.sourced(guideFile), cause);
+        }
+
+        guideReadResult.messagePool.drainTo(messagePool);
+        if (guideReadResult.error instanceof IOException) {
+            throw (IOException) guideReadResult.error;
+        } else if (guideReadResult.error instanceof IllegalArgumentException) {
+            throw (IllegalArgumentException) guideReadResult.error;
+        }
+        assert guideReadResult.error == null : "error=" + guideReadResult.error;
+
+        return guideReadResult.guide;
+    }
+
     private boolean hasCachedGuideFor(File guideFile) {
         assert guideFile != null;
         boolean result;
         String guideKey = guideFile.getAbsolutePath();
-        result = guideMap.containsKey(guideKey);
+        result = guideIdMap.containsKey(guideKey);
         return result;
     }
 
     public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths) throws IOException {
+        return createGuidePile(guideFile, newAmigaPaths, 1);
+    }
+
+    /**
+     * Create a pile starting with <code>guideFile</code> and all guides
+     * reachable from it through links.
+     * 
+     * @param parallelism
+     *                the number of threads to read linked guides with; with
+     *                more than 1 thread, guides are read while links are
+     *                still being followed. The resulting pile, link states
+     *                and messages are the same no matter how many threads
+     *                are used.
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, int parallelism)
+            throws IOException {
+        return createGuidePile(guideFile, newAmigaPaths, parallelism, new MessagePool());
+    }
+
+    /**
+     * Same as <code>createGuidePile(File, AmigaPathList, int)</code> but
+     * report messages to <code>newMessagePool</code>, which can be shared
+     * by several piles created during the same run.
+     */
+    public static GuidePile createGuidePile(File guideFile, AmigaPathList newAmigaPaths, int parallelism,
+            MessagePool newMessagePool) throws IOException {
         assert guideFile != null;
         assert newAmigaPaths != null;
-        GuidePile result = new GuidePile(newAmigaPaths);
+        assert parallelism >= 1 : "parallelism=" + parallelism;
+        GuidePile result = new GuidePile(newAmigaPaths, parallelism, newMessagePool);
         result.add(guideFile);
         result.validateLinks();
-        result.completeRelations();
+        return result;
+    }
+
+    /**
+     * Create a lazy pile that initially only contains <code>guideFile</code>.
+     * Linked guides are read once they are requested using
+     * <code>requireGuide()</code>.
+     */
+    public static GuidePile createLazyGuidePile(File guideFile, AmigaPathList newAmigaPaths) throws IOException {
+        return createLazyGuidePile(guideFile, newAmigaPaths, new MessagePool());
+    }
+
+    /**
+     * Same as <code>createLazyGuidePile(File, AmigaPathList)</code> but
+     * report messages to <code>newMessagePool</code>.
+     */
+    public static GuidePile createLazyGuidePile(File guideFile, AmigaPathList newAmigaPaths,
+            MessagePool newMessagePool) throws IOException {
+        assert guideFile != null;
+        assert newAmigaPaths != null;
+        GuidePile result = new GuidePile(newAmigaPaths, 1, newMessagePool);
+        result.isLazy = true;
+        result.readLazily(guideFile);
+        return result;
+    }
+
+    /**
+     * Read <code>guideFile</code>, validate its links to guides already read
+     * and the links from guides already read to it.
+     */
+    private Guide readLazily(File guideFile) throws IOException {
+        assert isLazy;
+        assert !hasCachedGuideFor(guideFile);
+
+        String guideKey = guideFile.getAbsolutePath();
+        List<Link> waitingLinks = pendingLinksMap.remove(guideKey);
+        Guide result;
+        try {
+            result = getCachedGuideFor(guideFile);
+        } catch (IOException | IllegalArgumentException error) {
+            if (waitingLinks != null) {
+                for (Link link : waitingLinks) {
+                    setStateForUnreadableGuide(link, guideFile, error);
+                }
+            }
+            throw error;
+        }
+
+        for (Link link : result.getLinks()) {
+            linkMap.put(link.getLinkCommand(), link);
+            if (link.isDataLink()) {
+                File linkedFile = link.getLocalTargetFile();
+                assert linkedFile != null;
+                if (hasCachedGuideFor(linkedFile)) {
+                    scheduleLinkForValidation(link);
+                } else if (!linkedFile.exists()) {
+                    setBrokenBecauseMissing(link, linkedFile);
+                } else {
+                    try {
+                        if (AmigaTools.getInstance().isAmigaguide(linkedFile)) {
+                            String linkedKey = linkedFile.getAbsolutePath();
+                            List<Link> linksToLinkedFile = pendingLinksMap.get(linkedKey);
+                            if (linksToLinkedFile == null) {
+                                linksToLinkedFile = new ArrayList<Link>();
+                                pendingLinksMap.put(linkedKey, linksToLinkedFile);
+                            }
+                            linksToLinkedFile.add(link);
+                        } else {
+                            setLinkState(link, Link.State.VALID_OTHER_FILE);
+                            log.info("skipped non-guide: " + tools.sourced(linkedFile));
+                        }
+                    } catch (IOException error) {
+                        setBrokenBecauseUnreadable(link, linkedFile, error);
+                    }
+                }
+            } else {
+                scheduleLinkForValidation(link, Link.State.UNSUPPORTED);
+            }
+        }
+        if (waitingLinks != null) {
+            for (Link link : waitingLinks) {
+                scheduleLinkForValidation(link);
+            }
+        }
+        validateLinks();
+
         return result;
     }
 
     private void add(File guideFile) throws IOException {
         assert guideFile != null;
 
+        if (parallelism > 1) {
+            guideReaderService = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread result = new Thread(runnable, "guide reader");
+                result.setDaemon(true);
+                return result;
+            });
+            guideReadResultMap = new HashMap<String, Future<GuideReadResult>>();
+        }
+        try {
+            followLinks(guideFile);
+        } finally {
+            if (guideReaderService != null) {
+                guideReaderService.shutdownNow();
+                guideReaderService = null;
+                guideReadResultMap = null;
+            }
+        }
+    }
+
+    private void followLinks(File guideFile) throws IOException {
+        assert guideFile != null;
+
         // Setup links to validate from links in the initial guide.
         Guide guide = getCachedGuideFor(guideFile);
         List<Link> linksToFollow = new LinkedList<Link>(guide.getLinks());
+        startReadingLinkedGuidesInBackground(guide);
 
         while (!linksToFollow.isEmpty()) {
             Link link = linksToFollow.get(0);
@@ -130,21 +561,13 @@ public class GuidePile {
                         Guide linkedGuide = getCachedGuideFor(linkedFile);
                         scheduleLinkForValidation(link);
                         linksToFollow.addAll(linkedGuide.getLinks());
+                        startReadingLinkedGuidesInBackground(linkedGuide);
                     } catch (FileNotFoundException error) {
-                        link.setState(Link.State.BROKEN);
-                        MessageItem message = new MessageItem(link.getLinkCommand(),
-                                "ignored link to file that does not exist: " + tools.sourced(linkedFile));
-                        messagePool.add(message);
+                        setBrokenBecauseMissing(link, linkedFile);
                     } catch (IOException error) {
-                        link.setState(Link.State.BROKEN);
-                        MessageItem message = new MessageItem(link.getLinkCommand(), "cannot read linked file for "
-                                + tools.sourced(link.getAmigaTarget()));
-                        MessageItem seeAlso = new MessageItem(new FileSource(linkedFile),
-                                "related input/output error: " + error.getMessage());
-                        message.setSeeAlso(seeAlso);
-                        messagePool.add(message);
+                        setBrokenBecauseUnreadable(link, linkedFile, error);
                     } catch (IllegalArgumentException errorToIgnore) {
-                        link.setState(Link.State.VALID_OTHER_FILE);
+                        setLinkState(link, Link.State.VALID_OTHER_FILE);
                         log.log(Level.WARNING, "skipped non-guide: " + tools.sourced(linkedFile), errorToIgnore);
                     }
                 } else {
@@ -160,10 +583,42 @@ public class GuidePile {
         }
     }
 
+    /**
+     * Set the state of <code>link</code> to <code>linkedFile</code>, which
+     * could not be read as guide because of <code>error</code>.
+     */
+    private void setStateForUnreadableGuide(Link link, File linkedFile, Exception error) {
+        if (error instanceof FileNotFoundException) {
+            setBrokenBecauseMissing(link, linkedFile);
+        } else if (error instanceof IOException) {
+            setBrokenBecauseUnreadable(link, linkedFile, (IOException) error);
+        } else {
+            assert error instanceof IllegalArgumentException : "error=" + error;
+            setLinkState(link, Link.State.VALID_OTHER_FILE);
+        }
+    }
+
+    private void setBrokenBecauseMissing(Link link, File linkedFile) {
+        setLinkState(link, Link.State.BROKEN);
+        MessageItem message = new MessageItem(MessageCode.MISSING_FILE, link.getLinkCommand(),
+                () -> "ignored link to file that does not exist: " + tools.sourced(linkedFile));
+        messagePool.add(message);
+    }
+
+    private void setBrokenBecauseUnreadable(Link link, File linkedFile, IOException error) {
+        setLinkState(link, Link.State.BROKEN);
+        MessageItem message = new MessageItem(MessageCode.UNREADABLE_FILE, link.getLinkCommand(),
+                () -> "cannot read linked file for " + tools.sourced(link.getAmigaTarget()));
+        MessageItem seeAlso = new MessageItem(new FileSource(linkedFile), "related input/output error: "
+                + error.getMessage());
+        message.setSeeAlso(seeAlso);
+        messagePool.add(message);
+    }
+
     private void scheduleLinkForValidation(Link linkToValidate, Link.State newState) {
         assert linkToValidate != null;
         assert newState != Link.State.UNCHECKED;
-        linkToValidate.setState(newState);
+        setLinkState(linkToValidate, newState);
         linksToValidate.add(linkToValidate);
         log.log(Level.INFO, "scheduled link for validation: {0}", linkToValidate);
     }
@@ -176,21 +631,21 @@ public class GuidePile {
     private void validateLinks() throws IOException {
         log.info("number of links to validate: " + linksToValidate.size());
         for (Link link : linksToValidate) {
-            Link.State linkState = link.getState();
+            Link.State linkState = getLinkState(link);
             if ((linkState == Link.State.UNCHECKED) || (linkState == Link.State.VALID_GUIDE_UNCHECKED_NODE)) {
                 File linkedFile = link.getLocalTargetFile();
-                String linkedNodeName = link.getTargetNodeName();
+                String linkedNodeName = getLinkTargetNodeName(link);
                 assert hasCachedGuideFor(linkedFile);
                 Guide guideContainingNode = getCachedGuideFor(linkedFile);
                 assert guideContainingNode != null;
 
                 // For guide links, look up the first node of the target.
                 if (link.getType() == Link.Type.guide && (linkedNodeName == null)) {
-                    List<NodeInfo> targetNodeInfos = guideContainingNode.getNodeInfos();
-                    if (targetNodeInfos.size() > 0) {
-                        linkedNodeName = targetNodeInfos.get(0).getName();
-                        link.setTargetNodeName(linkedNodeName);
-                        link.setState(Link.State.VALID);
+                    NodeInfo firstTargetNodeInfo = guideContainingNode.getFirstNodeInfo();
+                    if (firstTargetNodeInfo != null) {
+                        linkedNodeName = firstTargetNodeInfo.getName();
+                        linkTargetNodeNameMap.put(link, linkedNodeName);
+                        setLinkState(link, Link.State.VALID);
                     }
                 }
 
@@ -202,54 +657,26 @@ public class GuidePile {
                     nodeInfo = null;
                 }
                 if (nodeInfo != null) {
-                    link.setState(Link.State.VALID);
+                    setLinkState(link, Link.State.VALID);
                 } else {
-                    link.setState(Link.State.VALID_GUIDE_BROKEN_NODE);
-                    MessageItem message = new MessageItem(link.getLinkCommand(), "cannot find node "
-                            + tools.sourced(linkedNodeName) + " in " + tools.sourced(linkedFile));
+                    setLinkState(link, Link.State.VALID_GUIDE_BROKEN_NODE);
+                    String missingNodeName = linkedNodeName;
+                    MessageItem message = new MessageItem(MessageCode.MISSING_NODE, link.getLinkCommand(),
+                            () -> "cannot find node " + tools.sourced(missingNodeName) + " in "
+                                    + tools.sourced(linkedFile));
                     messagePool.add(message);
                 }
             }
         }
 
-        // Ensure there are no unchecked links anymore.
+        linksToValidate.clear();
+
+        // Ensure there are no unchecked links anymore, except for links to
+        // guides a lazy pile has not read yet.
         // TODO #3: Check if streams are useful here.
         for (Link link : linkMap.values()) {
-            assert link.getState() != Link.State.UNCHECKED : "unchecked link: "
+            assert isLazy || (getLinkState(link) != Link.State.UNCHECKED) : "unchecked link: "
                     + link.getLinkCommand().toPrettyAmigaguide();
         }
     }
-    
-    private void completeRelations() {
-        for (Guide guide: getGuides()) {
-            Link defaultHelpLink = guide.getRelation(Relation.help);
-            Link defaultIndexLink = guide.getRelation(Relation.index);
-            Link defaultTocLink = guide.getRelation(Relation.contents);
-            Link defaultPreviousLink = null;
-           
-            int nextNodeInfoIndex = 1;
-            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
-                // Attempt to find the default next node.
-                Link defaultNextLink;
-                if (nextNodeInfoIndex < guide.getNodeInfos().size()) {
-                    NodeInfo nextNodeInfo = guide.getNodeInfos().get(nextNodeInfoIndex);
-                    CommandItem nextNodeStartCommand = nextNodeInfo.getStartNode();
-                    defaultNextLink = new Link(nextNodeStartCommand, amigaPaths);
-                } else {
-                    defaultNextLink = null;
-                }
-                
-                // Possibly add default links.
-                nodeInfo.setEmptyRelationToDefault(Relation.help, defaultHelpLink);
-                nodeInfo.setEmptyRelationToDefault(Relation.index, defaultIndexLink);
-                nodeInfo.setEmptyRelationToDefault(Relation.next, defaultNextLink);
-                nodeInfo.setEmptyRelationToDefault(Relation.previous, defaultPreviousLink);
-                nodeInfo.setEmptyRelationToDefault(Relation.contents, defaultTocLink);
-                
-                // Prepare to proceed with next node.
-                defaultPreviousLink = new Link(nodeInfo.getStartNode(), amigaPaths);
-                nextNodeInfoIndex += 1;
-            }
-        }
-    }
 }
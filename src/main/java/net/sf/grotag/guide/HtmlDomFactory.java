@@ -14,12 +14,15 @@ import java.nio.file.CopyOption;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +42,38 @@ import org.w3c.dom.Text;
 import com.twelvemonkeys.imageio.plugins.iff.IFFImageReaderSpi;
 
 public class HtmlDomFactory extends AbstractDomFactory {
+    /**
+     * Guide file and node an HTML file is generated for.
+     */
+    static class NodeTarget {
+        private File guideFile;
+        private String nodeName;
+
+        private NodeTarget(File newGuideFile, String newNodeName) {
+            assert newGuideFile != null;
+            guideFile = newGuideFile;
+            nodeName = newNodeName;
+        }
+
+        File getGuideFile() {
+            return guideFile;
+        }
+
+        /**
+         * Name of the node, or <code>null</code> for the first node of the
+         * guide.
+         */
+        String getNodeName() {
+            return nodeName;
+        }
+    }
+
+    /**
+     * Folder within the target folder for placeholder HTML files that refer
+     * to nodes of guides a lazy pile has not read yet.
+     */
+    private static final String PENDING_FOLDER_NAME = ".pending";
+
     /**
      * Resource to copy the CSS from.
      */
@@ -53,7 +88,10 @@ public class HtmlDomFactory extends AbstractDomFactory {
     private File pileBaseFolder;
     private File pileTargetFolder;
     private Tools tools;
-    private Map<String, File> targetFileMap;
+    private AtomicReference<File[]> targetFilesReference;
+    private Set<Guide> guidesWithTargetFiles;
+    private Map<File, NodeTarget> nodeTargetMap;
+    private Map<String, File> pendingNodeFileMap;
     private Map<Relation, String> relationToNavigationLabelMap;
     private File styleFile;
     private Logger log;
@@ -61,6 +99,7 @@ public class HtmlDomFactory extends AbstractDomFactory {
     private boolean isConvertIffIlbm;
     private boolean isAddDublinCore;
     private boolean isAddNavigationBar;
+    private Set<File> exportedNonGuideFiles;
 
     public HtmlDomFactory(GuidePile newPile, File newPileTargetFolder) throws ParserConfigurationException {
         super(newPile);
@@ -78,21 +117,102 @@ public class HtmlDomFactory extends AbstractDomFactory {
         Guide baseGuide = guides.get(0);
         pileBaseFolder = baseGuide.getSourceFile().getParentFile();
         relationToNavigationLabelMap = createRelationToNavigationLabelMap();
-        targetFileMap = createTargetFileMap();
+        targetFilesReference = new AtomicReference<File[]>(new File[pile.getNodeIdCount()]);
+        guidesWithTargetFiles = ConcurrentHashMap.newKeySet();
+        nodeTargetMap = new ConcurrentHashMap<File, NodeTarget>();
+        pendingNodeFileMap = new ConcurrentHashMap<String, File>();
+        for (Guide guide : guides) {
+            addTargetFilesFor(guide);
+        }
 
         styleFile = new File(pileTargetFolder, "amigaguide.css");
         isAddDublinCore = true;
         isAddNavigationBar = true;
         isConvertIffIlbm = true;
         isCopyNonGuides = true;
+        exportedNonGuideFiles = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Create a factory with the same settings as <code>original</code> that
+     * can be used in another thread. Both factories share the target files
+     * and the knowledge about which non-guide files have already been copied
+     * or converted, but each one builds its own DOMs.
+     */
+    public HtmlDomFactory(HtmlDomFactory original) throws ParserConfigurationException {
+        super(original.getPile());
+
+        log = original.log;
+        tools = original.tools;
+        pile = original.pile;
+        pileTargetFolder = original.pileTargetFolder;
+        pileBaseFolder = original.pileBaseFolder;
+        relationToNavigationLabelMap = original.relationToNavigationLabelMap;
+        targetFilesReference = original.targetFilesReference;
+        guidesWithTargetFiles = original.guidesWithTargetFiles;
+        nodeTargetMap = original.nodeTargetMap;
+        pendingNodeFileMap = original.pendingNodeFileMap;
+        styleFile = original.styleFile;
+        isAddDublinCore = original.isAddDublinCore;
+        isAddNavigationBar = original.isAddNavigationBar;
+        isConvertIffIlbm = original.isConvertIffIlbm;
+        isCopyNonGuides = original.isCopyNonGuides;
+        exportedNonGuideFiles = original.exportedNonGuideFiles;
     }
 
     public File getTargetFileFor(Guide guide, NodeInfo nodeInfo) {
-        File result = targetFileMap.get(nodeKey(guide, nodeInfo));
+        int nodeId = nodeId(guide, nodeInfo);
+        File[] targetFiles = targetFilesReference.get();
+        if ((nodeId >= targetFiles.length) || (targetFiles[nodeId] == null)) {
+            // Guide has been read by a lazy pile after the factory was
+            // created.
+            addTargetFilesFor(guide);
+            targetFiles = targetFilesReference.get();
+        }
+        File result = targetFiles[nodeId];
         assert result != null;
         return result;
     }
 
+    /**
+     * The guide file and node <code>htmlFile</code> is generated for, or
+     * <code>null</code> if the factory does not know about
+     * <code>htmlFile</code>. For placeholders from
+     * <code>getPendingNodeFile()</code>, the guide might not have been read
+     * yet.
+     */
+    NodeTarget getNodeTargetFor(File htmlFile) {
+        assert htmlFile != null;
+        return nodeTargetMap.get(htmlFile.getAbsoluteFile());
+    }
+
+    /**
+     * Placeholder HTML file for <code>nodeName</code> in
+     * <code>guideFile</code>, which a lazy pile has not read yet.
+     * 
+     * @param nodeName
+     *                the name of the node or <code>null</code> for the first
+     *                node
+     */
+    File getPendingNodeFile(File guideFile, String nodeName) {
+        assert guideFile != null;
+        String pendingKey = guideFile.getAbsolutePath();
+        if (nodeName != null) {
+            pendingKey = nodeName.replace("@", "@@") + "@" + pendingKey.replace("@", "@@");
+        }
+        File result;
+        synchronized (pendingNodeFileMap) {
+            result = pendingNodeFileMap.get(pendingKey);
+            if (result == null) {
+                File pendingFolder = new File(pileTargetFolder, PENDING_FOLDER_NAME);
+                result = new File(pendingFolder, pendingNodeFileMap.size() + ".html").getAbsoluteFile();
+                pendingNodeFileMap.put(pendingKey, result);
+                nodeTargetMap.put(result, new NodeTarget(guideFile, nodeName));
+            }
+        }
+        return result;
+    }
+
     private Map<Relation, String> createRelationToNavigationLabelMap() {
         Map<Relation, String> result = new TreeMap<Relation, String>();
         result.put(Relation.contents, "Contents");
@@ -103,41 +223,55 @@ public class HtmlDomFactory extends AbstractDomFactory {
         return result;
     }
 
-    private Map<String, File> createTargetFileMap() {
-        Map<String, File> result = new HashMap<String, File>();
-
-        // TODO #3: Check if streams are useful here.
-        for (Guide guide : pile.getGuides()) {
-            Map<String, String> nodeToFileNameMap = new HashMap<String, String>();
-            Set<String> fileNameSet = new HashSet<String>();
-            File guideFile = guide.getSourceFile();
-            String relativeGuideFolder = tools.getRelativePath(pileBaseFolder, guideFile);
-            File htmlTargetFolder = new File(pileTargetFolder, tools.getWithoutLastSuffix(relativeGuideFolder));
-
-            // TODO #3: Check if streams are useful here.
-            for (NodeInfo nextNodeInfo : guide.getNodeInfos()) {
-                String nodeName = nextNodeInfo.getName();
-                assert nodeName.equals(nodeName.toLowerCase());
-
-                // Make sure the "main" node ends up in the HTML file "index".
-                if (nodeName.equals("main")) {
-                    nodeName = "index";
-                } else if (nodeName.equals("index")) {
-                    nodeName = "list";
-                }
-                String fileName = nodeName;
-                int uniqueCounter = 0;
-                while (fileNameSet.contains(fileName)) {
-                    uniqueCounter += 1;
-                    fileName = nodeName + "." + uniqueCounter;
+    /**
+     * Compute the target files for all nodes in <code>guide</code>. Because
+     * the file names only depend on the nodes in the same guide, this yields
+     * the same files no matter when it happens.
+     */
+    private void addTargetFilesFor(Guide guide) {
+        synchronized (guidesWithTargetFiles) {
+            if (!guidesWithTargetFiles.contains(guide)) {
+                // Publish the target files of the guide only once all of
+                // them are known so other threads can read them without
+                // locking.
+                File[] oldTargetFiles = targetFilesReference.get();
+                File[] targetFiles = Arrays.copyOf(oldTargetFiles, Math.max(oldTargetFiles.length, pile
+                        .getNodeIdCount()));
+                Map<String, String> nodeToFileNameMap = new HashMap<String, String>();
+                Set<String> fileNameSet = new HashSet<String>();
+                File guideFile = guide.getSourceFile();
+                String relativeGuideFolder = tools.getRelativePath(pileBaseFolder, guideFile);
+                File htmlTargetFolder = new File(pileTargetFolder, tools.getWithoutLastSuffix(relativeGuideFolder));
+
+                // TODO #3: Check if streams are useful here.
+                for (NodeInfo nextNodeInfo : guide.getNodeInfos()) {
+                    String nodeName = nextNodeInfo.getName();
+                    assert nodeName.equals(nodeName.toLowerCase());
+
+                    // Make sure the "main" node ends up in the HTML file
+                    // "index".
+                    if (nodeName.equals("main")) {
+                        nodeName = "index";
+                    } else if (nodeName.equals("index")) {
+                        nodeName = "list";
+                    }
+                    String fileName = nodeName;
+                    int uniqueCounter = 0;
+                    while (fileNameSet.contains(fileName)) {
+                        uniqueCounter += 1;
+                        fileName = nodeName + "." + uniqueCounter;
+                    }
+                    fileNameSet.add(fileName);
+                    nodeToFileNameMap.put(nodeName, fileName);
+                    File htmlTargetFile = new File(htmlTargetFolder, fileName + ".html");
+                    targetFiles[nodeId(guide, nextNodeInfo)] = htmlTargetFile;
+                    nodeTargetMap.put(htmlTargetFile.getAbsoluteFile(), new NodeTarget(guideFile, nextNodeInfo
+                            .getName()));
                 }
-                fileNameSet.add(fileName);
-                nodeToFileNameMap.put(nodeName, fileName);
-                File htmlTargetFile = new File(htmlTargetFolder, fileName + ".html");
-                result.put(nodeKey(guide, nextNodeInfo), htmlTargetFile);
+                targetFilesReference.set(targetFiles);
+                guidesWithTargetFiles.add(guide);
             }
         }
-        return result;
     }
 
     @Override
@@ -151,18 +285,31 @@ public class HtmlDomFactory extends AbstractDomFactory {
     @Override
     protected Node createLinkToGuideNode(Guide sourceGuide, File linkedFile, String linkedNode, String linkLabel) {
         Element result = getDom().createElement("a");
-        NodeInfo anySourceNode = sourceGuide.getNodeInfos().get(0);
-        File sourceHtmlFile = getTargetFileFor(sourceGuide, anySourceNode);
-        Guide targetGuide = pile.getGuide(linkedFile);
-        NodeInfo targetNodeInfo = targetGuide.getNodeInfo(linkedNode);
-        File targetFile = getTargetFileFor(targetGuide, targetNodeInfo);
-        String relativeTargetUrl = tools.getRelativeUrl(sourceHtmlFile, targetFile);
-
-        result.setAttribute("href", relativeTargetUrl);
+        result.setAttribute("href", getGuideNodeUrl(sourceGuide, linkedFile, linkedNode));
         result.appendChild(getDom().createTextNode(linkLabel));
         return result;
     }
 
+    /**
+     * URL of the HTML file for <code>linkedNode</code> in
+     * <code>linkedFile</code> relative to the HTML files of
+     * <code>sourceGuide</code>.
+     */
+    String getGuideNodeUrl(Guide sourceGuide, File linkedFile, String linkedNode) {
+        NodeInfo anySourceNode = sourceGuide.getFirstNodeInfo();
+        File sourceHtmlFile = getTargetFileFor(sourceGuide, anySourceNode);
+        Guide targetGuide = pile.getGuide(linkedFile);
+        File targetFile;
+        if (targetGuide != null) {
+            NodeInfo targetNodeInfo = targetGuide.getNodeInfo(linkedNode);
+            targetFile = getTargetFileFor(targetGuide, targetNodeInfo);
+        } else {
+            assert pile.isLazy() : "guide must have been read: " + tools.sourced(linkedFile);
+            targetFile = getPendingNodeFile(linkedFile, linkedNode);
+        }
+        return tools.getRelativeUrl(sourceHtmlFile, targetFile);
+    }
+
     @Override
     // TODO: Consolidate and use createEmbeddedFailed instead.
     protected Node createEmbeddedFile(File embeddedFile) {
@@ -220,37 +367,49 @@ public class HtmlDomFactory extends AbstractDomFactory {
     @Override
     protected Node createLinkToNonGuideNode(Guide sourceGuide, File linkedFile, String linkLabel) throws IOException {
         Element result = getDom().createElement("a");
-        NodeInfo anySourceNode = sourceGuide.getNodeInfos().get(0);
+        result.setAttribute("href", exportNonGuideFile(sourceGuide, linkedFile));
+        result.appendChild(getDom().createTextNode(linkLabel));
+        return result;
+    }
+
+    /**
+     * Copy or convert the non-guide <code>linkedFile</code> to the output
+     * folder (depending on the settings of the factory) and return its URL
+     * relative to the HTML files of <code>sourceGuide</code>.
+     */
+    String exportNonGuideFile(Guide sourceGuide, File linkedFile) throws IOException {
+        NodeInfo anySourceNode = sourceGuide.getFirstNodeInfo();
         File sourceHtmlFile = getTargetFileFor(sourceGuide, anySourceNode);
         String relativeLinkedFile = tools.getRelativePath(sourceGuide.getSourceFile().getParentFile(), linkedFile);
         File targetBaseFolder = sourceHtmlFile.getParentFile();
         File targetFile;
 
+        // Files linked several times are copied or converted only once.
         if (isIffImageFile(linkedFile) && isConvertIffIlbm()) {
             relativeLinkedFile = tools.getWithoutLastSuffix(relativeLinkedFile) + ".png";
             targetFile = new File(targetBaseFolder, relativeLinkedFile);
-            tools.mkdirs(targetFile.getParentFile());
-            log.log(Level.INFO, "convert {0} to {1}", new Object[] { tools.sourced(linkedFile),
-                    tools.sourced(targetFile) });
-            BufferedImage image = ImageIO.read(linkedFile);
-            if (image == null) {
-                throw new IOException("cannot read image: " + tools.sourced(linkedFile));
+            if (exportedNonGuideFiles.add(targetFile)) {
+                tools.mkdirs(targetFile.getParentFile());
+                log.log(Level.INFO, "convert {0} to {1}", new Object[] { tools.sourced(linkedFile),
+                        tools.sourced(targetFile) });
+                BufferedImage image = ImageIO.read(linkedFile);
+                if (image == null) {
+                    throw new IOException("cannot read image: " + tools.sourced(linkedFile));
+                }
+                ImageIO.write(image, "png", targetFile);
             }
-            ImageIO.write(image, "png", targetFile);
         } else if (isCopyNonGuides()) {
             targetFile = new File(targetBaseFolder, relativeLinkedFile);
-            log.log(Level.INFO, "copy {0} to {1}",
-                    new Object[] { tools.sourced(linkedFile), tools.sourced(targetFile) });
-            tools.copyFile(linkedFile, targetFile);
+            if (exportedNonGuideFiles.add(targetFile)) {
+                log.log(Level.INFO, "copy {0} to {1}", new Object[] { tools.sourced(linkedFile),
+                        tools.sourced(targetFile) });
+                tools.copyFile(linkedFile, targetFile);
+            }
         } else {
             targetFile = linkedFile;
         }
 
-        String relativeTargetUrl = tools.getRelativeUrl(sourceHtmlFile, targetFile);
-
-        result.setAttribute("href", relativeTargetUrl);
-        result.appendChild(getDom().createTextNode(linkLabel));
-        return result;
+        return tools.getRelativeUrl(sourceHtmlFile, targetFile);
     }
 
     private Element createMetaElement(String name, String content) {
@@ -265,7 +424,7 @@ public class HtmlDomFactory extends AbstractDomFactory {
         return result;
     }
 
-    private String toHtmlRelation(Relation relation) {
+    String toHtmlRelation(Relation relation) {
         String result;
         if (relation == Relation.previous) {
             result = "prev";
@@ -275,7 +434,7 @@ public class HtmlDomFactory extends AbstractDomFactory {
         return result;
     }
 
-    private String getRelationUrl(Guide sourceGuide, NodeInfo sourceNodeInfo, Relation relation) {
+    String getRelationUrl(Guide sourceGuide, NodeInfo sourceNodeInfo, Relation relation) {
         assert sourceGuide != null;
         assert sourceNodeInfo != null;
         assert relation != null;
@@ -287,10 +446,17 @@ public class HtmlDomFactory extends AbstractDomFactory {
             File linkedFile = relationLink.getLocalTargetFile();
             String linkedNode = relationLink.getTargetNodeName();
             Guide targetGuide = pile.getGuide(linkedFile);
+            File targetHtmlFile;
             if (targetGuide != null) {
                 NodeInfo targetNodeInfo = targetGuide.getNodeInfo(linkedNode);
-                File targetHtmlFile = getTargetFileFor(targetGuide, targetNodeInfo);
-                NodeInfo anySourceNode = sourceGuide.getNodeInfos().get(0);
+                targetHtmlFile = getTargetFileFor(targetGuide, targetNodeInfo);
+            } else if (pile.isLazy() && (pile.getLinkState(relationLink) == Link.State.UNCHECKED)) {
+                targetHtmlFile = getPendingNodeFile(linkedFile, linkedNode);
+            } else {
+                targetHtmlFile = null;
+            }
+            if (targetHtmlFile != null) {
+                NodeInfo anySourceNode = sourceGuide.getFirstNodeInfo();
                 File sourceHtmlFile = getTargetFileFor(sourceGuide, anySourceNode);
                 result = tools.getRelativeUrl(sourceHtmlFile, targetHtmlFile);
             } else {
@@ -331,8 +497,7 @@ public class HtmlDomFactory extends AbstractDomFactory {
             parent.appendChild(getDom().createTextNode(" | "));
         }
         String relationUrl = getRelationUrl(sourceGuide, sourceNodeInfo, relation);
-        String relationLabel = relationToNavigationLabelMap.get(relation);
-        assert relationLabel != null : "label for relation must be defined: " + relation;
+        String relationLabel = getNavigationLabel(relation);
         Text linkLabel = getDom().createTextNode(relationLabel);
         if (relationUrl != null) {
             Element aElement = getDom().createElement("a");
@@ -344,6 +509,15 @@ public class HtmlDomFactory extends AbstractDomFactory {
         }
     }
 
+    /**
+     * Label for the link to <code>relation</code> in the navigation bar.
+     */
+    String getNavigationLabel(Relation relation) {
+        String result = relationToNavigationLabelMap.get(relation);
+        assert result != null : "label for relation must be defined: " + relation;
+        return result;
+    }
+
     private void attemptToAppendNavigationBar(Element parent, Guide sourceGuide, NodeInfo sourceNodeInfo) {
         if (isAddNavigationBar()) {
             appendNavigationLink(parent, sourceGuide, sourceNodeInfo, Relation.contents, true);
@@ -377,12 +551,12 @@ public class HtmlDomFactory extends AbstractDomFactory {
         }
 
         // Append relations.
-        for (Relation relation : nodeInfo.getRelationLinkMap().keySet()) {
+        for (Relation relation : Relation.values()) {
             attemptToAppendRelation(result, guide, nodeInfo, relation);
         }
 
         // Append style sheet.
-        String styleUrl = tools.getRelativeUrl(targetFileMap.get(nodeKey(guide, nodeInfo)), getStyleFile());
+        String styleUrl = getStyleUrl(guide, nodeInfo);
         Element style = getDom().createElement("link");
         style.setAttribute("rel", REL_STYLESHEET);
         style.setAttribute("type", "text/css");
@@ -404,7 +578,7 @@ public class HtmlDomFactory extends AbstractDomFactory {
         }
 
         // Append keywords.
-        boolean isFirstNodeInGuide = (guide.getNodeInfos().get(0) == nodeInfo);
+        boolean isFirstNodeInGuide = (nodeInfo.getOrdinal() == 0);
         if (isFirstNodeInGuide) {
             // TODO: Add keywords.
         }
@@ -412,6 +586,14 @@ public class HtmlDomFactory extends AbstractDomFactory {
         return result;
     }
 
+    /**
+     * URL of the style file relative to the HTML file for
+     * <code>nodeInfo</code>.
+     */
+    String getStyleUrl(Guide guide, NodeInfo nodeInfo) {
+        return tools.getRelativeUrl(getTargetFileFor(guide, nodeInfo), getStyleFile());
+    }
+
     @Override
     protected Node createOtherFileLinkNode(Guide sourceGuide, File linkedFile, String linkLabel) {
         // TODO: Implement proper link.
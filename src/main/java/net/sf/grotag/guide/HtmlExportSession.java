@@ -0,0 +1,265 @@
+package net.sf.grotag.guide;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+
+import org.w3c.dom.Document;
+
+/**
+ * Session to export the nodes of a <code>GuidePile</code> to HTML. All nodes
+ * share the same <code>HtmlDomFactory</code> (and with it the map of target
+ * files for the whole pile), style sheet and <code>DomWriter</code>, so
+ * exporting a node does not have to set up any of these again.
+ * <p>
+ * With more than 1 job, <code>exportAll()</code> renders and writes nodes in
+ * parallel. Each thread then uses its own copy of the factory and its own
+ * writer, so the resulting files are the same as with a single job.
+ * <p>
+ * In streaming mode, nodes are written by a <code>HtmlStreamWriter</code>
+ * instead of building a DOM for each node, which is faster but indents the
+ * HTML differently.
+ * <p>
+ * Instead of exporting all nodes up front, <code>exportOnDemand()</code> can
+ * export single nodes once they are needed. Combined with a lazy
+ * <code>GuidePile</code>, this also reads linked guides only once one of
+ * their nodes is requested.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class HtmlExportSession {
+    /**
+     * Factory and writers to export nodes with; all of them must be confined
+     * to a single thread.
+     */
+    private class NodeExporter {
+        private HtmlDomFactory nodeFactory;
+        private DomWriter htmlWriter;
+        private HtmlStreamWriter htmlStreamWriter;
+
+        private NodeExporter(HtmlDomFactory newNodeFactory) throws TransformerConfigurationException {
+            nodeFactory = newNodeFactory;
+            htmlWriter = new DomWriter(dtd);
+            htmlStreamWriter = new HtmlStreamWriter(nodeFactory, dtd);
+        }
+
+        private File exportNode(Guide guide, NodeInfo nodeInfo) throws ParserConfigurationException, IOException,
+                TransformerException {
+            File result = nodeFactory.getTargetFileFor(guide, nodeInfo);
+            if (isStreaming) {
+                htmlStreamWriter.write(guide, nodeInfo, result);
+            } else {
+                Document htmlDocument = nodeFactory.createNodeDocument(guide, nodeInfo);
+                htmlWriter.write(htmlDocument, result);
+            }
+            return result;
+        }
+    }
+
+    private GuidePile pile;
+    private HtmlDomFactory factory;
+    private DomWriter.Dtd dtd;
+    private NodeExporter exporter;
+    private boolean isStyleFileCopied;
+    private boolean isStreaming;
+    private int jobs;
+    private ThreadLocal<NodeExporter> threadExporter;
+    private Set<File> exportedFiles;
+
+    public HtmlExportSession(GuidePile newPile, File newOutputFolder, DomWriter.Dtd newDtd)
+            throws ParserConfigurationException, TransformerConfigurationException {
+        assert newPile != null;
+        assert newOutputFolder != null;
+        assert newDtd != null;
+
+        pile = newPile;
+        dtd = newDtd;
+        factory = new HtmlDomFactory(pile, newOutputFolder);
+        exporter = new NodeExporter(factory);
+        jobs = 1;
+        threadExporter = new ThreadLocal<NodeExporter>();
+        exportedFiles = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Write nodes directly using a <code>HtmlStreamWriter</code> instead of
+     * building a DOM first?
+     */
+    public boolean isStreaming() {
+        return isStreaming;
+    }
+
+    public void setStreaming(boolean newStreaming) {
+        isStreaming = newStreaming;
+    }
+
+    /**
+     * Number of threads <code>exportAll()</code> uses to export nodes.
+     */
+    public int getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(int newJobs) {
+        assert newJobs >= 1 : "newJobs=" + newJobs;
+        jobs = newJobs;
+    }
+
+    /**
+     * The factory used to create the HTML documents, which can be used to
+     * change export options before exporting the first node.
+     */
+    public HtmlDomFactory getFactory() {
+        return factory;
+    }
+
+    public File getTargetFileFor(Guide guide, NodeInfo nodeInfo) {
+        return factory.getTargetFileFor(guide, nodeInfo);
+    }
+
+    /**
+     * Copy the style sheet to the output folder unless this already happened
+     * during this session.
+     */
+    public void copyStyleFile() throws IOException {
+        if (!isStyleFileCopied) {
+            factory.copyStyleFile();
+            isStyleFileCopied = true;
+        }
+    }
+
+    /**
+     * Write the HTML document for <code>nodeInfo</code> in
+     * <code>guide</code> to its target file.
+     */
+    public File exportNode(Guide guide, NodeInfo nodeInfo) throws ParserConfigurationException, IOException,
+            TransformerException {
+        assert guide != null;
+        assert nodeInfo != null;
+
+        copyStyleFile();
+        File result = exporter.exportNode(guide, nodeInfo);
+        exportedFiles.add(result.getAbsoluteFile());
+        return result;
+    }
+
+    /**
+     * The HTML file to actually show for <code>pageFile</code>, which
+     * usually is the target of a link in a node exported before. If
+     * <code>pageFile</code> refers to a node that has not been exported yet,
+     * export it now. If it refers to a guide a lazy pile has not read yet,
+     * read the guide first. Files the session does not know about are
+     * returned unchanged.
+     * 
+     * @throws IllegalArgumentException
+     *                 if a pending link turns out to refer to a file that is
+     *                 not an Amigaguide document
+     */
+    public File exportOnDemand(File pageFile) throws ParserConfigurationException, IOException,
+            TransformerException {
+        assert pageFile != null;
+
+        File result = pageFile;
+        HtmlDomFactory.NodeTarget nodeTarget = factory.getNodeTargetFor(pageFile);
+        if (nodeTarget != null) {
+            Guide guide = pile.requireGuide(nodeTarget.getGuideFile());
+            assert guide != null : "guide must exist: " + nodeTarget.getGuideFile();
+            String nodeName = nodeTarget.getNodeName();
+            NodeInfo nodeInfo = null;
+            if (nodeName != null) {
+                nodeInfo = guide.getNodeInfo(nodeName);
+            }
+            if (nodeInfo == null) {
+                // Broken link to a node in a guide read just now.
+                nodeInfo = guide.getFirstNodeInfo();
+            }
+            result = getTargetFileFor(guide, nodeInfo);
+            if (!exportedFiles.contains(result.getAbsoluteFile())) {
+                exportNode(guide, nodeInfo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same as <code>exportNode(Guide, NodeInfo)</code> but using a factory
+     * and writer confined to the current thread.
+     */
+    private File exportNodeInThread(Guide guide, NodeInfo nodeInfo) throws ParserConfigurationException,
+            IOException, TransformerException {
+        NodeExporter nodeExporter = threadExporter.get();
+        if (nodeExporter == null) {
+            nodeExporter = new NodeExporter(new HtmlDomFactory(factory));
+            threadExporter.set(nodeExporter);
+        }
+        File result = nodeExporter.exportNode(guide, nodeInfo);
+        exportedFiles.add(result.getAbsoluteFile());
+        return result;
+    }
+
+    /**
+     * Write the HTML documents for all nodes in all guides of the pile.
+     */
+    public void exportAll() throws ParserConfigurationException, IOException, TransformerException {
+        copyStyleFile();
+        if (jobs == 1) {
+            for (Guide guide : pile.getGuides()) {
+                for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                    exportNode(guide, nodeInfo);
+                }
+            }
+        } else {
+            exportAllInParallel();
+        }
+    }
+
+    private void exportAllInParallel() throws ParserConfigurationException, IOException, TransformerException {
+        List<Callable<File>> nodeExports = new ArrayList<Callable<File>>();
+        for (Guide guide : pile.getGuides()) {
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                nodeExports.add(() -> exportNodeInThread(guide, nodeInfo));
+            }
+        }
+
+        ForkJoinPool exportPool = new ForkJoinPool(jobs);
+        try {
+            // Check results in the same order as a single job would export
+            // nodes, so the first broken node is reported.
+            for (Future<File> nodeExport : exportPool.invokeAll(nodeExports)) {
+                try {
+                    nodeExport.get();
+                } catch (ExecutionException error) {
+                    Throwable cause = error.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof TransformerException) {
+                        throw (TransformerException) cause;
+                    } else if (cause instanceof ParserConfigurationException) {
+                        throw (ParserConfigurationException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("cannot export node", cause);
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while exporting nodes", error);
+                }
+            }
+        } finally {
+            exportPool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package net.sf.grotag.guide;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.Tools;
+
+/**
+ * Writer for the HTML documents of nodes that renders the items of a node
+ * directly to a file without building a DOM and serializing it with a
+ * <code>Transformer</code> first. Target files, links, relations and style
+ * sheet are the same as with the <code>HtmlDomFactory</code> the writer is
+ * created for, and the content is split into paragraphs by the same
+ * <code>NodeContentTraverser</code>. Only the indentation differs.
+ * <p>
+ * A writer reuses its buffers for each node, so it must be confined to a
+ * single thread.
+ *
+ * @author Thomas Aglassinger
+ */
+public class HtmlStreamWriter {
+    private static final String INDENT = "    ";
+
+    /**
+     * Builder to render the content of a node to <code>page</code>.
+     */
+    private class StreamContentBuilder implements NodeContentBuilder {
+        public void appendHeading(String heading) {
+            page.append(INDENT).append(INDENT);
+            appendElement(page, "h1", heading);
+            page.append('\n');
+        }
+
+        public void startParagraph(Wrap wrap, boolean isProportional) {
+            paragraph.setLength(0);
+            if (wrap == Wrap.NONE) {
+                paragraphTag = "pre";
+                isMonospaceParagraph = false;
+            } else {
+                assert (wrap == Wrap.SMART) || (wrap == Wrap.WORD) : "wrap=" + wrap;
+                paragraphTag = "p";
+                isMonospaceParagraph = !isProportional;
+            }
+        }
+
+        public void appendText(String text) {
+            appendEscaped(paragraph, text, false);
+        }
+
+        public void appendAmigaguide() {
+            paragraph.append("<span class=\"b\">Amigaguide\u00ae</span>");
+        }
+
+        public void appendLinkToGuideNode(Guide sourceGuide, File targetFile, String targetNode, String linkLabel) {
+            appendLink(paragraph, factory.getGuideNodeUrl(sourceGuide, targetFile, targetNode), linkLabel);
+        }
+
+        public void appendOtherFileLink(Guide sourceGuide, File linkedFile, String linkLabel) {
+            // TODO: Implement proper link.
+            appendEscaped(paragraph, linkLabel, false);
+        }
+
+        public void appendLinkToNonGuideNode(Guide sourceGuide, File linkedFile, String linkLabel)
+                throws IOException {
+            appendLink(paragraph, factory.exportNonGuideFile(sourceGuide, linkedFile), linkLabel);
+        }
+
+        public void endParagraph() {
+            page.append(INDENT).append(INDENT).append('<').append(paragraphTag);
+            if (isMonospaceParagraph) {
+                page.append(" class=\"monospace\"");
+            }
+            page.append('>').append(paragraph).append("</").append(paragraphTag).append(">\n");
+        }
+
+        public void appendEmbeddedFile(File embeddedFile) {
+            page.append(INDENT).append(INDENT);
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(embeddedFile),
+                        AmigaTools.ENCODING));
+                try {
+                    StringBuilder embeddedText = new StringBuilder();
+                    String textLine = reader.readLine();
+                    while (textLine != null) {
+                        embeddedText.append(textLine).append('\n');
+                        textLine = reader.readLine();
+                    }
+                    appendElement(page, "pre", embeddedText.toString());
+                } finally {
+                    reader.close();
+                }
+            } catch (UnsupportedEncodingException error) {
+                throw new IllegalStateException("Amiga encoding must be supported", error);
+            } catch (IOException error) {
+                appendElement(page, "p", "Missing embedded file" + "Cannot find file to @embed: "
+                        + tools.sourced(embeddedFile) + "." + "Reason: " + error.getMessage() + ".");
+            }
+            page.append('\n');
+        }
+    }
+
+    private HtmlDomFactory factory;
+    private boolean isXhtml;
+    private String encoding;
+    private Logger log;
+    private Tools tools;
+    private NodeContentTraverser contentTraverser;
+    private StreamContentBuilder contentBuilder;
+    private StringBuilder page;
+    private StringBuilder paragraph;
+    private String paragraphTag;
+    private boolean isMonospaceParagraph;
+
+    public HtmlStreamWriter(HtmlDomFactory newFactory, DomWriter.Dtd dtd) {
+        assert newFactory != null;
+        assert (dtd == DomWriter.Dtd.HTML) || (dtd == DomWriter.Dtd.XHTML) : "dtd=" + dtd;
+
+        log = Logger.getLogger(HtmlStreamWriter.class.getName());
+        tools = Tools.getInstance();
+
+        factory = newFactory;
+        isXhtml = (dtd == DomWriter.Dtd.XHTML);
+        encoding = DomWriter.DEFAULT_ENCODING;
+        contentTraverser = factory.getContentTraverser();
+        contentBuilder = new StreamContentBuilder();
+        page = new StringBuilder();
+        paragraph = new StringBuilder();
+    }
+
+    public void setEncoding(String newEncoding) {
+        assert newEncoding != null;
+        encoding = newEncoding;
+    }
+
+    /**
+     * Write the HTML document for <code>nodeInfo</code> in
+     * <code>guide</code> to <code>targetFile</code>.
+     */
+    public void write(Guide guide, NodeInfo nodeInfo, File targetFile) throws IOException {
+        assert guide != null;
+        assert nodeInfo != null;
+        assert targetFile != null;
+
+        log.log(Level.INFO, "write html to {0} using encoding {1}", new Object[] { tools.sourced(targetFile),
+                tools.sourced(encoding) });
+        page.setLength(0);
+        appendNode(guide, nodeInfo);
+        tools.mkdirs(targetFile.getParentFile());
+        Writer targetWriter = tools.createBufferedWriter(targetFile, encoding);
+        try {
+            targetWriter.append(page);
+        } finally {
+            targetWriter.close();
+        }
+    }
+
+    private void appendNode(Guide guide, NodeInfo nodeInfo) throws IOException {
+        if (isXhtml) {
+            page.append("<?xml version=\"1.0\" encoding=\"").append(encoding).append("\"?>\n");
+            appendDoctype(DomWriter.XHTML_PUBLIC_ID, DomWriter.XHTML_SYSTEM_ID);
+        } else {
+            appendDoctype(DomWriter.HTML_PUBLIC_ID, DomWriter.HTML_SYSTEM_ID);
+        }
+        page.append("<html>\n");
+        appendHead(guide, nodeInfo);
+        page.append(INDENT).append("<body>\n");
+        attemptToAppendNavigationBar(guide, nodeInfo);
+        contentTraverser.traverse(guide, nodeInfo, contentBuilder);
+        page.append(INDENT).append("</body>\n");
+        page.append("</html>\n");
+    }
+
+    private void appendDoctype(String publicId, String systemId) {
+        page.append("<!DOCTYPE html PUBLIC \"").append(publicId).append("\" \"").append(systemId).append("\">\n");
+    }
+
+    /**
+     * Append <code>&lt;head&gt;</code> with the same content as
+     * <code>HtmlDomFactory.createHead()</code>.
+     */
+    private void appendHead(Guide guide, NodeInfo nodeInfo) {
+        DatabaseInfo dbInfo = guide.getDatabaseInfo();
+        boolean isAddDublinCore = factory.isAddDublinCore();
+
+        page.append(INDENT).append("<head");
+        if (isAddDublinCore) {
+            page.append(" profile=\"http://dublincore.org/documents/2008/08/04/dc-html/\"");
+        }
+        page.append(">\n");
+        if (!isXhtml) {
+            appendEmptyElement("meta", "http-equiv", "Content-Type", "content", "text/html; charset=" + encoding);
+        }
+        page.append(INDENT).append(INDENT);
+        appendElement(page, "title", dbInfo.getName());
+        page.append('\n');
+        if (isAddDublinCore) {
+            appendEmptyElement("meta", "name", "DC.title", "content", dbInfo.getName());
+        }
+        for (Relation relation : Relation.values()) {
+            String relativeTargetUrl = factory.getRelationUrl(guide, nodeInfo, relation);
+            if (relativeTargetUrl != null) {
+                appendEmptyElement("link", "href", relativeTargetUrl, "rel", factory.toHtmlRelation(relation));
+            }
+        }
+        appendEmptyElement("link", "rel", HtmlDomFactory.REL_STYLESHEET, "type", "text/css", "href", factory
+                .getStyleUrl(guide, nodeInfo));
+        if (isAddDublinCore) {
+            String author = dbInfo.getAuthor();
+            if (author != null) {
+                appendEmptyElement("meta", "name", "DC.creator", "content", author);
+            }
+            String copyright = dbInfo.getCopyright();
+            if (copyright != null) {
+                appendEmptyElement("meta", "name", "DC.rights", "content", copyright);
+            }
+        }
+        page.append(INDENT).append("</head>\n");
+    }
+
+    private void attemptToAppendNavigationBar(Guide guide, NodeInfo nodeInfo) {
+        if (factory.isAddNavigationBar()) {
+            Relation[] relations = new Relation[] { Relation.contents, Relation.index, Relation.next,
+                    Relation.previous };
+            page.append(INDENT).append(INDENT);
+            for (int relationIndex = 0; relationIndex < relations.length; relationIndex += 1) {
+                Relation relation = relations[relationIndex];
+                if (relationIndex > 0) {
+                    page.append(" | ");
+                }
+                String relationUrl = factory.getRelationUrl(guide, nodeInfo, relation);
+                String relationLabel = factory.getNavigationLabel(relation);
+                if (relationUrl != null) {
+                    appendLink(page, relationUrl, relationLabel);
+                } else {
+                    appendEscaped(page, relationLabel, false);
+                }
+            }
+            page.append('\n');
+            appendEmptyElement("hr");
+        }
+    }
+
+    /**
+     * Append an indented element without content, for example
+     * <code>&lt;meta&gt;</code>, and a new line.
+     *
+     * @param namesAndValues
+     *                alternating names and values of the attributes
+     */
+    private void appendEmptyElement(String name, String... namesAndValues) {
+        assert namesAndValues.length % 2 == 0;
+        page.append(INDENT).append(INDENT).append('<').append(name);
+        for (int index = 0; index < namesAndValues.length; index += 2) {
+            page.append(' ').append(namesAndValues[index]).append("=\"");
+            appendEscaped(page, namesAndValues[index + 1], true);
+            page.append('"');
+        }
+        if (isXhtml) {
+            page.append(" />\n");
+        } else {
+            page.append(">\n");
+        }
+    }
+
+    private void appendElement(StringBuilder target, String name, String text) {
+        target.append('<').append(name).append('>');
+        appendEscaped(target, text, false);
+        target.append("</").append(name).append('>');
+    }
+
+    private void appendLink(StringBuilder target, String url, String label) {
+        target.append("<a href=\"");
+        appendEscaped(target, url, true);
+        target.append("\">");
+        appendEscaped(target, label, false);
+        target.append("</a>");
+    }
+
+    private void appendEscaped(StringBuilder target, String text, boolean isAttribute) {
+        for (int i = 0; i < text.length(); i += 1) {
+            char some = text.charAt(i);
+            if (some == '&') {
+                target.append("&amp;");
+            } else if (some == '<') {
+                target.append("&lt;");
+            } else if (some == '>') {
+                target.append("&gt;");
+            } else if ((some == '"') && isAttribute) {
+                target.append("&quot;");
+            } else {
+                target.append(some);
+            }
+        }
+    }
+}
@@ -9,6 +9,12 @@ package net.sf.grotag.guide;
 public class IllegalLinkTypeException extends IllegalArgumentException {
     private String linkType;
 
+    public IllegalLinkTypeException(String newLinkType) {
+        super("unknown link type: " + newLinkType);
+        assert newLinkType != null;
+        linkType = newLinkType;
+    }
+
     public IllegalLinkTypeException(String newLinkType, IllegalArgumentException cause) {
         super("unknown link type: " + newLinkType, cause);
         assert newLinkType != null;
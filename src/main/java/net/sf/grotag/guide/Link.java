@@ -1,6 +1,8 @@
 package net.sf.grotag.guide;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import net.sf.grotag.common.AmigaPathList;
@@ -41,7 +43,28 @@ public class Link {
      * @author Thomas Aglassinger
      */
     public enum Type {
-        alink, beep, close, guide, link, quit, relation, rx, rxs, system
+        alink, beep, close, guide, link, quit, relation, rx, rxs, system;
+
+        private static final Map<String, Type> LINK_TYPE_MAP = new HashMap<String, Type>();
+
+        static {
+            for (Type type : values()) {
+                if (type != relation) {
+                    LINK_TYPE_MAP.put(type.toString(), type);
+                }
+            }
+        }
+
+        /**
+         * The type of a link command with the (all lower case) link type
+         * <code>linkType</code>, or <code>null</code> if there is no such
+         * link type. The internal type <code>relation</code> cannot be
+         * used in link commands, so it yields <code>null</code>, too.
+         */
+        public static Type valueOfLinkTypeOrNull(String linkType) {
+            assert linkType != null;
+            return LINK_TYPE_MAP.get(linkType);
+        }
     }
 
     public static final int NO_LINE = -1;
@@ -50,7 +73,7 @@ public class Link {
     private String target;
     private Type type;
     private String label;
-    private State state;
+    private State initialState;
     private File targetFile;
     private String targetNode;
     private CommandItem linkCommand;
@@ -71,7 +94,7 @@ public class Link {
     public Link(CommandItem newLinkCommand, AmigaPathList amigaPaths) {
         assert newLinkCommand != null;
         assert newLinkCommand.isLink() || newLinkCommand.isRelation()
-                || newLinkCommand.getCommandName().equals(Tag.Name.node.toString()) : newLinkCommand.toPrettyAmigaguide();
+                || (newLinkCommand.getTagName() == Tag.Name.node) : newLinkCommand.toPrettyAmigaguide();
         assert newLinkCommand.getOption(0) != null;
         assert amigaPaths != null;
 
@@ -87,28 +110,24 @@ public class Link {
             // Remove trailing quotes.
             label = label.substring(1, label.length() - 1);
             String typeText = linkCommand.getOption(0).toLowerCase();
-            try {
-                if (typeText.equals(Type.relation.toString())) {
-                    typeText = "_" + typeText;
-                }
-                type = Type.valueOf(typeText);
-            } catch (IllegalArgumentException error) {
-                throw new IllegalLinkTypeException(typeText, error);
+            type = Type.valueOfLinkTypeOrNull(typeText);
+            if (type == null) {
+                throw new IllegalLinkTypeException(typeText);
             }
             target = linkCommand.getOption(1);
             lineText = linkCommand.getOption(2);
-            state = State.UNCHECKED;
+            initialState = State.UNCHECKED;
         } else if (linkCommand.isRelation()) {
             type = Type.relation;
             target = linkCommand.getOption(0);
             lineText = null;
-            state = State.UNCHECKED;
+            initialState = State.UNCHECKED;
         } else {
             label = "(internal node link)";
             type = Type.relation;
             target = linkCommand.getOption(0);
             lineText = null;
-            state = State.VALID;
+            initialState = State.VALID;
         }
 
         if (lineText != null) {
@@ -192,7 +211,11 @@ public class Link {
     }
 
     /**
-     * The name of the node in the target file.
+     * The name of the node in the target file. For links of type "guide", this
+     * is <code>null</code> because the first node of the target is only known
+     * once it has been read.
+     *
+     * @see GuidePile#getLinkTargetNodeName(Link)
      */
     public String getTargetNodeName() {
         assert isDataLink() : "type=" + getType();
@@ -206,31 +229,21 @@ public class Link {
         return linkCommand;
     }
 
-    public State getState() {
-        return state;
-    }
-
-    public void setState(State newState) {
-        state = newState;
-    }
-
     /**
-     * Set the target node. This is normally already done by the constructor.
-     * However, in case the link is of type "guide", it can only be done once
-     * <code>GuidePile</code> knows about all the nodes in the document set.
+     * The state of the link before any <code>GuidePile</code> validated it.
+     * Because a guide and its links can be shared by several piles, the
+     * actual state is kept by the pile.
+     * 
+     * @see GuidePile#getLinkState(Link)
      */
-    // Package visibility because GuidePile.validateLinks() is the only sensible
-    // place to call this from.
-    void setTargetNodeName(String newTargetNode) {
-        assert getType() == Link.Type.guide : "type=" + getType();
-        assert getTargetNodeName() == null : "existing targetNode=" + tools.sourced(getTargetNodeName());
-        targetNode = newTargetNode;
+    public State getInitialState() {
+        return initialState;
     }
 
     @Override
     public String toString() {
         String result = "Link[command=" + getLinkCommand().toPrettyAmigaguide() + ", target="
-                + tools.sourced(getAmigaTarget()) + ", state=" + getState() + ", type=" + getType();
+                + tools.sourced(getAmigaTarget()) + ", initialState=" + getInitialState() + ", type=" + getType();
         if (isDataLink()) {
             result += ", file=" + tools.sourced(getLocalTargetFile()) + ", node=" + tools.sourced(getTargetNodeName());
         }
@@ -0,0 +1,47 @@
+package net.sf.grotag.guide;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Builder for the content of a node, fed by a
+ * <code>NodeContentTraverser</code>. This way, the rules about how the items
+ * of a node end up in paragraphs are the same for a DOM and for output that
+ * is written directly.
+ * 
+ * @author Thomas Aglassinger
+ */
+public interface NodeContentBuilder {
+    void appendHeading(String heading) throws IOException;
+
+    /**
+     * Start a new paragraph, which receives all text and links until the next
+     * <code>endParagraph()</code>.
+     */
+    void startParagraph(Wrap wrap, boolean isProportional) throws IOException;
+
+    void appendText(String text) throws IOException;
+
+    /**
+     * Append text for <code>@{amigaguide}</code>.
+     */
+    void appendAmigaguide() throws IOException;
+
+    void appendLinkToGuideNode(Guide sourceGuide, File targetFile, String targetNode, String linkLabel)
+            throws IOException;
+
+    void appendOtherFileLink(Guide sourceGuide, File linkedFile, String linkLabel) throws IOException;
+
+    void appendLinkToNonGuideNode(Guide sourceGuide, File linkedFile, String linkLabel) throws IOException;
+
+    /**
+     * Append the current paragraph to the node, even if it is empty.
+     */
+    void endParagraph() throws IOException;
+
+    /**
+     * Append the content of a file included using <code>@embed</code> after
+     * the current paragraph.
+     */
+    void appendEmbeddedFile(File embeddedFile) throws IOException;
+}
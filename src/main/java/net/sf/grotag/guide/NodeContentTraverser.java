@@ -0,0 +1,269 @@
+package net.sf.grotag.guide;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.AbstractTextItem;
+import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.NewLineItem;
+import net.sf.grotag.parse.PackedItemList;
+import net.sf.grotag.parse.SpaceItem;
+
+/**
+ * Traverser for the items of a node that splits them into paragraphs
+ * according to the wrap of the node and passes them on to a
+ * <code>NodeContentBuilder</code>.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class NodeContentTraverser {
+    /**
+     * Content to append to the current paragraph once the text before it has
+     * been flushed.
+     */
+    private interface ContentAppender {
+        void appendTo(NodeContentBuilder builder) throws IOException;
+    }
+
+    private GuidePile pile;
+    private AmigaPathList amigaPaths;
+    private Logger log;
+    private Tools tools;
+    private AmigaTools amigaTools;
+
+    public NodeContentTraverser(GuidePile newPile, AmigaPathList newAmigaPaths) {
+        assert newPile != null;
+        assert newAmigaPaths != null;
+
+        log = Logger.getLogger(NodeContentTraverser.class.getName());
+        tools = Tools.getInstance();
+        amigaTools = AmigaTools.getInstance();
+
+        pile = newPile;
+        amigaPaths = newAmigaPaths;
+    }
+
+    public void traverse(Guide guide, NodeInfo nodeInfo, NodeContentBuilder builder) throws IOException {
+        assert guide != null;
+        assert nodeInfo != null;
+        assert builder != null;
+
+        builder.appendHeading(nodeInfo.getTitle());
+
+        // Traverse node items.
+        Wrap wrap = nodeInfo.getWrap();
+        boolean isProportional = nodeInfo.isProportional();
+        builder.startParagraph(wrap, isProportional);
+        StringBuilder text = new StringBuilder();
+        boolean lastTextWasNewLine = false;
+        List<AbstractItem> items = guide.getItems();
+        int startItemIndex = nodeInfo.getStartItemIndex();
+        int endItemIndex = nodeInfo.getEndItemIndex();
+
+        assert items.get(startItemIndex) == nodeInfo.getStartNode();
+        assert items.get(endItemIndex) == nodeInfo.getEndNode();
+
+        // For packed items, process spaces, texts and new lines without
+        // creating items for them.
+        PackedItemList packedItems = null;
+        if (items instanceof PackedItemList) {
+            packedItems = (PackedItemList) items;
+        }
+
+        // Only visit the items between @node and @endnode.
+        for (int itemIndex = startItemIndex + 1; itemIndex < endItemIndex; itemIndex += 1) {
+            AbstractItem item;
+            if ((packedItems == null) || (packedItems.getKind(itemIndex) == PackedItemList.Kind.KEPT)) {
+                item = items.get(itemIndex);
+                log.log(Level.FINER, "process {0}", item);
+            } else {
+                item = null;
+            }
+            boolean flushText = false;
+            boolean flushParagraph = false;
+            boolean isNewLine = false;
+            ContentAppender contentToAppend = null;
+            File embeddedFileToAppendAfterParagraph = null;
+
+            if (item == null) {
+                isNewLine = (packedItems.getKind(itemIndex) == PackedItemList.Kind.NEW_LINE);
+                if (!isNewLine) {
+                    packedItems.appendText(itemIndex, text);
+                    lastTextWasNewLine = false;
+                }
+            } else if (item instanceof SpaceItem) {
+                text.append(((SpaceItem) item).getSpace());
+                lastTextWasNewLine = false;
+            } else if (item instanceof AbstractTextItem) {
+                text.append(((AbstractTextItem) item).getText());
+                lastTextWasNewLine = false;
+            } else {
+                isNewLine = (item instanceof NewLineItem);
+            }
+
+            if (isNewLine) {
+                if (wrap == Wrap.NONE) {
+                    text.append('\n');
+                } else if (wrap == Wrap.SMART) {
+                    if (lastTextWasNewLine) {
+                        flushText = true;
+                        flushParagraph = true;
+                        lastTextWasNewLine = false;
+                    } else {
+                        text.append('\n');
+                        lastTextWasNewLine = true;
+                    }
+                } else if (wrap == Wrap.WORD) {
+                    flushText = true;
+                    flushParagraph = true;
+                } else {
+                    assert false : "wrap=" + wrap;
+                }
+            } else if (item instanceof CommandItem) {
+                CommandItem command = (CommandItem) item;
+                if (command.isLink()) {
+                    contentToAppend = createLinkAppender(guide, command);
+
+                    // Link was not appended for some reason, so at
+                    // least make sure the link label shows up.
+                    if (contentToAppend == null) {
+                        text.append(command.getLinkLabel());
+                    } else {
+                        flushText = true;
+                    }
+                } else if (command.getTagName() != null) {
+                    switch (command.getTagName()) {
+                    case amigaguide:
+                        // Replace @{amigaguide} by text.
+                        flushText = true;
+                        contentToAppend = target -> target.appendAmigaguide();
+                        break;
+                    case embed:
+                        // Include content specified by @embed
+                        // FIXME: Add @embed base path.
+                        File baseFolder = guide.getSourceFile().getParentFile();
+                        String amigaPathToFileToEmbed = command.getOption(0);
+                        embeddedFileToAppendAfterParagraph = amigaTools.getFileFor(amigaPathToFileToEmbed,
+                                baseFolder, amigaPaths);
+                        flushText = true;
+                        flushParagraph = true;
+                        log.log(Level.INFO, "embed: {0}", tools.sourced(embeddedFileToAppendAfterParagraph));
+                        break;
+                    default:
+                        // Ignore other commands.
+                        break;
+                    }
+                }
+            }
+            if (flushText) {
+                log.log(Level.FINER, "append text: {0}", tools.sourced(text.toString()));
+                if (contentToAppend == null) {
+                    removePossibleTrailingNewLine(text);
+                }
+                if (text.length() > 0) {
+                    builder.appendText(text.toString());
+                }
+                text.setLength(0);
+            }
+            if (contentToAppend != null) {
+                contentToAppend.appendTo(builder);
+            }
+            if (flushParagraph) {
+                builder.endParagraph();
+                builder.startParagraph(wrap, isProportional);
+            }
+            if (embeddedFileToAppendAfterParagraph != null) {
+                builder.appendEmbeddedFile(embeddedFileToAppendAfterParagraph);
+            }
+        }
+
+        if (text.length() > 0) {
+            removePossibleTrailingNewLine(text);
+            builder.appendText(text.toString());
+            builder.endParagraph();
+        }
+    }
+
+    /**
+     * Appender for the link <code>command</code>, or <code>null</code> if
+     * the link cannot be resolved.
+     */
+    private ContentAppender createLinkAppender(Guide guide, CommandItem command) {
+        ContentAppender result = null;
+        log.log(Level.FINE, "connect link: {0}", command);
+        Link link = pile.getLink(command);
+        String linkLabel = command.getLinkLabel();
+        if (link != null) {
+            Link.State linkState = pile.getLinkState(link);
+            if (linkState == Link.State.VALID) {
+                // Valid link to Amigaguide document and node.
+                Link.Type linkType = link.getType();
+                String targetNode = pile.getLinkTargetNodeName(link);
+                File linkedFile = link.getLocalTargetFile();
+                Guide targetGuide = pile.getGuide(linkedFile);
+
+                if (linkType == Link.Type.guide) {
+                    // Assert that target node has been set by
+                    // validateLinks().
+                    assert targetNode != null;
+                } else {
+                    // Assert that all @{alink}s have been changed to
+                    // @{link}.
+                    assert linkType == Link.Type.link : "linkType=" + linkType;
+                }
+
+                if (targetGuide != null) {
+                    // Link within DocBook document.
+                    if (link.isDataLink()) {
+                        File targetFile = targetGuide.getSourceFile();
+                        result = target -> target.appendLinkToGuideNode(guide, targetFile, targetNode, linkLabel);
+                    } else {
+                        // FIXME: Figure out how this case can happen and
+                        // what would be the proper resolution to it.
+                        assert false : "no data link";
+                    }
+                } else if (linkedFile.exists()) {
+                    result = target -> target.appendOtherFileLink(guide, linkedFile, linkLabel);
+                } else {
+                    log.warning("skipped link to unknown file: " + command.toPrettyAmigaguide());
+                }
+            } else if ((linkState == Link.State.UNCHECKED) && pile.isLazy() && link.isDataLink()) {
+                // Link to a guide the lazy pile has not read yet.
+                File linkedFile = link.getLocalTargetFile();
+                String targetNode = link.getTargetNodeName();
+                result = target -> target.appendLinkToGuideNode(guide, linkedFile, targetNode, linkLabel);
+            } else if (linkState == Link.State.VALID_OTHER_FILE) {
+                // Valid link to non-Amigaguide file.
+                log.log(Level.FINE, "connect to non-guide: {0}", command);
+                File linkedFile = link.getLocalTargetFile();
+                String label = link.getLabel();
+                result = target -> target.appendLinkToNonGuideNode(guide, linkedFile, label);
+            } else {
+                log.warning("skipped link with state=" + linkState + ": " + command.toPrettyAmigaguide());
+            }
+        } else {
+            log.warning("skipped invalid link: " + command.toPrettyAmigaguide());
+        }
+        return result;
+    }
+
+    /**
+     * Remove the last character of <code>some</code> if it is a new line
+     * ("\n"). This is useful at the end of a paragraph because
+     * &lt;literallayout&gt;, &lt;para&gt; or &lt;pre&gt; insert a newline
+     * anyway.
+     */
+    private void removePossibleTrailingNewLine(StringBuilder some) {
+        int length = some.length();
+        if ((length > 0) && (some.charAt(length - 1) == '\n')) {
+            some.setLength(length - 1);
+        }
+    }
+}
@@ -1,25 +1,36 @@
 package net.sf.grotag.guide;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 import net.sf.grotag.common.Tools;
 import net.sf.grotag.parse.CommandItem;
 
 /**
  * Information about an <code>@node</code>.
+ * <p>
+ * Once its guide has been validated, the node is frozen. Afterwards it
+ * cannot be modified anymore and also knows the default relations for
+ * relations the node does not declare itself.
  * 
  * @author Thomas Aglassinger
  */
 public class NodeInfo extends AbstractInfo {
+    private static final int NO_ITEM_INDEX = -1;
+    private static final int NO_ORDINAL = -1;
     private static final String[] MONOSPACED_FONTS = new String[] { "topaz", "xen" };
     private DatabaseInfo databaseInfo;
     private CommandItem startNode;
     private CommandItem endNode;
+    private int ordinal;
+    private int startItemIndex;
+    private int endItemIndex;
     private String title;
     private boolean isProportional;
     private Map<Relation, Link> relationLinkMap;
+    private Link[] relationLinks;
 
     public NodeInfo(DatabaseInfo newDatabaseInfo, String newName, String newTitle) {
         super(newName.toLowerCase());
@@ -31,7 +42,10 @@ public class NodeInfo extends AbstractInfo {
         } else {
             title = newName;
         }
-        relationLinkMap = new TreeMap<Relation, Link>();
+        relationLinkMap = new EnumMap<Relation, Link>(Relation.class);
+        ordinal = NO_ORDINAL;
+        startItemIndex = NO_ITEM_INDEX;
+        endItemIndex = NO_ITEM_INDEX;
     }
 
     public String getTitle() {
@@ -43,6 +57,7 @@ public class NodeInfo extends AbstractInfo {
     }
 
     public void setStartAndEndNode(CommandItem newStartNode, CommandItem newEndNode) {
+        assert !isFrozen() : "node must not be frozen: " + this;
         assert newStartNode != null;
         assert newStartNode.getCommandName().equals("node");
         assert newEndNode != null : "@endnode must exist for: " + newStartNode;
@@ -56,6 +71,46 @@ public class NodeInfo extends AbstractInfo {
         return endNode;
     }
 
+    /**
+     * Position of the node in the guide, starting with 0 for the first node.
+     * 
+     * @see Guide#getNodeInfo(int)
+     */
+    public int getOrdinal() {
+        assert ordinal != NO_ORDINAL : "ordinal must be set: " + this;
+        return ordinal;
+    }
+
+    void setOrdinal(int newOrdinal) {
+        assert newOrdinal >= 0;
+        ordinal = newOrdinal;
+    }
+
+    /**
+     * Index of the <code>@node</code> item in <code>Guide.getItems()</code>.
+     */
+    public int getStartItemIndex() {
+        assert startItemIndex != NO_ITEM_INDEX : "item range must be set: " + this;
+        return startItemIndex;
+    }
+
+    /**
+     * Index of the <code>@endnode</code> item in <code>Guide.getItems()</code>.
+     * The items of the node content are located between
+     * <code>getStartItemIndex()</code> and this index, both exclusive.
+     */
+    public int getEndItemIndex() {
+        assert endItemIndex != NO_ITEM_INDEX : "item range must be set: " + this;
+        return endItemIndex;
+    }
+
+    void setItemRange(int newStartItemIndex, int newEndItemIndex) {
+        assert newStartItemIndex >= 0;
+        assert newStartItemIndex < newEndItemIndex : "start=" + newStartItemIndex + ", end=" + newEndItemIndex;
+        startItemIndex = newStartItemIndex;
+        endItemIndex = newEndItemIndex;
+    }
+
     @Override
     public String getFontName() {
         String result = super.getFontName();
@@ -105,23 +160,86 @@ public class NodeInfo extends AbstractInfo {
     }
 
     public void setProportional(boolean newProportional) {
+        assert !isFrozen() : "node must not be frozen: " + this;
         isProportional = newProportional;
     }
 
-    public Link getRelation(Relation relation) {
-        return relationLinkMap.get(relation);
+    /**
+     * Was the node explicitly declared proportional using
+     * <code>@proportional</code>, independent of its font?
+     */
+    boolean isDeclaredProportional() {
+        return isProportional;
+    }
+
+    /**
+     * The font name specified by the node itself without falling back to the
+     * font of the database.
+     */
+    String getDeclaredFontName() {
+        return super.getFontName();
     }
-    
-    void setEmptyRelationToDefault(Relation relation, Link defaultLink) {
-        assert relation != null;
 
-        if ((getRelation(relation) == null) && (defaultLink != null)){
-            relationLinkMap.put(relation, defaultLink);
-            assert getRelation(relation) != null;
+    /**
+     * The font size specified by the node itself without falling back to the
+     * font of the database.
+     */
+    int getDeclaredFontSize() {
+        return super.getFontSize();
+    }
+
+    /**
+     * The wrap specified by the node itself, which is
+     * <code>Wrap.DEFAULT</code> if the node uses the wrap of the database.
+     */
+    Wrap getDeclaredWrap() {
+        return super.getWrap();
+    }
+
+    /**
+     * The link for <code>relation</code>, or <code>null</code> if there is
+     * none. Once the node is frozen, this includes default relations, for
+     * example the next node in the guide.
+     */
+    public Link getRelation(Relation relation) {
+        Link result;
+        if (relationLinks != null) {
+            result = relationLinks[relation.ordinal()];
+        } else {
+            result = relationLinkMap.get(relation);
         }
+        return result;
     }
 
+    void setRelation(Relation relation, Link link) {
+        assert relation != null;
+        assert link != null;
+        assert !isFrozen() : "node must not be frozen: " + this;
+        assert relationLinkMap.get(relation) == null : "relation must be set only once: " + relation;
+        relationLinkMap.put(relation, link);
+    }
+
+    /**
+     * Relations declared by the node itself, without default relations.
+     */
     Map<Relation, Link> getRelationLinkMap() {
         return relationLinkMap;
     }
+
+    /**
+     * Prevent further modifications and set the relations to
+     * <code>newRelationLinks</code>, which has one possibly
+     * <code>null</code> link per relation, indexed by its ordinal.
+     */
+    void freeze(Link[] newRelationLinks) {
+        assert newRelationLinks != null;
+        assert newRelationLinks.length == Relation.values().length;
+        assert !isFrozen() : "node must be frozen only once: " + this;
+        relationLinkMap = Collections.unmodifiableMap(relationLinkMap);
+        relationLinks = newRelationLinks;
+    }
+
+    boolean isFrozen() {
+        return relationLinks != null;
+    }
 }
@@ -1,10 +1,31 @@
 package net.sf.grotag.guide;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Possible relations to other nodes and/or files.
  * 
  * @author Thomas Aglassinger
  */
 public enum Relation {
-    help, index, next, previous, contents
+    help, index, next, previous, contents;
+
+    private static final Map<String, Relation> RELATION_MAP = new HashMap<String, Relation>();
+
+    static {
+        for (Relation relation : values()) {
+            RELATION_MAP.put(relation.toString(), relation);
+        }
+    }
+
+    /**
+     * The relation described by the (all lower case) command
+     * <code>commandName</code>, or <code>null</code> if the command does
+     * not describe a relation.
+     */
+    public static Relation valueOfCommandOrNull(String commandName) {
+        assert commandName != null;
+        return RELATION_MAP.get(commandName);
+    }
 }
\ No newline at end of file
@@ -25,4 +25,24 @@ public abstract class AbstractSource {
      * Create a Reader for the source.
      */
     abstract public BufferedReader createBufferedReader() throws IOException;
+
+    /**
+     * The whole text of the source, which items read from it can refer to
+     * instead of holding copies of their text.
+     */
+    public CharSequence readText() throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[8192];
+        BufferedReader reader = createBufferedReader();
+        try {
+            int charsRead = reader.read(buffer);
+            while (charsRead != -1) {
+                result.append(buffer, 0, charsRead);
+                charsRead = reader.read(buffer);
+            }
+        } finally {
+            reader.close();
+        }
+        return result.toString();
+    }
 }
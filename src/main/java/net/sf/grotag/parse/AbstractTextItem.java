@@ -1,17 +1,37 @@
 package net.sf.grotag.parse;
 
+/**
+ * Item holding a text, which can be a view on the text of the whole document
+ * until it actually is needed as <code>String</code>.
+ * 
+ * @author Thomas Aglassinger
+ */
 public abstract class AbstractTextItem extends AbstractItem {
-    private String text;
+    private CharSequence text;
 
     protected AbstractTextItem(AbstractSource newSource, int newLine, int newColumn) {
         super(newSource, newLine, newColumn);
     }
 
-    protected final void setText(String newText) {
+    protected final void setText(CharSequence newText) {
+        assert newText != null;
         text = newText;
     }
 
-    public String getText() {
+    /**
+     * The text without materializing it as <code>String</code>.
+     */
+    CharSequence getTextSequence() {
         return text;
     }
+
+    public String getText() {
+        CharSequence result = text;
+        if (!(result instanceof String)) {
+            // Materialize the text once it is needed.
+            result = result.toString();
+            text = result;
+        }
+        return (String) result;
+    }
 }
@@ -19,7 +19,10 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
     private String commandName;
     private String originalCommandName;
     private boolean isInline;
-    private boolean isRelation;
+    private boolean isLink;
+    private Tag.Name tagName;
+    private Relation relation;
+    private Tag.Name linkTypeName;
     private List<AbstractItem> items;
 
     public CommandItem(AbstractSource newSource, int newLine, int newColumn, String newCommandName,
@@ -39,16 +42,48 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
             items = newItems;
         }
 
-        // Find out if this is a relation command.
-        // TODO: Stop looping as soon as isRelation is true.
-        isRelation = false;
-        for (Relation relationToCheck : Relation.values()) {
-            if (relationToCheck.toString().equals(commandName)) {
-                isRelation = true;
-            }
+        // Resolve what kind of command this is once so that tools
+        // processing the command do not have to compare names.
+        isLink = commandName.startsWith("\"");
+        assert !isLink || commandName.endsWith("\"");
+        if (isLink) {
+            resolveLinkTypeName();
+        } else {
+            tagName = Tag.Name.valueOfOrNull(commandName);
+            relation = Relation.valueOfCommandOrNull(commandName);
+        }
+    }
+
+    private CommandItem(CommandItem original) {
+        super(original.getFile(), original.getLine(), original.getColumn());
+        originalCommandName = original.originalCommandName;
+        commandName = original.commandName;
+        isInline = original.isInline;
+        isLink = original.isLink;
+        tagName = original.tagName;
+        relation = original.relation;
+        linkTypeName = original.linkTypeName;
+        items = new ArrayList<AbstractItem>(original.items);
+    }
+
+    private void resolveLinkTypeName() {
+        assert isLink;
+        String linkType = getOption(0);
+        if (linkType != null) {
+            linkTypeName = Tag.Name.valueOfOrNull(linkType.toLowerCase());
+        } else {
+            linkTypeName = null;
         }
     }
 
+    /**
+     * A copy of the command with its own list of options, so that changing
+     * the options of the copy does not change this command and vice versa.
+     */
+    public CommandItem copy() {
+        return new CommandItem(this);
+    }
+
     /** Command name in all lower case for easy comparison. */
     public String getCommandName() {
         return commandName;
@@ -72,9 +107,27 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
      * <code>@{"Overview" LINK overview}</code>?
      */
     public boolean isLink() {
-        boolean result = getCommandName().startsWith("\"");
-        assert !result || getCommandName().endsWith("\"");
-        return result;
+        return isLink;
+    }
+
+    /**
+     * The tag the command refers to, or <code>null</code> if the command is
+     * a link or its name is not the name of a standard tag, for example
+     * <code>@$VER:</code> or a call to a macro.
+     */
+    public Tag.Name getTagName() {
+        return tagName;
+    }
+
+    /**
+     * The name of the link type specified with the first option of a link
+     * command, for example <code>Tag.Name.link</code> for
+     * <code>@{"Overview" LINK overview}</code>, or <code>null</code> if the
+     * link type is missing or unknown.
+     */
+    public Tag.Name getLinkTypeName() {
+        assert isLink();
+        return linkTypeName;
     }
 
     /**
@@ -82,7 +135,15 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
      * <code>@toc "Table of Contents"</code> or <code>@help help.guide/main</code>?
      */
     public boolean isRelation() {
-        return isRelation;
+        return relation != null;
+    }
+
+    /**
+     * The relation the command describes, or <code>null</code> if
+     * <code>isRelation()</code> is <code>false</code>.
+     */
+    public Relation getRelation() {
+        return relation;
     }
 
     /**
@@ -118,6 +179,9 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
         while ((getItems().size() > 0) && (getItems().get(getItems().size() - 1) instanceof SpaceItem)) {
             getItems().remove(getItems().size() - 1);
         }
+        if (isLink()) {
+            resolveLinkTypeName();
+        }
     }
 
     /**
@@ -249,6 +313,9 @@ public class CommandItem extends AbstractItem implements Comparable<CommandItem>
             items.add(filler);
         }
         items.set(optionIndex, new StringItem(getFile(), getLine(), getColumn(), "\"" + value + "\""));
+        if (isLink() && (index == 0)) {
+            resolveLinkTypeName();
+        }
     }
 
     private boolean requiresQuotes(String some) {
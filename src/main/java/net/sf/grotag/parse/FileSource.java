@@ -2,17 +2,27 @@ package net.sf.grotag.parse;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
+import net.sf.grotag.common.AmigaTools;
 import net.sf.grotag.common.Tools;
 
 /**
  * An input source to read lines from a file.
+ * <p>
+ * The text of the file is read only once into a single array and decoded as
+ * ISO-8859-1, which directly maps each byte to a character. Checking the
+ * header and reading the items then use the same text.
  * 
  * @author Thomas Aglassinger
  */
 public class FileSource extends AbstractSource {
     private File file;
+    private CharSequence text;
 
     public FileSource(File newFile) {
         assert newFile != null;
@@ -28,6 +38,53 @@ public class FileSource extends AbstractSource {
         return Tools.getInstance().createBufferedReader(file, "ISO-8859-1");
     }
 
+    /**
+     * The text of the file, which is read when this is called for the first
+     * time.
+     */
+    @Override
+    public synchronized CharSequence readText() throws IOException {
+        if (text == null) {
+            // Use FileInputStream to report missing files using a
+            // FileNotFoundException.
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("file must have at most " + Integer.MAX_VALUE + " bytes but has " + size
+                            + ": " + Tools.getInstance().sourced(file));
+                }
+                // Read the bytes instead of mapping the file, which would keep
+                // it locked on some platforms until the mapping is garbage
+                // collected.
+                byte[] bytes = new byte[(int) size];
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining() && (channel.read(buffer) != -1)) {
+                    // Keep reading until the buffer is full.
+                }
+                if (buffer.hasRemaining()) {
+                    // The file has become shorter in the meantime.
+                    bytes = Arrays.copyOf(bytes, buffer.position());
+                }
+                text = new Latin1Text(bytes);
+            } finally {
+                in.close();
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Validate that the file starts with <code>@database</code>.
+     * 
+     * @throws IllegalArgumentException
+     *                 if the file does not start with the expected header
+     */
+    public void ensureIsAmigaguide() throws IOException {
+        AmigaTools.getInstance().ensureHasAmigaguideHeader(readText());
+    }
+
     @Override
     public String getShortName() {
         return file.getName();
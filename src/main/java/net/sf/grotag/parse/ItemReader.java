@@ -1,9 +1,11 @@
 package net.sf.grotag.parse;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.logging.Logger;
 
 import net.sf.grotag.common.Tools;
@@ -11,22 +13,147 @@ import net.sf.grotag.common.Tools;
 /**
  * Reader to dissect an Amigaguide document into a list of
  * <code>AbstractItem</code>s.
- * 
+ * <p>
+ * Tools that need only a single pass over the items can process them while
+ * they are read using <code>createItemIterator()</code> or
+ * <code>read(ItemVisitor)</code>. These read ahead at most the items of a
+ * single line, so unlike <code>read()</code> they do not have to keep all
+ * items of the document.
+ *
  * @author Thomas Aglassinger
  */
 public class ItemReader {
-    private LineTokenizer tokenizer;
+    /**
+     * Visitor to process items as soon as they have been read.
+     */
+    public interface ItemVisitor {
+        void visit(AbstractItem item);
+    }
+
+    /**
+     * Iterator that reads items line by line while they are requested.
+     */
+    public class ItemIterator implements Iterator<AbstractItem> {
+        private CharSequence text;
+        private LineIndex lineIndex;
+        private int lineNumber;
+        private LineTokenizer tokenizer;
+        private ArrayDeque<AbstractItem> lineItems;
+        private AbstractItem lastItem;
+
+        private ItemIterator(CharSequence newText) {
+            assert newText != null;
+            text = newText;
+            lineIndex = new LineIndex(text);
+            lineItems = new ArrayDeque<AbstractItem>();
+        }
+
+        public boolean hasNext() {
+            while (lineItems.isEmpty() && (lineNumber < lineIndex.getLineCount())) {
+                readLine();
+                lineNumber += 1;
+            }
+            return !lineItems.isEmpty();
+        }
+
+        public AbstractItem next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("all items of " + tools.sourced(source.getFullName())
+                        + " have been read already");
+            }
+            return lineItems.removeFirst();
+        }
+
+        private void add(AbstractItem item) {
+            lineItems.addLast(item);
+            lastItem = item;
+        }
+
+        private void readLine() {
+            int columnNumber;
+            CharSequence line = new TextSlice(text, lineIndex.getLineStart(lineNumber), lineIndex
+                    .getLineEnd(lineNumber));
+            tokenizer = new LineTokenizer(source, lineNumber, line, messagePool);
+            while (tokenizer.hasNext()) {
+                columnNumber = tokenizer.getColumn();
+                tokenizer.advance();
+                if (tokenizer.getType() == LineTokenizer.Type.SPACE) {
+                    add(new SpaceItem(source, lineNumber, columnNumber, tokenizer.getTokenText()));
+                } else if (tokenizer.getType() == LineTokenizer.Type.COMMAND) {
+                    readCommand();
+                } else {
+                    add(new TextItem(source, lineNumber, columnNumber, tokenizer.getTokenText()));
+                }
+            }
+
+            // Add newline unless the last item is a line command. Note that
+            // for an empty line, the last item is the one from the previous
+            // line.
+            boolean addNewLine = !(lastItem instanceof CommandItem);
+            if (!addNewLine) {
+                CommandItem lastCommand = (CommandItem) lastItem;
+                addNewLine = lastCommand.isInline();
+            }
+            if (addNewLine) {
+                add(new NewLineItem(source, lineNumber, tokenizer.getColumn()));
+            }
+        }
+
+        private void readCommand() {
+            int commandColumnNumber = tokenizer.getColumn();
+            List<AbstractItem> commandItems = new ArrayList<AbstractItem>();
+            String commandName;
+
+            assert tokenizer.getType() == LineTokenizer.Type.COMMAND;
+            assert tokenizer.hasNext();
+            tokenizer.advance();
+            boolean isInlineCommand = tokenizer.getType() == LineTokenizer.Type.OPEN_BRACE;
+
+            // Skip possible "{".
+            if (isInlineCommand) {
+                assert tokenizer.hasNext();
+                tokenizer.advance();
+            }
+
+            assert tokenizer.getType() != LineTokenizer.Type.SPACE : "\"@{\" with white space must have been handled by "
+                    + LineTokenizer.class;
+            commandName = tokenizer.getToken();
+            while (tokenizer.hasNext() && !(isInlineCommand && tokenizer.getType() == LineTokenizer.Type.CLOSE_BRACE)) {
+                int columnNumber = tokenizer.getColumn();
+                tokenizer.advance();
+                if (tokenizer.getType() == LineTokenizer.Type.SPACE) {
+                    commandItems.add(new SpaceItem(source, lineNumber, columnNumber, tokenizer.getTokenText()));
+                } else if (tokenizer.getType() == LineTokenizer.Type.STRING) {
+                    commandItems.add(new StringItem(source, lineNumber, columnNumber, tokenizer.getTokenText()));
+                } else {
+                    commandItems.add(new TextItem(source, lineNumber, columnNumber, tokenizer.getTokenText()));
+                }
+            }
+            add(new CommandItem(source, lineNumber, commandColumnNumber, commandName, isInlineCommand, commandItems));
+        }
+    }
+
     private List<AbstractItem> items;
-    private int lineNumber;
     private Logger log;
     private Tools tools;
     private AbstractSource source;
+    private MessagePool messagePool;
 
     public ItemReader(AbstractSource newSource) {
+        this(newSource, new MessagePool());
+    }
+
+    /**
+     * Same as <code>ItemReader(AbstractSource)</code> but report messages to
+     * <code>newMessagePool</code>.
+     */
+    public ItemReader(AbstractSource newSource, MessagePool newMessagePool) {
         assert newSource != null;
+        assert newMessagePool != null;
         log = Logger.getLogger(ItemReader.class.getName());
         tools = Tools.getInstance();
         source = newSource;
+        messagePool = newMessagePool;
         items = new ArrayList<AbstractItem>();
     }
 
@@ -37,81 +164,36 @@ public class ItemReader {
         return source;
     }
 
-    public void read() throws IOException {
-        BufferedReader guideReader = source.createBufferedReader();
-        int columnNumber;
-        String line;
-
-        try {
-            log.info("read items from " + tools.sourced(source.getFullName()));
-            lineNumber = 0;
-            items = new ArrayList<AbstractItem>();
-            do {
-                line = guideReader.readLine();
-                if (line != null) {
-                    tokenizer = new LineTokenizer(source, lineNumber, line);
-                    while (tokenizer.hasNext()) {
-                        columnNumber = tokenizer.getColumn();
-                        tokenizer.advance();
-                        if (tokenizer.getType() == LineTokenizer.Type.SPACE) {
-                            items.add(new SpaceItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-                        } else if (tokenizer.getType() == LineTokenizer.Type.COMMAND) {
-                            readCommand();
-                        } else {
-                            items.add(new TextItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-                        }
-                    }
-
-                    // Add newline unless the last item is a line command.
-                    AbstractItem lastItem = items.get(items.size() - 1);
-                    boolean addNewLine = !(lastItem instanceof CommandItem);
-                    if (!addNewLine) {
-                        CommandItem lastCommand = (CommandItem) lastItem;
-                        addNewLine = lastCommand.isInline();
-                    }
-                    if (addNewLine) {
-                        items.add(new NewLineItem(source, lineNumber, tokenizer.getColumn()));
-                    }
-
-                    lineNumber += 1;
-                }
-            } while (line != null);
-        } finally {
-            guideReader.close();
-        }
+    /**
+     * Iterator over the items in the source, which are read while the
+     * iterator advances. Text, space and string items refer to the text of
+     * the whole source instead of holding copies of their text.
+     */
+    public ItemIterator createItemIterator() throws IOException {
+        log.info("read items from " + tools.sourced(source.getFullName()));
+        return new ItemIterator(source.readText());
     }
 
-    private void readCommand() {
-        int commandColumnNumber = tokenizer.getColumn();
-        List<AbstractItem> commandItems = new ArrayList<AbstractItem>();
-        String commandName;
-
-        assert tokenizer.getType() == LineTokenizer.Type.COMMAND;
-        assert tokenizer.hasNext();
-        tokenizer.advance();
-        boolean isInlineCommand = tokenizer.getType() == LineTokenizer.Type.OPEN_BRACE;
-
-        // Skip possible "{".
-        if (isInlineCommand) {
-            assert tokenizer.hasNext();
-            tokenizer.advance();
+    /**
+     * Read the items from the source and pass each of them to
+     * <code>visitor</code> as soon as it has been read.
+     */
+    public void read(ItemVisitor visitor) throws IOException {
+        assert visitor != null;
+        ItemIterator itemIterator = createItemIterator();
+        while (itemIterator.hasNext()) {
+            visitor.visit(itemIterator.next());
         }
+    }
 
-        assert tokenizer.getType() != LineTokenizer.Type.SPACE : "\"@{\" with white space must have been handled by "
-                + LineTokenizer.class;
-        commandName = tokenizer.getToken();
-        while (tokenizer.hasNext() && !(isInlineCommand && tokenizer.getType() == LineTokenizer.Type.CLOSE_BRACE)) {
-            int columnNumber = tokenizer.getColumn();
-            tokenizer.advance();
-            if (tokenizer.getType() == LineTokenizer.Type.SPACE) {
-                commandItems.add(new SpaceItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-            } else if (tokenizer.getType() == LineTokenizer.Type.STRING) {
-                commandItems.add(new StringItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-            } else {
-                commandItems.add(new TextItem(source, lineNumber, columnNumber, tokenizer.getToken()));
-            }
-        }
-        items.add(new CommandItem(source, lineNumber, commandColumnNumber, commandName, isInlineCommand, commandItems));
+    /**
+     * Read all items from the source, which afterwards are available using
+     * <code>getItems()</code>.
+     */
+    public void read() throws IOException {
+        List<AbstractItem> newItems = new ArrayList<AbstractItem>();
+        read(item -> newItems.add(item));
+        items = newItems;
     }
 
     /**
@@ -0,0 +1,74 @@
+package net.sf.grotag.parse;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Text stored as ISO-8859-1 bytes, where each byte directly is the code of
+ * the respective character. Unlike a <code>String</code>, this needs only
+ * one byte per character even on Java versions without compact strings.
+ * 
+ * @author Thomas Aglassinger
+ */
+final class Latin1Text implements CharSequence {
+    private final byte[] bytes;
+
+    Latin1Text(byte[] newBytes) {
+        assert newBytes != null;
+        bytes = newBytes;
+    }
+
+    public char charAt(int index) {
+        return (char) (bytes[index] & 0xff);
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * The characters from <code>start</code> to <code>end</code> as
+     * <code>String</code>.
+     */
+    public CharSequence subSequence(int start, int end) {
+        assert start >= 0 : "start=" + start;
+        assert start <= end : "start=" + start + ", end=" + end;
+        assert end <= bytes.length : "end=" + end + ", length=" + bytes.length;
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Index of the first <code>some</code> at or after
+     * <code>fromIndex</code> and before <code>toIndex</code>, or -1 if there
+     * is none.
+     */
+    int indexOf(char some, int fromIndex, int toIndex) {
+        int result = -1;
+        if (some <= 0xff) {
+            byte byteToFind = (byte) some;
+            for (int index = fromIndex; (result == -1) && (index < toIndex); index += 1) {
+                if (bytes[index] == byteToFind) {
+                    result = index;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Index of the first line separator (<code>'\n'</code> or
+     * <code>'\r'</code>) at or after <code>fromIndex</code>, or the length
+     * of the text if there is none.
+     */
+    int lineEnd(int fromIndex) {
+        int result = fromIndex;
+        while ((result < bytes.length) && (bytes[result] != '\n') && (bytes[result] != '\r')) {
+            result += 1;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
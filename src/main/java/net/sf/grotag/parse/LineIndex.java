@@ -0,0 +1,82 @@
+package net.sf.grotag.parse;
+
+import java.util.Arrays;
+
+/**
+ * Index of the start and end of each line in a text, using the same line
+ * separators as <code>BufferedReader.readLine()</code>: <code>"\n"</code>,
+ * <code>"\r"</code> or <code>"\r\n"</code>.
+ * 
+ * @author Thomas Aglassinger
+ */
+final class LineIndex {
+    private int lineCount;
+    private int[] lineStarts;
+    private int[] lineEnds;
+
+    LineIndex(CharSequence text) {
+        assert text != null;
+
+        int textLength = text.length();
+        int capacity = Math.max(16, textLength / 40);
+        lineStarts = new int[capacity];
+        lineEnds = new int[capacity];
+        int lineStart = 0;
+        while (lineStart < textLength) {
+            int lineEnd = lineEnd(text, lineStart);
+            if (lineCount == lineStarts.length) {
+                int newCapacity = 2 * lineCount;
+                lineStarts = Arrays.copyOf(lineStarts, newCapacity);
+                lineEnds = Arrays.copyOf(lineEnds, newCapacity);
+            }
+            lineStarts[lineCount] = lineStart;
+            lineEnds[lineCount] = lineEnd;
+            lineCount += 1;
+
+            lineStart = lineEnd;
+            if (lineStart < textLength) {
+                boolean isCarriageReturn = (text.charAt(lineStart) == '\r');
+                lineStart += 1;
+                if (isCarriageReturn && (lineStart < textLength) && (text.charAt(lineStart) == '\n')) {
+                    lineStart += 1;
+                }
+            }
+        }
+    }
+
+    private static int lineEnd(CharSequence text, int fromIndex) {
+        int result;
+        if (text instanceof Latin1Text) {
+            result = ((Latin1Text) text).lineEnd(fromIndex);
+        } else {
+            int textLength = text.length();
+            result = fromIndex;
+            char some;
+            while ((result < textLength) && ((some = text.charAt(result)) != '\n') && (some != '\r')) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Index of the first character of the line.
+     */
+    int getLineStart(int lineNumber) {
+        assert lineNumber < lineCount : "lineNumber=" + lineNumber + ", lineCount=" + lineCount;
+        return lineStarts[lineNumber];
+    }
+
+    /**
+     * Index after the last character of the line, excluding the line
+     * separator.
+     */
+    int getLineEnd(int lineNumber) {
+        assert lineNumber < lineCount : "lineNumber=" + lineNumber + ", lineCount=" + lineCount;
+        return lineEnds[lineNumber];
+    }
+}
@@ -1,8 +1,17 @@
 package net.sf.grotag.parse;
 
+import java.util.function.Supplier;
+
 import net.sf.grotag.common.Tools;
 
-/** Tokenizer for a single line of an AmigaGuide document */
+/**
+ * Tokenizer for a single line of an AmigaGuide document.
+ * <p>
+ * Characters are classified using a lookup table, and runs of plain text are
+ * skipped in one go. Tokens are views on the line (which itself can be a view
+ * on the text of a whole document) unless they had to be fixed, for example
+ * by inserting a missing backslash.
+ */
 public class LineTokenizer {
     public enum Type {
         CLOSE_BRACE, COMMAND, INVALID, OPEN_BRACE, SPACE, STRING, TEXT
@@ -12,14 +21,28 @@ public class LineTokenizer {
         IN_COMMAND, IN_COMMAND_BRACE, IN_TEXT
     }
 
+    /**
+     * Classes of characters the tokenizer has to treat differently.
+     */
+    private enum CharClass {
+        AT_SIGN, BACKSLASH, CLOSE_BRACE, CONTROL, OPEN_BRACE, PLAIN, QUOTE, WHITE_SPACE
+    }
+
     private static final int NO_COLUMN = -1;
 
+    /**
+     * Class of each ASCII character; all other characters are
+     * <code>CharClass.PLAIN</code>.
+     */
+    private static final CharClass[] CHAR_CLASSES = createCharClasses();
+
     private State parserState;
-    private String text;
+    private CharSequence text;
     private int lineNumber;
     private int column;
     private int columnOpenBrace;
-    private String token;
+    private CharSequence token;
+    private StringBuilder fixedToken;
     private Type type;
     private Tools tools;
     private boolean insertCloseBrace;
@@ -43,12 +66,32 @@ public class LineTokenizer {
      *                starting with 0
      */
     public LineTokenizer(AbstractSource newSource, int newLineNumber, String newText) {
+        this(newSource, newLineNumber, newText, new MessagePool());
+    }
+
+    /**
+     * Same as <code>LineTokenizer(AbstractSource, int, String)</code> but
+     * report warnings to <code>newMessagePool</code>.
+     */
+    public LineTokenizer(AbstractSource newSource, int newLineNumber, String newText, MessagePool newMessagePool) {
+        this(newSource, newLineNumber, new TextSlice(newText, 0, newText.length()), newMessagePool);
+    }
+
+    /**
+     * Same as <code>LineTokenizer(AbstractSource, int, String, MessagePool)</code>
+     * but for a line that is a view on a larger text, for example a
+     * <code>TextSlice</code> of the whole document. Tokens then refer to the
+     * same text instead of copying it.
+     */
+    public LineTokenizer(AbstractSource newSource, int newLineNumber, CharSequence newText,
+            MessagePool newMessagePool) {
         assert newSource != null;
         assert newLineNumber >= 0;
         assert newText != null;
+        assert newMessagePool != null;
 
         tools = Tools.getInstance();
-        messagePool = MessagePool.getInstance();
+        messagePool = newMessagePool;
         source = newSource;
         lineNumber = newLineNumber;
         text = tools.withoutTrailingWhiteSpace(newText);
@@ -58,6 +101,42 @@ public class LineTokenizer {
         type = Type.INVALID;
     }
 
+    private static CharClass[] createCharClasses() {
+        CharClass[] result = new CharClass[128];
+        for (int code = 0; code < result.length; code += 1) {
+            CharClass charClass;
+            if ((code == ' ') || (code == '\t')) {
+                charClass = CharClass.WHITE_SPACE;
+            } else if (code < 32) {
+                charClass = CharClass.CONTROL;
+            } else if (code == '@') {
+                charClass = CharClass.AT_SIGN;
+            } else if (code == '\\') {
+                charClass = CharClass.BACKSLASH;
+            } else if (code == '{') {
+                charClass = CharClass.OPEN_BRACE;
+            } else if (code == '}') {
+                charClass = CharClass.CLOSE_BRACE;
+            } else if (code == '"') {
+                charClass = CharClass.QUOTE;
+            } else {
+                charClass = CharClass.PLAIN;
+            }
+            result[code] = charClass;
+        }
+        return result;
+    }
+
+    private static CharClass charClassOf(char some) {
+        CharClass result;
+        if (some < CHAR_CLASSES.length) {
+            result = CHAR_CLASSES[some];
+        } else {
+            result = CharClass.PLAIN;
+        }
+        return result;
+    }
+
     /**
      * The type of the current token.
      */
@@ -68,15 +147,21 @@ public class LineTokenizer {
         return type;
     }
 
-    private void fireWarning(String message) {
+    /**
+     * Report a warning with <code>code</code>; <code>message</code> only is
+     * rendered if the warning actually is kept, which matters for broken
+     * guides with thousands of warnings.
+     */
+    private void fireWarning(MessageCode code, Supplier<String> message) {
         assert message != null;
-        fireWarning(message, getColumn());
+        fireWarning(code, message, getColumn());
     }
 
-    private void fireWarning(String message, int messageColumn) {
+    private void fireWarning(MessageCode code, Supplier<String> message, int messageColumn) {
+        assert code != null;
         assert message != null;
         assert messageColumn >= 0;
-        messagePool.add(source, getLine(), getColumn(), message);
+        messagePool.add(code, source, getLine(), getColumn(), message);
     }
 
     /**
@@ -128,104 +213,178 @@ public class LineTokenizer {
             some = text.charAt(column);
             column += 1;
         }
-        token = "" + some;
+        CharClass someClass = charClassOf(some);
         type = Type.INVALID;
-        if (isWhitespace(some)) {
+        if (someClass == CharClass.WHITE_SPACE) {
             // Parse sequence of white spaces.
+            int tokenColumn = column - 1;
             while (hasChars() && isWhitespace(text.charAt(column))) {
-                token += text.charAt(column);
                 column += 1;
             }
+            token = text.subSequence(tokenColumn, column);
             type = Type.SPACE;
-        } else if ((parserState == State.IN_TEXT) && (some < 32)) {
+        } else if ((parserState == State.IN_TEXT) && (someClass == CharClass.CONTROL)) {
             // Get rid of invisible characters, especially because they are
             // invalid in XML.
             token = "?";
             type = Type.TEXT;
-            fireWarning("replaced invisible character with code " + ((int) some) + " by " + tools.sourced(token));
-        } else if ((parserState == State.IN_TEXT) && (some == '@') && atSignIsCommand(column - 1)) {
+            fireWarning(MessageCode.INVISIBLE_CHARACTER, () -> "replaced invisible character with code "
+                    + ((int) some) + " by " + tools.sourced(token.toString()));
+        } else if ((parserState == State.IN_TEXT) && (someClass == CharClass.AT_SIGN) && atSignIsCommand(column - 1)) {
             // Parse @ indicating a command.
+            token = "@";
             parserState = State.IN_COMMAND;
             type = Type.COMMAND;
-        } else if ((parserState == State.IN_COMMAND) && (some == '{')) {
+        } else if ((parserState == State.IN_COMMAND) && (someClass == CharClass.OPEN_BRACE)) {
             // Parse opening curly brace indicating a command.
+            token = "{";
             columnOpenBrace = column;
             parserState = State.IN_COMMAND_BRACE;
             type = Type.OPEN_BRACE;
-        } else if (((parserState == State.IN_COMMAND) || (parserState == State.IN_COMMAND_BRACE)) && (some == '"')) {
-            // Parse quoted text within a command.
-            int quoteColumn = column;
-
-            do {
-                try {
-                    token += text.charAt(column);
-                } catch (StringIndexOutOfBoundsException error) {
-                    System.err.println("(" + lineNumber + ":" + column + ") ");
-                    System.err.println("  text = " + tools.sourced(text));
-                    System.err.println("  token = " + tools.sourced(token));
-                    throw error;
-                }
-                column += 1;
-            } while (hasChars() && (text.charAt(column) != '"'));
-
-            if (!hasChars()) {
-                fireWarning("appended missing trailing quote", quoteColumn);
-            } else {
-                column += 1;
-            }
-            token += "\"";
-            type = Type.STRING;
-        } else if ((parserState == State.IN_COMMAND_BRACE) && (some == '}')) {
+        } else if (((parserState == State.IN_COMMAND) || (parserState == State.IN_COMMAND_BRACE))
+                && (someClass == CharClass.QUOTE)) {
+            advanceString();
+        } else if ((parserState == State.IN_COMMAND_BRACE) && (someClass == CharClass.CLOSE_BRACE)) {
             // Parse "}" within a command to indicate end of command.
             assert columnOpenBrace != NO_COLUMN : "columnOpenBrace must have been set earlier";
-            token = "" + some;
+            token = "}";
             columnOpenBrace = NO_COLUMN;
             parserState = State.IN_TEXT;
             type = Type.CLOSE_BRACE;
         } else {
-            // Parse normal text.
-            boolean afterBackslash = (some == '\\');
+            advanceText(some);
+        }
+        if (!hasNext() && (parserState == State.IN_COMMAND_BRACE)) {
+            insertCloseBrace = true;
+        }
+        assert type != Type.INVALID : "token type must be set";
+    }
+
+    /**
+     * Parse quoted text within a command, starting after the opening quote.
+     */
+    private void advanceString() {
+        int quoteColumn = column;
+        int tokenColumn = column - 1;
+
+        if (hasChars()) {
+            // The character after the opening quote always is part of the
+            // string, even if it is a quote itself.
+            int closingQuoteColumn = indexOf('"', column + 1);
+            if (closingQuoteColumn == -1) {
+                column = text.length();
+            } else {
+                column = closingQuoteColumn;
+            }
+        }
+        if (!hasChars()) {
+            fireWarning(MessageCode.MISSING_QUOTE, () -> "appended missing trailing quote", quoteColumn);
+            token = text.subSequence(tokenColumn, column) + "\"";
+        } else {
+            column += 1;
+            token = text.subSequence(tokenColumn, column);
+        }
+        type = Type.STRING;
+    }
 
-            if (some == '@') {
-                fireWarning("inserting backslash before dangling \"@\"");
-                assert token.equals("@");
-                token = "\\@";
+    /**
+     * Parse normal text starting with <code>some</code>, which already has
+     * been read.
+     */
+    private void advanceText(char some) {
+        int tokenColumn = column - 1;
+        int textLength = text.length();
+        boolean afterBackslash = (some == '\\');
+
+        // Text before this column has already been appended to fixedToken.
+        int copiedColumn = tokenColumn;
+        boolean isFixed = false;
+
+        if (some == '@') {
+            fireWarning(MessageCode.DANGLING_AT_SIGN, () -> "inserting backslash before dangling \"@\"");
+            fixedToken = new StringBuilder();
+            fixedToken.append('\\');
+            isFixed = true;
+        }
+        while (hasChars()) {
+            char next = text.charAt(column);
+            CharClass nextClass = charClassOf(next);
+
+            if ((nextClass == CharClass.WHITE_SPACE) || (nextClass == CharClass.CONTROL)
+                    || ((parserState == State.IN_COMMAND_BRACE) && (nextClass == CharClass.CLOSE_BRACE))) {
+                break;
             }
-            while (hasChars()
-                    && (text.charAt(column) > 32)
-                    && !((parserState == State.IN_COMMAND_BRACE) && (text.charAt(column) == '}'))
-                    && !((parserState == State.IN_TEXT) && (text.charAt(column) == '@') && !afterBackslash && atSignIsCommand(column))) {
-                some = text.charAt(column);
-                if (afterBackslash) {
-                    if ((some != '\\') && (some != '@')) {
-                        fireWarning("inserted backslash before dangling backslash with " + tools.sourced(some)
-                                + " instead of \"\\\" or \"@\"");
-                        token += '\\';
-                    }
-                    token += some;
-                    afterBackslash = false;
-                } else if (some == '\\') {
-                    token += some;
-                    afterBackslash = true;
-                } else if (some == '@') {
-                    fireWarning("inserted backslash before dangling \"@\"");
-                    token += "\\" + some;
-                } else {
-                    token += some;
+            if (afterBackslash) {
+                if ((next != '\\') && (next != '@')) {
+                    fireWarning(MessageCode.DANGLING_BACKSLASH, () -> "inserted backslash before dangling "
+                            + "backslash with " + tools.sourced(next) + " instead of \"\\\" or \"@\"");
+                    copiedColumn = appendFixed(copiedColumn, isFixed, "\\");
+                    isFixed = true;
+                }
+                afterBackslash = false;
+                column += 1;
+            } else if (nextClass == CharClass.BACKSLASH) {
+                afterBackslash = true;
+                column += 1;
+            } else if (nextClass == CharClass.AT_SIGN) {
+                if ((parserState == State.IN_TEXT) && atSignIsCommand(column)) {
+                    break;
                 }
+                fireWarning(MessageCode.DANGLING_AT_SIGN, () -> "inserted backslash before dangling \"@\"");
+                copiedColumn = appendFixed(copiedColumn, isFixed, "\\");
+                isFixed = true;
                 column += 1;
+            } else {
+                // Skip plain text up to the next character that needs a
+                // closer look.
+                column += 1;
+                while ((column < textLength) && (charClassOf(text.charAt(column)) == CharClass.PLAIN)) {
+                    column += 1;
+                }
             }
+        }
 
-            if (afterBackslash) {
-                fireWarning("appended backslash after dangling backslash at end of token");
-                token += '\\';
-            }
-            type = Type.TEXT;
+        if (afterBackslash) {
+            fireWarning(MessageCode.DANGLING_BACKSLASH,
+                    () -> "appended backslash after dangling backslash at end of token");
+            copiedColumn = appendFixed(copiedColumn, isFixed, "\\");
+            isFixed = true;
         }
-        if (!hasNext() && (parserState == State.IN_COMMAND_BRACE)) {
-            insertCloseBrace = true;
+        if (isFixed) {
+            fixedToken.append(text, copiedColumn, column);
+            token = fixedToken.toString();
+        } else {
+            token = text.subSequence(tokenColumn, column);
         }
-        assert type != Type.INVALID : "token type must be set";
+        type = Type.TEXT;
+    }
+
+    /**
+     * Column of the first <code>some</code> at or after
+     * <code>fromColumn</code>, or -1 if there is none.
+     */
+    private int indexOf(char some, int fromColumn) {
+        int result;
+        if (text instanceof TextSlice) {
+            result = ((TextSlice) text).indexOf(some, fromColumn);
+        } else {
+            result = text.toString().indexOf(some, fromColumn);
+        }
+        return result;
+    }
+
+    /**
+     * Append the text from <code>copiedColumn</code> up to the current
+     * column and <code>fix</code> to <code>fixedToken</code>.
+     * 
+     * @return the column up to which the text has been appended now
+     */
+    private int appendFixed(int copiedColumn, boolean isFixed, String fix) {
+        if (!isFixed) {
+            fixedToken = new StringBuilder();
+        }
+        fixedToken.append(text, copiedColumn, column).append(fix);
+        return column;
     }
 
     private boolean hasChars() {
@@ -245,6 +404,14 @@ public class LineTokenizer {
     }
 
     public String getToken() {
+        return token.toString();
+    }
+
+    /**
+     * Same as <code>getToken()</code>, but usually without copying the
+     * characters of the token.
+     */
+    public CharSequence getTokenText() {
         return token;
     }
 }
@@ -0,0 +1,91 @@
+package net.sf.grotag.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text of a macro defined with <code>@@macro</code>, compiled into literal
+ * text fragments and the positions of the options <code>$1</code>,
+ * <code>$2</code> and so on. This way, the macro text has to be scanned only
+ * once no matter how often the macro is called.
+ *
+ * @author Thomas Aglassinger
+ */
+public class MacroTemplate {
+    /**
+     * Literal text fragments; the option referenced by
+     * <code>optionNumbers[i]</code> has to be inserted between
+     * <code>fragments[i]</code> and <code>fragments[i + 1]</code>.
+     */
+    private String[] fragments;
+    private int[] optionNumbers;
+    private int textLength;
+
+    public MacroTemplate(String newText) {
+        assert newText != null;
+
+        List<String> fragmentList = new ArrayList<String>();
+        List<Integer> optionNumberList = new ArrayList<Integer>();
+        int fragmentStart = 0;
+        int i = 0;
+
+        while (i < newText.length()) {
+            char some = newText.charAt(i);
+            if ((some == '$') && (i < (newText.length() - 1) && Character.isDigit(newText.charAt(i + 1)))) {
+                // TODO: Check how Amigaguide handles integer overflow for macro
+                // options.
+                int optionNumber = 0;
+
+                fragmentList.add(newText.substring(fragmentStart, i));
+                while ((i < (newText.length() - 1) && Character.isDigit(newText.charAt(i + 1)))) {
+                    i += 1;
+                    optionNumber = 10 * optionNumber + (newText.charAt(i) - '0');
+                }
+                optionNumberList.add(optionNumber);
+                fragmentStart = i + 1;
+            }
+            i += 1;
+        }
+        fragmentList.add(newText.substring(fragmentStart));
+
+        fragments = fragmentList.toArray(new String[fragmentList.size()]);
+        optionNumbers = new int[optionNumberList.size()];
+        for (int optionIndex = 0; optionIndex < optionNumbers.length; optionIndex += 1) {
+            optionNumbers[optionIndex] = optionNumberList.get(optionIndex);
+        }
+        textLength = newText.length();
+        assert fragments.length == optionNumbers.length + 1;
+    }
+
+    /**
+     * Does the macro text refer to any options like <code>$1</code>?
+     */
+    public boolean hasOptions() {
+        return optionNumbers.length > 0;
+    }
+
+    /**
+     * The macro text with all options replaced by the respective options
+     * passed to <code>caller</code>. Options not passed are replaced by an
+     * empty text.
+     */
+    public String resolve(CommandItem caller) {
+        assert caller != null;
+        assert caller.isInline();
+
+        List<AbstractItem> callerItems = caller.getItems();
+        StringBuilder result = new StringBuilder(textLength);
+
+        result.append(fragments[0]);
+        for (int optionIndex = 0; optionIndex < optionNumbers.length; optionIndex += 1) {
+            // Options are separated by SpaceItems.
+            int callerItemIndex = 1 + 2 * (optionNumbers[optionIndex] - 1);
+
+            if ((callerItemIndex >= 0) && (callerItemIndex < callerItems.size())) {
+                result.append(((AbstractTextItem) callerItems.get(callerItemIndex)).getText());
+            }
+            result.append(fragments[optionIndex + 1]);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package net.sf.grotag.parse;
+
+import java.util.Locale;
+
+/**
+ * Category of a <code>MessageItem</code>, which allows to disable or limit
+ * messages of a certain kind using a <code>MessagePool</code>.
+ *
+ * @see MessagePool#setMaxItemCount(MessageCode, int)
+ * @author Thomas Aglassinger
+ */
+public enum MessageCode {
+    /**
+     * Message without a more specific category, for example a "see also"
+     * note.
+     */
+    OTHER(Severity.INFO),
+
+    // Problems found while tokenizing a line.
+    DANGLING_AT_SIGN(Severity.WARNING),
+    DANGLING_BACKSLASH(Severity.WARNING),
+    INVISIBLE_CHARACTER(Severity.WARNING),
+    MISSING_QUOTE(Severity.WARNING),
+
+    // Problems found while validating a guide.
+    BROKEN_LINK(Severity.ERROR),
+    BROKEN_OPTION(Severity.WARNING),
+    DUPLICATE_COMMAND(Severity.WARNING),
+    DUPLICATE_NODE(Severity.WARNING),
+    IGNORED_COMMAND(Severity.INFO),
+    MACRO(Severity.WARNING),
+    MISSING_DATABASE(Severity.ERROR),
+    NODE_STRUCTURE(Severity.WARNING),
+    OBSOLETE_LINK(Severity.INFO),
+    UNEXPECTED_OPTION(Severity.WARNING),
+    UNKNOWN_COMMAND(Severity.WARNING),
+
+    // Problems found while following links to other guides.
+    MISSING_FILE(Severity.ERROR),
+    MISSING_NODE(Severity.ERROR),
+    UNREADABLE_FILE(Severity.ERROR);
+
+    /**
+     * How serious a message is.
+     */
+    public enum Severity {
+        INFO, WARNING, ERROR;
+
+        /**
+         * Same as <code>valueOf()</code> but ignore case.
+         */
+        public static Severity valueOfIgnoringCase(String name) {
+            assert name != null;
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private Severity severity;
+
+    private MessageCode(Severity newSeverity) {
+        assert newSeverity != null;
+        severity = newSeverity;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Same as <code>valueOf()</code> but ignore case and accept "-" instead
+     * of "_", for example "dangling-at-sign".
+     */
+    public static MessageCode valueOfIgnoringCase(String name) {
+        assert name != null;
+        return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
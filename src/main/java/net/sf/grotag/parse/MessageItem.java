@@ -1,40 +1,80 @@
 package net.sf.grotag.parse;
 
+import java.util.function.Supplier;
+
 import net.sf.grotag.common.HashCodeTools;
 
 /**
  * A message generated during parsing.
+ * <p>
+ * The text of a message can be passed as <code>Supplier</code> so it is only
+ * rendered once the message actually is kept by a <code>MessagePool</code>.
  * 
  * @author Thomas Aglassinger
  */
 public class MessageItem implements Comparable<MessageItem> {
+    private MessageCode code;
     private AbstractSource source;
     private int line;
     private int column;
     private String text;
+    private Supplier<String> textSupplier;
     private MessageItem seeAlso;
 
-    public MessageItem(AbstractSource newSource, int newLine, int newColumn, String newText) {
+    public MessageItem(MessageCode newCode, AbstractSource newSource, int newLine, int newColumn,
+            Supplier<String> newTextSupplier) {
+        assert newCode != null;
+        assert newSource != null;
+        assert newLine >= 0;
+        assert newColumn >= 0;
+        assert newTextSupplier != null;
+
+        code = newCode;
+        source = newSource;
+        line = newLine;
+        column = newColumn;
+        textSupplier = newTextSupplier;
+    }
+
+    public MessageItem(MessageCode newCode, AbstractSource newSource, int newLine, int newColumn, String newText) {
+        assert newCode != null;
         assert newSource != null;
         assert newLine >= 0;
         assert newColumn >= 0;
         assert newText != null;
         assert newText.length() > 0;
 
+        code = newCode;
         source = newSource;
         line = newLine;
         column = newColumn;
         text = newText;
     }
 
+    public MessageItem(MessageCode newCode, AbstractItem baseItem, Supplier<String> newTextSupplier) {
+        this(newCode, baseItem.getFile(), baseItem.getLine(), baseItem.getColumn(), newTextSupplier);
+    }
+
+    public MessageItem(MessageCode newCode, AbstractItem baseItem, String newText) {
+        this(newCode, baseItem.getFile(), baseItem.getLine(), baseItem.getColumn(), newText);
+    }
+
+    public MessageItem(AbstractSource newSource, int newLine, int newColumn, String newText) {
+        this(MessageCode.OTHER, newSource, newLine, newColumn, newText);
+    }
+
     public MessageItem(AbstractItem baseItem, String newText) {
-        this(baseItem.getFile(), baseItem.getLine(), baseItem.getColumn(), newText);
+        this(MessageCode.OTHER, baseItem, newText);
     }
 
     public MessageItem(AbstractSource newSource, String newText) {
         this(newSource, 0, 0, newText);
     }
 
+    public MessageCode getCode() {
+        return code;
+    }
+
     // FIXME: Rename to getSource().
     public AbstractSource getFile() {
         return source;
@@ -48,7 +88,17 @@ public class MessageItem implements Comparable<MessageItem> {
         return column;
     }
 
+    /**
+     * The text of the message, which is rendered on the first call in case
+     * it has been passed as <code>Supplier</code>.
+     */
     public String getText() {
+        if (text == null) {
+            text = textSupplier.get();
+            assert text != null;
+            assert text.length() > 0;
+            textSupplier = null;
+        }
         return text;
     }
 
@@ -79,6 +129,9 @@ public class MessageItem implements Comparable<MessageItem> {
                 result = getLine() - other.getLine();
                 if (result == 0) {
                     result = getColumn() - other.getColumn();
+                    if (result == 0) {
+                        result = getText().compareTo(other.getText());
+                    }
                 }
             }
         }
@@ -101,6 +154,7 @@ public class MessageItem implements Comparable<MessageItem> {
         result = hashCodeTools.hash(result, getFile().getFullName());
         result = hashCodeTools.hash(result, getLine());
         result = hashCodeTools.hash(result, getColumn());
+        result = hashCodeTools.hash(result, getText());
         return result;
     }
 }
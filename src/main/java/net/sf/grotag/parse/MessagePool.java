@@ -1,37 +1,287 @@
 package net.sf.grotag.parse;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+import net.sf.grotag.parse.MessageCode.Severity;
 
 /**
- * Pool containing all messages caused while parsing an Amigaguide document.
- * 
+ * Pool containing the messages caused while parsing and validating
+ * Amigaguide documents during one run, for example for one
+ * <code>GuidePile</code>.
+ * <p>
+ * Messages can be added from several threads at the same time. Identical
+ * messages are kept only once, and once the pool contains
+ * <code>getMaxItemCount()</code> messages, further messages are only
+ * counted. The same applies to messages below <code>getMinSeverity()</code>
+ * and to messages with a <code>MessageCode</code> that already reached its
+ * own limit. The text of such messages is never rendered. Messages are
+ * sorted only when they are requested using <code>getItems()</code>.
+ * <p>
+ * Unless the pool is deferred, it prints new messages to
+ * <code>System.err</code> in a background thread. Use <code>flush()</code>
+ * to wait until all messages added so far have been printed.
+ *
  * @author Thomas Aglassinger
  */
 public class MessagePool {
-    private static MessagePool instance;
+    /**
+     * Maximum number of messages for a pool without limit.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final long PRINTER_KEEP_ALIVE_SECONDS = 1;
+
+    /**
+     * Single daemon thread printing the messages of all pools, which ends
+     * after some time without messages. Because it does not prevent the
+     * application from exiting, use <code>flush()</code> before exiting to
+     * print all pending messages.
+     */
+    private static final ExecutorService PRINTER = new ThreadPoolExecutor(0, 1, PRINTER_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+                Thread result = new Thread(runnable, "message printer");
+                result.setDaemon(true);
+                return result;
+            });
+
+    private Set<MessageItem> itemSet;
+    private Queue<MessageItem> reportedItems;
+    private AtomicInteger itemCount;
+    private AtomicInteger droppedItemCount;
+    private volatile int maxItemCount;
+    private volatile Severity minSeverity;
+    private AtomicIntegerArray codeItemCounts;
+    private AtomicIntegerArray maxCodeItemCounts;
+    private PrintStream console;
+    private Queue<MessageItem> itemsToPrint;
+    private AtomicBoolean isPrintPending;
+
+    private MessagePool(PrintStream newConsole) {
+        itemSet = ConcurrentHashMap.newKeySet();
+        reportedItems = new ConcurrentLinkedQueue<MessageItem>();
+        itemCount = new AtomicInteger();
+        droppedItemCount = new AtomicInteger();
+        maxItemCount = UNLIMITED;
+        minSeverity = Severity.INFO;
+        codeItemCounts = new AtomicIntegerArray(MessageCode.values().length);
+        maxCodeItemCounts = new AtomicIntegerArray(MessageCode.values().length);
+        for (int codeIndex = 0; codeIndex < maxCodeItemCounts.length(); codeIndex += 1) {
+            maxCodeItemCounts.set(codeIndex, UNLIMITED);
+        }
+        console = newConsole;
+        if (console != null) {
+            itemsToPrint = new ConcurrentLinkedQueue<MessageItem>();
+            isPrintPending = new AtomicBoolean();
+        }
+    }
+
+    /**
+     * Create a pool that prints messages to <code>System.err</code>.
+     */
+    public MessagePool() {
+        this(System.err);
+    }
 
-    private SortedSet<MessageItem> items;
+    /**
+     * Create a pool that only collects messages without printing them, so
+     * they can be added to another pool later on using <code>drainTo()</code>.
+     * This is useful to parse guides in other threads while still reporting
+     * messages in the same order as if the guides were parsed one after
+     * another.
+     *
+     * @see #drainTo(MessagePool)
+     */
+    public static MessagePool createDeferredPool() {
+        return new MessagePool(null);
+    }
+
+    /**
+     * Create a pool that only collects messages like
+     * <code>createDeferredPool()</code> but uses the same limits as
+     * <code>settingsPool</code>, so messages the latter would not keep anyway
+     * are not rendered in the first place.
+     */
+    public static MessagePool createDeferredPool(MessagePool settingsPool) {
+        assert settingsPool != null;
+        MessagePool result = createDeferredPool();
+        result.setMaxItemCount(settingsPool.getMaxItemCount());
+        result.setMinSeverity(settingsPool.getMinSeverity());
+        for (MessageCode code : MessageCode.values()) {
+            result.setMaxItemCount(code, settingsPool.getMaxItemCount(code));
+        }
+        return result;
+    }
 
-    public static final synchronized MessagePool getInstance() {
-        if (instance == null) {
-            instance = new MessagePool();
+    /**
+     * Does <code>other</code> keep and drop the same messages as this pool
+     * would, provided both are empty?
+     */
+    public boolean hasSameLimits(MessagePool other) {
+        assert other != null;
+        boolean result = (getMaxItemCount() == other.getMaxItemCount())
+                && (getMinSeverity() == other.getMinSeverity());
+        for (MessageCode code : MessageCode.values()) {
+            result = result && (getMaxItemCount(code) == other.getMaxItemCount(code));
         }
-        return instance;
+        return result;
     }
 
-    private MessagePool() {
-        items = new TreeSet<MessageItem>();
+    private boolean isDeferred() {
+        return console == null;
     }
 
+    /**
+     * Add all messages of this deferred pool to <code>targetPool</code> in
+     * the order they were reported and remove them from this pool.
+     */
+    public void drainTo(MessagePool targetPool) {
+        assert targetPool != null;
+        assert targetPool != this;
+        assert isDeferred();
+
+        MessageItem item = reportedItems.poll();
+        while (item != null) {
+            targetPool.add(item);
+            item = reportedItems.poll();
+        }
+        itemSet.clear();
+        itemCount.set(0);
+        for (int codeIndex = 0; codeIndex < codeItemCounts.length(); codeIndex += 1) {
+            codeItemCounts.set(codeIndex, 0);
+        }
+        targetPool.droppedItemCount.addAndGet(droppedItemCount.getAndSet(0));
+    }
+
+    /**
+     * All messages kept by this deferred pool in the order they were
+     * reported.
+     */
+    public List<MessageItem> getReportedItems() {
+        assert isDeferred();
+        return Collections.unmodifiableList(new ArrayList<MessageItem>(reportedItems));
+    }
+
+    /**
+     * The messages kept so far, sorted by their location.
+     */
     public SortedSet<MessageItem> getItems() {
-        return items;
+        return Collections.unmodifiableSortedSet(new TreeSet<MessageItem>(reportedItems));
+    }
+
+    /**
+     * The maximum number of messages the pool keeps; further messages are
+     * only counted.
+     *
+     * @see #getDroppedItemCount()
+     */
+    public int getMaxItemCount() {
+        return maxItemCount;
+    }
+
+    public void setMaxItemCount(int newMaxItemCount) {
+        assert newMaxItemCount >= 0;
+        maxItemCount = newMaxItemCount;
+    }
+
+    /**
+     * The maximum number of messages with <code>code</code> the pool keeps;
+     * 0 means that such messages are ignored.
+     */
+    public int getMaxItemCount(MessageCode code) {
+        assert code != null;
+        return maxCodeItemCounts.get(code.ordinal());
+    }
+
+    public void setMaxItemCount(MessageCode code, int newMaxItemCount) {
+        assert code != null;
+        assert newMaxItemCount >= 0;
+        maxCodeItemCounts.set(code.ordinal(), newMaxItemCount);
+    }
+
+    /**
+     * The minimum severity of messages the pool keeps.
+     */
+    public Severity getMinSeverity() {
+        return minSeverity;
+    }
+
+    public void setMinSeverity(Severity newMinSeverity) {
+        assert newMinSeverity != null;
+        minSeverity = newMinSeverity;
+    }
+
+    /**
+     * Does the pool still keep new messages with <code>code</code>? If not,
+     * callers can skip preparing such messages altogether.
+     */
+    public boolean isKept(MessageCode code) {
+        assert code != null;
+        int codeIndex = code.ordinal();
+        return (itemCount.get() < maxItemCount)
+                && (codeItemCounts.get(codeIndex) < maxCodeItemCounts.get(codeIndex))
+                && (code.getSeverity().compareTo(minSeverity) >= 0);
+    }
+
+    /**
+     * Number of messages that have not been kept because of
+     * <code>getMaxItemCount()</code>, <code>getMinSeverity()</code> or the
+     * limit for their <code>MessageCode</code>.
+     */
+    public int getDroppedItemCount() {
+        return droppedItemCount.get();
+    }
+
+    /**
+     * Count <code>count</code> further messages as dropped, for example
+     * those a deferred pool with the same limits dropped earlier on.
+     *
+     * @see #getDroppedItemCount()
+     */
+    public void addDroppedItemCount(int count) {
+        assert count >= 0;
+        droppedItemCount.addAndGet(count);
     }
 
     public void add(MessageItem newItem) {
         assert newItem != null;
-        System.err.println(newItem);
-        items.add(newItem);
+        MessageCode code = newItem.getCode();
+        if (!isKept(code)) {
+            droppedItemCount.incrementAndGet();
+        } else {
+            // Render the text before the item becomes visible to other
+            // threads.
+            newItem.getText();
+            if (itemSet.add(newItem)) {
+                if ((codeItemCounts.incrementAndGet(code.ordinal()) <= getMaxItemCount(code))
+                        && (itemCount.incrementAndGet() <= maxItemCount)) {
+                    reportedItems.add(newItem);
+                    if (!isDeferred()) {
+                        print(newItem);
+                    }
+                } else {
+                    // Another thread reached a maximum in the meantime.
+                    droppedItemCount.incrementAndGet();
+                }
+            }
+        }
     }
 
     public void add(AbstractSource source, int line, int column, String text) {
@@ -39,4 +289,54 @@ public class MessagePool {
         MessageItem newMessage = new MessageItem(source, line, column, text);
         add(newMessage);
     }
+
+    /**
+     * Add a message with <code>code</code> whose text is only rendered if
+     * the pool actually keeps it.
+     */
+    public void add(MessageCode code, AbstractSource source, int line, int column, Supplier<String> text) {
+        if (isKept(code)) {
+            add(new MessageItem(code, source, line, column, text));
+        } else {
+            droppedItemCount.incrementAndGet();
+        }
+    }
+
+    private void print(MessageItem item) {
+        itemsToPrint.add(item);
+        if (isPrintPending.compareAndSet(false, true)) {
+            PRINTER.execute(() -> printPendingItems());
+        }
+    }
+
+    private void printPendingItems() {
+        // Reset the flag before printing so messages added meanwhile
+        // schedule another run.
+        isPrintPending.set(false);
+        StringBuilder text = new StringBuilder();
+        MessageItem item = itemsToPrint.poll();
+        while (item != null) {
+            text.append(item).append(System.lineSeparator());
+            item = itemsToPrint.poll();
+        }
+        if (text.length() > 0) {
+            console.print(text);
+            console.flush();
+        }
+    }
+
+    /**
+     * Wait until all messages added so far have been printed.
+     */
+    public void flush() {
+        if (!isDeferred()) {
+            try {
+                PRINTER.submit(() -> printPendingItems()).get();
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException error) {
+                throw new IllegalStateException("cannot print messages", error.getCause());
+            }
+        }
+    }
 }
@@ -0,0 +1,234 @@
+package net.sf.grotag.parse;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of items that stores spaces, texts and new lines in parallel
+ * primitive arrays instead of one object per item. Other items, in particular
+ * <code>CommandItem</code>s, are kept as they are so they preserve their
+ * identity.
+ * <p>
+ * <code>get()</code> creates a new view on the stored item each time it is
+ * called. Tools that process many items can avoid this by using
+ * <code>getKind()</code>, <code>appendText()</code> and
+ * <code>getKeptItem()</code> instead.
+ *
+ * @author Thomas Aglassinger
+ */
+public final class PackedItemList extends AbstractList<AbstractItem> implements RandomAccess {
+    /**
+     * Kind of an item as far as it is relevant to process it without creating
+     * a view.
+     */
+    public enum Kind {
+        SPACE, TEXT, NEW_LINE, KEPT
+    }
+
+    // Item kinds with information about how the text is stored.
+    private static final byte SPACE_SLICE = 0;
+    private static final byte SPACE_STRING = 1;
+    private static final byte TEXT_SLICE = 2;
+    private static final byte TEXT_STRING = 3;
+    private static final byte NEW_LINE = 4;
+    private static final byte KEPT = 5;
+
+    private static final Kind[] KINDS = new Kind[] { Kind.SPACE, Kind.SPACE, Kind.TEXT, Kind.TEXT, Kind.NEW_LINE,
+            Kind.KEPT };
+
+    private final int size;
+    private final byte[] kinds;
+    private final int[] lines;
+    private final int[] columns;
+    private final int[] origins;
+    // For slices the start and end in the base text of the origin, for
+    // strings the index in strings, for kept items the index in keptItems.
+    private final int[] textStarts;
+    private final int[] textEnds;
+    private final AbstractSource[] sources;
+    private final CharSequence[] bases;
+    private final String[] strings;
+    private final AbstractItem[] keptItems;
+
+    /**
+     * Packed copy of <code>items</code>.
+     */
+    public PackedItemList(List<AbstractItem> items) {
+        assert items != null;
+
+        List<AbstractSource> sourceList = new ArrayList<AbstractSource>();
+        List<CharSequence> baseList = new ArrayList<CharSequence>();
+        Map<AbstractSource, Integer> originMap = new IdentityHashMap<AbstractSource, Integer>();
+        List<String> stringList = new ArrayList<String>();
+        List<AbstractItem> keptItemList = new ArrayList<AbstractItem>();
+
+        size = items.size();
+        kinds = new byte[size];
+        lines = new int[size];
+        columns = new int[size];
+        origins = new int[size];
+        textStarts = new int[size];
+        textEnds = new int[size];
+
+        for (int itemIndex = 0; itemIndex < size; itemIndex += 1) {
+            AbstractItem item = items.get(itemIndex);
+            assert item != null;
+
+            CharSequence text;
+            byte sliceKind;
+            Class<?> itemClass = item.getClass();
+            if (itemClass == SpaceItem.class) {
+                text = ((SpaceItem) item).getSpaceSequence();
+                sliceKind = SPACE_SLICE;
+            } else if (itemClass == TextItem.class) {
+                text = ((TextItem) item).getTextSequence();
+                sliceKind = TEXT_SLICE;
+            } else if (itemClass == NewLineItem.class) {
+                text = null;
+                sliceKind = NEW_LINE;
+            } else {
+                text = null;
+                sliceKind = KEPT;
+            }
+
+            Integer origin = originMap.get(item.getFile());
+            if (origin == null) {
+                origin = sourceList.size();
+                originMap.put(item.getFile(), origin);
+                sourceList.add(item.getFile());
+                baseList.add(null);
+            }
+            origins[itemIndex] = origin;
+            lines[itemIndex] = item.getLine();
+            columns[itemIndex] = item.getColumn();
+
+            if (sliceKind == KEPT) {
+                kinds[itemIndex] = KEPT;
+                textStarts[itemIndex] = keptItemList.size();
+                keptItemList.add(item);
+            } else if (text != null) {
+                boolean isSlice = false;
+                if (text instanceof TextSlice) {
+                    TextSlice slice = (TextSlice) text;
+                    CharSequence base = baseList.get(origin);
+                    if (base == null) {
+                        base = slice.getBase();
+                        baseList.set(origin, base);
+                    }
+                    isSlice = (base == slice.getBase());
+                    if (isSlice) {
+                        textStarts[itemIndex] = slice.getStart();
+                        textEnds[itemIndex] = slice.getEnd();
+                    }
+                }
+                if (isSlice) {
+                    kinds[itemIndex] = sliceKind;
+                } else {
+                    // The text has been materialized or has escape sequences
+                    // resolved.
+                    kinds[itemIndex] = (byte) (sliceKind + 1);
+                    textStarts[itemIndex] = stringList.size();
+                    stringList.add(text.toString());
+                }
+            } else {
+                kinds[itemIndex] = sliceKind;
+            }
+        }
+
+        sources = sourceList.toArray(new AbstractSource[sourceList.size()]);
+        bases = baseList.toArray(new CharSequence[baseList.size()]);
+        strings = stringList.toArray(new String[stringList.size()]);
+        keptItems = keptItemList.toArray(new AbstractItem[keptItemList.size()]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * View on the item at <code>index</code>. Except for kept items, this is
+     * a new item each time.
+     */
+    @Override
+    public AbstractItem get(int index) {
+        AbstractItem result;
+        AbstractSource source = sources[origins[index]];
+        int line = lines[index];
+        int column = columns[index];
+
+        switch (kinds[index]) {
+        case SPACE_SLICE:
+            result = new SpaceItem(source, line, column, getSlice(index));
+            break;
+        case SPACE_STRING:
+            result = new SpaceItem(source, line, column, strings[textStarts[index]]);
+            break;
+        case TEXT_SLICE:
+            result = new TextItem(source, line, column, getSlice(index), false);
+            break;
+        case TEXT_STRING:
+            result = new TextItem(source, line, column, strings[textStarts[index]], false);
+            break;
+        case NEW_LINE:
+            result = new NewLineItem(source, line, column);
+            break;
+        case KEPT:
+            result = keptItems[textStarts[index]];
+            break;
+        default:
+            throw new IllegalStateException("kind must be known: " + kinds[index]);
+        }
+        return result;
+    }
+
+    private TextSlice getSlice(int index) {
+        return new TextSlice(bases[origins[index]], textStarts[index], textEnds[index]);
+    }
+
+    public Kind getKind(int index) {
+        return KINDS[kinds[index]];
+    }
+
+    public AbstractSource getSource(int index) {
+        return sources[origins[index]];
+    }
+
+    public int getLine(int index) {
+        return lines[index];
+    }
+
+    public int getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * The item at <code>index</code>, which must be of kind
+     * <code>Kind.KEPT</code>.
+     */
+    public AbstractItem getKeptItem(int index) {
+        assert kinds[index] == KEPT : "item #" + index + " must be kept but is " + getKind(index);
+        return keptItems[textStarts[index]];
+    }
+
+    /**
+     * Append the text of the space or text item at <code>index</code> to
+     * <code>target</code> without creating a view on the item.
+     */
+    public void appendText(int index, StringBuilder target) {
+        assert target != null;
+
+        byte kind = kinds[index];
+        if ((kind == SPACE_SLICE) || (kind == TEXT_SLICE)) {
+            target.append(bases[origins[index]], textStarts[index], textEnds[index]);
+        } else if ((kind == SPACE_STRING) || (kind == TEXT_STRING)) {
+            target.append(strings[textStarts[index]]);
+        } else {
+            assert false : "item #" + index + " must be space or text but is " + getKind(index);
+        }
+    }
+}
@@ -8,9 +8,9 @@ import net.sf.grotag.common.Tools;
  * @author Thomas Aglassinger
  */
 public class SpaceItem extends AbstractItem {
-    private String space;
+    private CharSequence space;
 
-    public SpaceItem(AbstractSource newSource, int newLine, int newColumn, String newSpace) {
+    public SpaceItem(AbstractSource newSource, int newLine, int newColumn, CharSequence newSpace) {
         super(newSource, newLine, newColumn);
 
         // Assert that every characters actually is white space.
@@ -25,10 +25,22 @@ public class SpaceItem extends AbstractItem {
         space = newSpace;
     }
 
-    public String getSpace() {
+    /**
+     * The space without materializing it as <code>String</code>.
+     */
+    CharSequence getSpaceSequence() {
         return space;
     }
 
+    public String getSpace() {
+        CharSequence result = space;
+        if (!(result instanceof String)) {
+            result = result.toString();
+            space = result;
+        }
+        return (String) result;
+    }
+
     @Override
     protected String toStringSuffix() {
         return "<space>" + Tools.getInstance().sourced(getSpace());
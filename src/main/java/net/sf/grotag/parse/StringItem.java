@@ -10,7 +10,7 @@ import net.sf.grotag.common.Tools;
  */
 public class StringItem extends AbstractTextItem {
 
-    public StringItem(AbstractSource newSource, int newLine, int newColumn, String newString) {
+    public StringItem(AbstractSource newSource, int newLine, int newColumn, CharSequence newString) {
         super(newSource, newLine, newColumn);
 
         // Assert that the text actually is a string embedded between quotes.
@@ -20,7 +20,7 @@ public class StringItem extends AbstractTextItem {
         assert newString.charAt(0) == '"';
         assert newString.charAt(newString.length() - 1) == '"';
 
-        setText(newString.substring(1, newString.length() - 1));
+        setText(newString.subSequence(1, newString.length() - 1));
     }
 
     @Override
@@ -30,6 +30,11 @@ public class StringSource extends AbstractSource {
         return new BufferedReader(new StringReader(text));
     }
 
+    @Override
+    public CharSequence readText() {
+        return text;
+    }
+
     @Override
     public String getFullName() {
         return fullName;
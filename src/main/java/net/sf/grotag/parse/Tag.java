@@ -1,5 +1,8 @@
 package net.sf.grotag.parse;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import net.sf.grotag.common.HashCodeTools;
 
 /**
@@ -18,6 +21,14 @@ public class Tag implements Comparable<Tag> {
     public enum Name {
         alink, amigaguide, apen, author, b, beep, bg, body, bpen, cleartabs, close, code, database, dnode, embed, endnode, fg, font, guide, height, help, i, index, jcenter, jleft, jright, keywords, lindent, line, link, macro, master, next, onclose, onopen, node, par, pard, pari, plain, prev, proportional, quit, rem, remark, rx, rxs, settabs, smartwrap, system, tab, title, toc, u, ub, ui, uu, width, wordwrap, xref;
 
+        private static final Map<String, Name> NAME_MAP = new HashMap<String, Name>();
+
+        static {
+            for (Name name : values()) {
+                NAME_MAP.put(name.toString(), name);
+            }
+        }
+
         /**
          * Like <code>valueOf()</code>, but instead of throwing an
          * <code>IllegalArgumentException</code> on an unknown
@@ -27,13 +38,7 @@ public class Tag implements Comparable<Tag> {
          */
         public static Name valueOfOrNull(String some) {
             assert some != null;
-            Name result;
-            try {
-                result = valueOf(some);
-            } catch (IllegalArgumentException errorToFix) {
-                result = null;
-            }
-            return result;
+            return NAME_MAP.get(some);
         }
     }
 
@@ -75,6 +80,7 @@ public class Tag implements Comparable<Tag> {
     private boolean isUnique;
     private boolean isUnused;
     private AbstractTextItem macroTextItem;
+    private MacroTemplate macroTemplate;
     private Version version;
 
     public Tag(String newName, Version newVersion, Scope newScope, TagOption[] newOptions) {
@@ -115,6 +121,7 @@ public class Tag implements Comparable<Tag> {
         Tag result = new Tag(newName, Version.V34, Scope.INLINE);
         result.isMacro = true;
         result.macroTextItem = newTextItem;
+        result.macroTemplate = new MacroTemplate(newTextItem.getText());
         return result;
     }
 
@@ -245,11 +252,19 @@ public class Tag implements Comparable<Tag> {
         return macroTextItem;
     }
 
+    /**
+     * The macro text compiled for quick resolution of calls to the macro.
+     */
+    public MacroTemplate getMacroTemplate() {
+        assert isMacro;
+        return macroTemplate;
+    }
+
     public boolean isObsolete() {
         return isObsolete;
     }
 
-    public void setObsolete(boolean newObsolete) {
+    void setObsolete(boolean newObsolete) {
         this.isObsolete = newObsolete;
     }
 
@@ -257,7 +272,7 @@ public class Tag implements Comparable<Tag> {
         return isUnused;
     }
 
-    public void setUnused(boolean newUnused) {
+    void setUnused(boolean newUnused) {
         this.isUnused = newUnused;
     }
 
@@ -14,30 +14,51 @@ public class TextItem extends AbstractTextItem {
      * Create text item from <code>newText</code>, resolving escape sequences
      * in the text.
      */
-    public TextItem(AbstractSource newSource, int newLine, int newColumn, String newText) {
-        super(newSource, newLine, newColumn);
+    public TextItem(AbstractSource newSource, int newLine, int newColumn, CharSequence newText) {
+        this(newSource, newLine, newColumn, newText, true);
+    }
 
-        boolean afterBackslash = false;
-        String textWithResolvedEscapes;
+    /**
+     * Create text item from <code>newText</code>, which already has its
+     * escape sequences resolved unless <code>resolveEscapes</code> is
+     * <code>true</code>.
+     */
+    TextItem(AbstractSource newSource, int newLine, int newColumn, CharSequence newText, boolean resolveEscapes) {
+        super(newSource, newLine, newColumn);
 
         tools = Tools.getInstance();
 
-        textWithResolvedEscapes = "";
-        for (int i = 0; i < newText.length(); i += 1) {
-            char ch = newText.charAt(i);
-            if (afterBackslash) {
-                // Tokenizer must ensure that there are only @'s and backslashes
-                // at this point.
-                assert (ch == '\\') || (ch == '@') : "ch=" + tools.sourced(ch);
-                textWithResolvedEscapes += ch;
-                afterBackslash = false;
-            } else if (ch == '\\') {
-                afterBackslash = true;
-            } else {
-                textWithResolvedEscapes += ch;
+        if (!resolveEscapes || !containsBackslash(newText)) {
+            setText(newText);
+        } else {
+            boolean afterBackslash = false;
+            StringBuilder textWithResolvedEscapes = new StringBuilder(newText.length());
+
+            for (int i = 0; i < newText.length(); i += 1) {
+                char ch = newText.charAt(i);
+                if (afterBackslash) {
+                    // Tokenizer must ensure that there are only @'s and
+                    // backslashes at this point.
+                    assert (ch == '\\') || (ch == '@') : "ch=" + tools.sourced(ch);
+                    textWithResolvedEscapes.append(ch);
+                    afterBackslash = false;
+                } else if (ch == '\\') {
+                    afterBackslash = true;
+                } else {
+                    textWithResolvedEscapes.append(ch);
+                }
             }
+            setText(textWithResolvedEscapes.toString());
         }
-        setText(textWithResolvedEscapes);
+    }
+
+    private static boolean containsBackslash(CharSequence some) {
+        boolean result = false;
+        int length = some.length();
+        for (int i = 0; !result && (i < length); i += 1) {
+            result = (some.charAt(i) == '\\');
+        }
+        return result;
     }
 
     @Override
@@ -0,0 +1,78 @@
+package net.sf.grotag.parse;
+
+/**
+ * View on a part of a larger text, for example the text of a whole guide,
+ * that refers to the characters of the larger text instead of copying them.
+ * 
+ * @author Thomas Aglassinger
+ */
+final class TextSlice implements CharSequence {
+    private final CharSequence base;
+    private final int start;
+    private final int end;
+
+    TextSlice(CharSequence newBase, int newStart, int newEnd) {
+        assert newBase != null;
+        assert newStart >= 0 : "newStart=" + newStart;
+        assert newStart <= newEnd : "newStart=" + newStart + ", newEnd=" + newEnd;
+        assert newEnd <= newBase.length() : "newEnd=" + newEnd + ", length=" + newBase.length();
+
+        base = newBase;
+        start = newStart;
+        end = newEnd;
+    }
+
+    CharSequence getBase() {
+        return base;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    public char charAt(int index) {
+        assert index >= 0 : "index=" + index;
+        assert index < length() : "index=" + index + ", length=" + length();
+        return base.charAt(start + index);
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    public CharSequence subSequence(int subStart, int subEnd) {
+        assert subStart <= subEnd : "subStart=" + subStart + ", subEnd=" + subEnd;
+        assert subEnd <= length() : "subEnd=" + subEnd + ", length=" + length();
+        return new TextSlice(base, start + subStart, start + subEnd);
+    }
+
+    /**
+     * Index of the first occurrence of <code>some</code> at or after
+     * <code>fromIndex</code>, or -1 if there is none.
+     */
+    int indexOf(char some, int fromIndex) {
+        int result = -1;
+        if (base instanceof Latin1Text) {
+            int baseIndex = ((Latin1Text) base).indexOf(some, start + fromIndex, end);
+            if (baseIndex != -1) {
+                result = baseIndex - start;
+            }
+        } else {
+            for (int index = start + fromIndex; (result == -1) && (index < end); index += 1) {
+                if (base.charAt(index) == some) {
+                    result = index - start;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return base.subSequence(start, end).toString();
+    }
+}
@@ -48,6 +48,7 @@ import javax.swing.event.HyperlinkListener;
 import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.JTextComponent;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 
 import net.sf.grotag.Grotag;
 import net.sf.grotag.common.AmigaPathList;
@@ -56,12 +57,12 @@ import net.sf.grotag.common.SyncLock;
 import net.sf.grotag.common.Tools;
 import net.sf.grotag.guide.DomWriter;
 import net.sf.grotag.guide.ExportTools;
-import net.sf.grotag.guide.Guide;
 import net.sf.grotag.guide.GuidePile;
 import net.sf.grotag.guide.HtmlDomFactory;
-import net.sf.grotag.guide.NodeInfo;
+import net.sf.grotag.guide.HtmlExportSession;
 import net.sf.grotag.guide.Relation;
 import net.sf.grotag.guide.DomWriter.Dtd;
+import net.sf.grotag.parse.MessagePool;
 
 import org.xml.sax.SAXException;
 
@@ -332,12 +333,18 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                     settings.put(SETTING_LAST_EXPORT_FOLDER, folderToExportTo.getAbsolutePath());
                     File inputFile = new File(settings.get(SETTING_LAST_GUIDE_FILE_OPENED, null));
                     Dtd formatToExport = ((ExportAccessory) exportChooser.getAccessory()).getFormat();
+                    GuidePile pileToExport = pile;
 
+                    if (pileToExport.isLazy()) {
+                        // Exports must include all linked guides.
+                        pileToExport = GuidePile.createGuidePile(inputFile, pile.getAmigaPaths(), 1,
+                                pile.getMessagePool());
+                    }
                     if (formatToExport == Dtd.DOCBOOK) {
                         File outputFile = exportTools.targetFileFor(inputFile, folderToExportTo, "xml");
-                        exportTools.exportAsDocBookXml(pile, outputFile);
+                        exportTools.exportAsDocBookXml(pileToExport, outputFile);
                     } else if ((formatToExport == Dtd.HTML) || (formatToExport == Dtd.XHTML)) {
-                        exportTools.exportAsHtml(pile, folderToExportTo, formatToExport);
+                        exportTools.exportAsHtml(pileToExport, folderToExportTo, formatToExport);
                     } else {
                         assert false : "format=" + formatToExport;
                     }
@@ -567,7 +574,7 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
     private GuidePile pile;
     private Map<Relation, URI> relationMap;
     private List<JButton> relationButtons;
-    private Map<URI, NodeInfo> urlToNodeMap;
+    private HtmlExportSession exportSession;
     private Map<Object, Action> editorKitActionMap;
     private JFileChooser openChooser;
     private JFileChooser exportChooser;
@@ -748,6 +755,8 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
 
         File newTempFolder = createTempFolder();
         GuidePile newPile = null;
+        HtmlExportSession newExportSession = null;
+        MessagePool newMessagePool = new MessagePool();
 
         synchronized (pageLock) {
             progressBar.setValue(0);
@@ -756,40 +765,17 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
             setGuiState(GuiState.OPENING);
             try {
                 setStatus("Reading " + guideFile);
-                newPile = GuidePile.createGuidePile(guideFile, newAmigaPaths);
-                HtmlDomFactory factory = new HtmlDomFactory(newPile, newTempFolder);
+                // Read linked guides and export nodes only once they are
+                // viewed; see setPageWithoutHistory().
+                GuidePile lazyPile = GuidePile.createLazyGuidePile(guideFile, newAmigaPaths, newMessagePool);
+                newExportSession = new HtmlExportSession(lazyPile, newTempFolder, DomWriter.Dtd.HTML);
+                HtmlDomFactory factory = newExportSession.getFactory();
 
-                factory.copyStyleFile();
+                newExportSession.copyStyleFile();
                 factory.setAddDublinCore(false);
                 factory.setAddNavigationBar(false);
                 factory.setCopyNonGuides(false);
-
-                // Compute number of nodes in pile to show progress.
-                // TODO: Use number of items as base for progress.
-                int nodeCount = 0;
-                for (Guide guide : newPile.getGuides()) {
-                    nodeCount += guide.getNodeInfos().size();
-                }
-
-                progressBar.setMinimum(0);
-                progressBar.setMaximum(nodeCount);
-                progressBar.setIndeterminate(false);
-
-                urlToNodeMap = new HashMap<>();
-                int nodesWritten = 0;
-                for (Guide guide : newPile.getGuides()) {
-                    for (NodeInfo nodeInfo : guide.getNodeInfos()) {
-                        setStatus("Reading " + guide.getDatabaseInfo().getName() + "/" + nodeInfo.getName());
-                        File targetFile = factory.getTargetFileFor(guide, nodeInfo);
-                        URI targetUrl = targetFile.toURI();
-                        org.w3c.dom.Document htmlDocument = factory.createNodeDocument(guide, nodeInfo);
-                        DomWriter htmlWriter = new DomWriter(DomWriter.Dtd.HTML);
-                        htmlWriter.write(htmlDocument, targetFile);
-                        urlToNodeMap.put(targetUrl, nodeInfo);
-                        nodesWritten += 1;
-                        progressBar.setValue(nodesWritten);
-                    }
-                }
+                newPile = lazyPile;
                 settings.put(SETTING_LAST_GUIDE_FILE_OPENED, guideFile.getAbsolutePath());
             } catch (Throwable error) {
                 showError("cannot read " + tools.sourced(guideFile), error);
@@ -803,6 +789,7 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                     }
                     tempFolder = newTempFolder;
                     pile = newPile;
+                    exportSession = newExportSession;
                     homeUri = pile.getFirstHtmlFile(tempFolder).toURI();
                     pageHistory.clear();
                     setPage(homeUri);
@@ -812,7 +799,7 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                 }
                 // FIXME: Check if this call causes an exception in the Swing
                 // thread in case there are no messages.
-                messageModel.update();
+                messageModel.update(newMessagePool);
                 tools.initColumnWidths(messageTable);
 
                 if (pile == null) {
@@ -885,9 +872,10 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
         assert pageUri != null;
         synchronized (pageLock) {
             log.info("set page to: " + tools.sourced(pageUri.toString()));
-            htmlPane.setPage(pageUri.toURL());
+            URI uriToShow = exportOnDemand(pageUri);
+            htmlPane.setPage(uriToShow.toURL());
 
-            HtmlInfo htmlInfo = new HtmlInfo(pageUri);
+            HtmlInfo htmlInfo = new HtmlInfo(uriToShow);
             String title = htmlInfo.getTitle();
 
             if (title != null) {
@@ -905,6 +893,32 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
         }
     }
 
+    /**
+     * URI of the HTML page to actually show for <code>pageUri</code> after
+     * exporting the node it refers to (and reading its guide) if this did not
+     * happen yet.
+     */
+    private URI exportOnDemand(URI pageUri) throws IOException {
+        URI result = pageUri;
+        if ((exportSession != null) && "file".equals(pageUri.getScheme())) {
+            int guideCountBefore = pile.getGuides().size();
+            try {
+                result = exportSession.exportOnDemand(new File(pageUri)).toURI();
+            } catch (ParserConfigurationException | TransformerException error) {
+                throw new IOException("cannot export page " + tools.sourced(pageUri.toString()), error);
+            } catch (IllegalArgumentException error) {
+                throw new IOException("cannot read linked guide for " + tools.sourced(pageUri.toString()), error);
+            } finally {
+                if (pile.getGuides().size() != guideCountBefore) {
+                    // Reading another guide might have added messages.
+                    messageModel.update(pile.getMessagePool());
+                    tools.initColumnWidths(messageTable);
+                }
+            }
+        }
+        return result;
+    }
+
     private final void setUpHtmlPane() {
         htmlPane = new JTextPane();
         htmlPane.addHyperlinkListener(this);
@@ -978,6 +992,7 @@ public class GrotagFrame extends JFrame implements HyperlinkListener {
                 htmlPane.removeHyperlinkListener(this);
             }
             pile = null;
+            exportSession = null;
             try {
                 settings.flush();
             } catch (BackingStoreException error) {
@@ -28,13 +28,12 @@ public class MessageItemTableModel extends AbstractTableModel {
     }
 
     /**
-     * Update the table model from the current messages in
-     * <code>MessagePool</code>.
+     * Update the table model from the current messages in <code>pool</code>.
      * 
      * @see MessagePool
      */
-    public void update() {
-        MessagePool pool = MessagePool.getInstance();
+    public void update(MessagePool pool) {
+        assert pool != null;
         List<MessageItem> newValues = new LinkedList<MessageItem>();
 
         synchronized (updateLock) {
@@ -1,8 +1,12 @@
 package net.sf.grotag.common;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.nio.file.Files;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -41,4 +45,31 @@ public class AmigaToolsTest {
         assertEquals("\\@", amigaTools.escapedForAmigaguide("@"));
         assertEquals("someone\\@example.com", amigaTools.escapedForAmigaguide("someone@example.com"));
     }
+
+    @Test
+    public void testIsAmigaguide() throws Exception {
+        assertTrue(amigaTools.isAmigaguide(testTools.getTestInputFile("basics.guide")));
+        assertFalse(amigaTools.isAmigaguide(testTools.getTestInputFile("embedded.txt")));
+
+        File shortFile = testTools.getTestActualFile("AmigaToolsTest.short.guide");
+        Files.write(shortFile.toPath(), "@data".getBytes(AmigaTools.ENCODING));
+        assertFalse(amigaTools.isAmigaguide(shortFile));
+        File upperCaseFile = testTools.getTestActualFile("AmigaToolsTest.upper.guide");
+        Files.write(upperCaseFile.toPath(), "@DATABASE upper\n".getBytes(AmigaTools.ENCODING));
+        assertTrue(amigaTools.isAmigaguide(upperCaseFile));
+    }
+
+    @Test
+    public void testEnsureHasAmigaguideHeader() {
+        amigaTools.ensureHasAmigaguideHeader("@database");
+        amigaTools.ensureHasAmigaguideHeader("@DataBase hugo.guide\n");
+        for (String text : new String[] { "", "@data", "@node main", " @database" }) {
+            try {
+                amigaTools.ensureHasAmigaguideHeader(text);
+                fail("text must be rejected: " + text);
+            } catch (IllegalArgumentException expectedError) {
+                // Ignore.
+            }
+        }
+    }
 }
@@ -1,9 +1,22 @@
 package net.sf.grotag.common;
 
 import org.apache.commons.io.FileUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 /**
  * Various tools to simplify testing.
@@ -99,6 +112,101 @@ public class TestTools {
         return resultPath.toFile();
     }
 
+    /**
+     * Write a synthetic guide with <code>nodeCount</code> nodes to the
+     * "actual" test folder, useful to check how processing times scale with
+     * the size of a guide.
+     */
+    public File createGeneratedGuide(String fileName, int nodeCount) throws IOException {
+        assert fileName != null;
+        assert nodeCount > 0;
+
+        File result = getTestActualFile(fileName);
+        try (BufferedWriter writer = Files.newBufferedWriter(result.toPath(), Charset.forName(AmigaTools.ENCODING))) {
+            writer.write("@database " + fileName + "\n");
+            for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex += 1) {
+                String nodeName = (nodeIndex == 0) ? "main" : "node" + nodeIndex;
+                writer.write("@node " + nodeName + " \"Node " + nodeIndex + "\"\n");
+                for (int lineIndex = 0; lineIndex < 10; lineIndex += 1) {
+                    writer.write("Line " + lineIndex + " of node " + nodeIndex + " with @{b}bold@{ub} text.\n");
+                }
+                writer.write("Back to @{\"Main\" link main}");
+                if (nodeIndex < nodeCount - 1) {
+                    writer.write(" or on to @{\"next node\" link node" + (nodeIndex + 1) + "}");
+                }
+                writer.write(".\n");
+                writer.write("@endnode\n");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parser for XML files that does not load any DTD, so it works without
+     * network access.
+     */
+    public DocumentBuilder createXmlParser() throws ParserConfigurationException {
+        DocumentBuilderFactory parserFactory = DocumentBuilderFactory.newInstance();
+        parserFactory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        DocumentBuilder result = parserFactory.newDocumentBuilder();
+        result.setEntityResolver((publicId, systemId) -> new InputSource(new StringReader("")));
+        return result;
+    }
+
+    /**
+     * Text representation of <code>document</code> with sorted attributes and
+     * adjacent text merged, which can be used to compare documents regardless
+     * of how they are indented. Leading and trailing white space is ignored
+     * in elements named in <code>structuralElementNames</code>; other text
+     * has to match exactly.
+     */
+    public String getCanonicalXml(Document document, Set<String> structuralElementNames) {
+        assert document != null;
+        assert structuralElementNames != null;
+        StringBuilder result = new StringBuilder();
+        appendCanonicalXml(result, document.getDocumentElement(), structuralElementNames);
+        return result.toString();
+    }
+
+    private void appendCanonicalXml(StringBuilder target, Node node, Set<String> structuralElementNames) {
+        if (node instanceof Element) {
+            target.append('<').append(node.getNodeName());
+            Map<String, String> sortedAttributes = new TreeMap<String, String>();
+            NamedNodeMap attributes = node.getAttributes();
+            for (int attributeIndex = 0; attributeIndex < attributes.getLength(); attributeIndex += 1) {
+                Node attribute = attributes.item(attributeIndex);
+                sortedAttributes.put(attribute.getNodeName(), attribute.getNodeValue());
+            }
+            for (Map.Entry<String, String> attribute : sortedAttributes.entrySet()) {
+                target.append(' ').append(attribute.getKey()).append("=\"").append(attribute.getValue()).append('"');
+            }
+            target.append('>');
+            boolean isStructural = structuralElementNames.contains(node.getNodeName());
+            StringBuilder text = new StringBuilder();
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.TEXT_NODE) {
+                    text.append(child.getNodeValue());
+                } else {
+                    appendCanonicalText(target, text, isStructural);
+                    appendCanonicalXml(target, child, structuralElementNames);
+                }
+            }
+            appendCanonicalText(target, text, isStructural);
+            target.append("</").append(node.getNodeName()).append('>');
+        }
+    }
+
+    private void appendCanonicalText(StringBuilder target, StringBuilder text, boolean isStructural) {
+        String textToAppend = text.toString();
+        if (isStructural) {
+            textToAppend = textToAppend.trim();
+        }
+        if (textToAppend.length() > 0) {
+            target.append('[').append(textToAppend).append(']');
+        }
+        text.setLength(0);
+    }
+
     public File getTestFile(String fileName) {
         return getTestFile(Folder.INPUT, fileName);
     }
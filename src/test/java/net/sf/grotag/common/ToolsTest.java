@@ -3,6 +3,10 @@ package net.sf.grotag.common;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import net.sf.grotag.common.Tools;
 
@@ -37,6 +41,11 @@ public class ToolsTest {
         assertEquals(" hugo", tools.withoutTrailingWhiteSpace(" hugo"));
         assertEquals("", tools.withoutTrailingWhiteSpace(" "));
         assertEquals("", tools.withoutTrailingWhiteSpace(""));
+        assertEquals("hugo", tools.withoutTrailingWhiteSpace("hugo\r\n\f\u000b"));
+        assertEquals("hugo\u00a0", tools.withoutTrailingWhiteSpace("hugo\u00a0"));
+        assertEquals("hugo\u0085", tools.withoutTrailingWhiteSpace("hugo \u0085"));
+        assertEquals("hugo \u0085x", tools.withoutTrailingWhiteSpace("hugo \u0085x"));
+        assertEquals("\u0085", tools.withoutTrailingWhiteSpace("\u0085 "));
     }
 
     @Test
@@ -78,6 +87,24 @@ public class ToolsTest {
         assertTrue(fileParts.length > 0);
     }
 
+    @Test
+    public void testVisitFiles() throws Exception {
+        File folder = testTools.getTestActualFile("ToolsTest.visitFiles");
+        if (folder.exists()) {
+            tools.attemptToDeleteAll(folder);
+        }
+        File subFolder = new File(folder, "a");
+        tools.mkdirs(subFolder);
+        for (File file : new File[] { new File(folder, "c.txt"), new File(folder, "b.txt"),
+                new File(subFolder, "d.txt") }) {
+            Files.write(file.toPath(), new byte[0]);
+        }
+
+        List<String> visitedFiles = new ArrayList<String>();
+        tools.visitFiles(folder, file -> visitedFiles.add(tools.getRelativePath(folder, file)));
+        assertEquals(Arrays.asList("b.txt", "c.txt", "a" + File.separator + "d.txt"), visitedFiles);
+    }
+
     @Test
     public void testGetRelativeUrlTo() {
         File linkingFile = testTools.getTestInputFile("linked.txt");
@@ -0,0 +1,66 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.TestTools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Test case for DocBookStreamWriter.
+ *
+ * @author Thomas Aglassinger
+ */
+public class DocBookStreamWriterTest {
+    private static final Set<String> STRUCTURAL_ELEMENT_NAMES = new HashSet<String>(Arrays.asList("author",
+            "book", "bookinfo", "caution", "chapter", "copyright", "section"));
+
+    private TestTools testTools;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+    }
+
+    private void testStreamIsEquivalentToDom(String guideBaseName) throws Exception {
+        File guideFile = testTools.getTestInputFile(guideBaseName + ".guide");
+        String testName = testTools.getTestName(DocBookStreamWriterTest.class, "testStreamIsEquivalentToDom");
+        File targetFile = testTools.getTestActualFile(testName + "-" + guideBaseName + ".xml");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths);
+
+        new DocBookStreamWriter(new DocBookDomFactory(pile)).write(targetFile);
+        Document streamedBook = testTools.createXmlParser().parse(targetFile);
+        Document domBook = new DocBookDomFactory(pile).createBook();
+
+        // The streamed book must declare the same DTD as the DOM written by
+        // DomWriter and have the same content, which makes it valid
+        // wherever the DOM is.
+        assertNotNull(streamedBook.getDoctype());
+        assertEquals("book", streamedBook.getDoctype().getName());
+        assertEquals(DomWriter.DOCBOOK_PUBLIC_ID, streamedBook.getDoctype().getPublicId());
+        assertEquals(DomWriter.DOCBOOK_SYSTEM_ID, streamedBook.getDoctype().getSystemId());
+        assertEquals(guideBaseName, testTools.getCanonicalXml(domBook, STRUCTURAL_ELEMENT_NAMES), testTools
+                .getCanonicalXml(streamedBook, STRUCTURAL_ELEMENT_NAMES));
+    }
+
+    @Test
+    public void testStreamIsEquivalentToDom() throws Exception {
+        testStreamIsEquivalentToDom("basics");
+        testStreamIsEquivalentToDom("macros");
+        testStreamIsEquivalentToDom("nodes");
+        testStreamIsEquivalentToDom("root");
+        testStreamIsEquivalentToDom("styles");
+        testStreamIsEquivalentToDom("unique");
+    }
+}
@@ -0,0 +1,307 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.AmigaTools;
+import net.sf.grotag.common.TestTools;
+import net.sf.grotag.common.Tools;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.MessageCode.Severity;
+import net.sf.grotag.parse.MessageItem;
+import net.sf.grotag.parse.MessagePool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for GuideCache.
+ *
+ * @author Thomas Aglassinger
+ */
+public class GuideCacheTest {
+    private static final String[] INPUT_GUIDE_NAMES = new String[] { "basics.guide", "blue.guide", "green.guide",
+            "macros.guide", "nestedMacros.guide", "nodes.guide", "recursiveMacros.guide", "red.guide", "root.guide",
+            "styles.guide", "unique.guide" };
+    private static final String[] GUIDE_NAMES = new String[] { "LhA.guide", "LichtTools.guide", "agr.guide",
+            "agr_test.guide", "amigaguide.guide" };
+    private static final int BENCHMARK_ROUNDS = 10;
+
+    private TestTools testTools;
+    private GuideCache cache;
+    private Logger log;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+        cache = GuideCache.getInstance();
+        cache.clearMemory();
+        log = Logger.getLogger(GuideCacheTest.class.getName());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.setFolder(null);
+        cache.setMaxMemoryGuideCount(0);
+        cache.clearMemory();
+    }
+
+    private File getCacheFolder(String testMethodName) {
+        String testName = testTools.getTestName(GuideCacheTest.class, testMethodName);
+        File result = testTools.getTestActualFile(testName);
+        if (result.exists()) {
+            Tools.getInstance().attemptToDeleteAll(result);
+        }
+        result.mkdirs();
+        return result;
+    }
+
+    private List<File> getGuideFiles() {
+        List<File> result = new ArrayList<File>();
+        for (String guideName : INPUT_GUIDE_NAMES) {
+            result.add(testTools.getTestInputFile(guideName));
+        }
+        for (String guideName : GUIDE_NAMES) {
+            result.add(testTools.getTestGuideFile(guideName));
+        }
+        return result;
+    }
+
+    /**
+     * Text describing everything known about <code>guide</code> and the
+     * <code>messages</code> reported while reading it.
+     */
+    private String describe(Guide guide, List<MessageItem> messages) {
+        StringBuilder result = new StringBuilder();
+        for (AbstractItem item : guide.getItems()) {
+            result.append(item).append('\n');
+        }
+        DatabaseInfo databaseInfo = guide.getDatabaseInfo();
+        result.append(databaseInfo).append(": author=").append(databaseInfo.getAuthor()).append(", copyright=")
+                .append(databaseInfo.getCopyrightYear()).append('/').append(databaseInfo.getCopyrightHolder())
+                .append(", version=").append(databaseInfo.getVersion()).append(", font=")
+                .append(databaseInfo.getFontName()).append('/').append(databaseInfo.getFontSize()).append(", wrap=")
+                .append(databaseInfo.getWrap()).append('\n');
+        for (Relation relation : Relation.values()) {
+            result.append(relation).append(": ").append(guide.getRelation(relation)).append('\n');
+        }
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            result.append(nodeInfo).append(": ordinal=").append(nodeInfo.getOrdinal()).append(", title=")
+                    .append(nodeInfo.getTitle()).append(", items=").append(nodeInfo.getStartItemIndex()).append('-')
+                    .append(nodeInfo.getEndItemIndex()).append(", font=").append(nodeInfo.getFontName()).append('/')
+                    .append(nodeInfo.getFontSize()).append(", wrap=").append(nodeInfo.getWrap())
+                    .append(", proportional=").append(nodeInfo.isProportional()).append('\n');
+            for (Relation relation : Relation.values()) {
+                result.append("  ").append(relation).append(": ").append(nodeInfo.getRelation(relation)).append('\n');
+            }
+        }
+        for (Link link : guide.getLinks()) {
+            result.append(link).append('\n');
+        }
+        for (MessageItem message : messages) {
+            result.append(message).append('\n');
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void testCachedGuideIsEquivalent() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        cache.setFolder(getCacheFolder("testCachedGuideIsEquivalent"));
+
+        for (File guideFile : getGuideFiles()) {
+            MessagePool parseMessagePool = MessagePool.createDeferredPool();
+            Guide parsedGuide = Guide.createGuide(guideFile, amigaPaths, parseMessagePool);
+            GuideCache.Stamp stamp = cache.getStamp(guideFile);
+            assertTrue(cache.getCacheFile(stamp).exists());
+
+            MessagePool cachedMessagePool = MessagePool.createDeferredPool();
+            Guide cachedGuide = cache.read(guideFile, stamp, amigaPaths, cachedMessagePool);
+            assertNotNull(guideFile.getPath(), cachedGuide);
+            assertEquals(guideFile.getPath(), describe(parsedGuide, parseMessagePool.getReportedItems()), describe(
+                    cachedGuide, cachedMessagePool.getReportedItems()));
+
+            // Relations must be the same links as in the link list.
+            for (NodeInfo nodeInfo : cachedGuide.getNodeInfos()) {
+                assertSame(cachedGuide.getItems().get(nodeInfo.getStartItemIndex()), nodeInfo.getStartNode());
+                for (Link relationLink : nodeInfo.getRelationLinkMap().values()) {
+                    assertTrue(cachedGuide.getLinks().contains(relationLink));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChangedGuideIsParsedAgain() throws Exception {
+        cache.setFolder(getCacheFolder("testChangedGuideIsParsedAgain"));
+        File guideFile = testTools.createGeneratedGuide("GuideCacheTest.testChangedGuideIsParsedAgain.guide", 3);
+        Guide.createGuide(guideFile, new AmigaPathList());
+        GuideCache.Stamp oldStamp = cache.getStamp(guideFile);
+        assertTrue(cache.getCacheFile(oldStamp).exists());
+
+        testTools.createGeneratedGuide("GuideCacheTest.testChangedGuideIsParsedAgain.guide", 5);
+        guideFile.setLastModified(guideFile.lastModified() + 2000);
+        GuideCache.Stamp newStamp = cache.getStamp(guideFile);
+        assertNull(cache.read(guideFile, newStamp, new AmigaPathList(), MessagePool.createDeferredPool()));
+        assertEquals(5, Guide.createGuide(guideFile, new AmigaPathList()).getNodeCount());
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        assertFalse(cache.isEnabled());
+        assertNull(cache.getStamp(testTools.getTestInputFile("basics.guide")));
+    }
+
+    @Test
+    public void testGuideInMemory() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        File guideFile = testTools.getTestInputFile("basics.guide");
+        cache.setMaxMemoryGuideCount(2);
+
+        MessagePool parseMessagePool = MessagePool.createDeferredPool();
+        Guide parsedGuide = Guide.createGuide(guideFile, amigaPaths, parseMessagePool);
+        assertEquals(0, cache.getMemoryHitCount());
+        assertEquals(1, cache.getMemoryMissCount());
+
+        MessagePool memoryMessagePool = MessagePool.createDeferredPool();
+        assertSame(parsedGuide, Guide.createGuide(guideFile, amigaPaths, memoryMessagePool));
+        assertEquals(1, cache.getMemoryHitCount());
+        assertEquals(parseMessagePool.getReportedItems(), memoryMessagePool.getReportedItems());
+
+        // Other Amiga paths could resolve links differently.
+        assertNotSame(parsedGuide, Guide.createGuide(guideFile, new AmigaPathList()));
+        assertEquals(2, cache.getMemoryMissCount());
+    }
+
+    @Test
+    public void testGuideInMemoryOnlyKeepsMessagesOfPool() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        File guideFile = testTools.getTestActualFile("GuideCacheTest.testGuideInMemoryOnlyKeepsMessagesOfPool.guide");
+        Files.write(guideFile.toPath(), "@database test\n@node main\n@unknown\nText.\n@endnode\n".getBytes(
+                AmigaTools.ENCODING));
+        cache.setMaxMemoryGuideCount(2);
+
+        MessagePool errorPool = MessagePool.createDeferredPool();
+        errorPool.setMinSeverity(Severity.ERROR);
+        Guide guide = Guide.createGuide(guideFile, amigaPaths, errorPool);
+        assertEquals(0, errorPool.getItems().size());
+        int droppedMessageCount = errorPool.getDroppedItemCount();
+        assertTrue(droppedMessageCount > 0);
+
+        MessagePool otherErrorPool = MessagePool.createDeferredPool();
+        otherErrorPool.setMinSeverity(Severity.ERROR);
+        assertSame(guide, Guide.createGuide(guideFile, amigaPaths, otherErrorPool));
+        assertEquals(droppedMessageCount, otherErrorPool.getDroppedItemCount());
+
+        // The warnings dropped before are needed now, so the guide has to be
+        // parsed again.
+        MessagePool warningPool = MessagePool.createDeferredPool();
+        assertNotSame(guide, Guide.createGuide(guideFile, amigaPaths, warningPool));
+        assertEquals(droppedMessageCount, warningPool.getItems().size());
+        assertEquals(1, cache.getMemoryHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedGuideIsRemovedFromMemory() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        File basicsFile = testTools.getTestInputFile("basics.guide");
+        File nodesFile = testTools.getTestInputFile("nodes.guide");
+        File stylesFile = testTools.getTestInputFile("styles.guide");
+        cache.setMaxMemoryGuideCount(2);
+
+        Guide basicsGuide = Guide.createGuide(basicsFile, amigaPaths, MessagePool.createDeferredPool());
+        Guide.createGuide(nodesFile, amigaPaths, MessagePool.createDeferredPool());
+        assertSame(basicsGuide, Guide.createGuide(basicsFile, amigaPaths, MessagePool.createDeferredPool()));
+        Guide.createGuide(stylesFile, amigaPaths, MessagePool.createDeferredPool());
+        assertEquals(2, cache.getMemoryGuideCount());
+        assertSame(basicsGuide, Guide.createGuide(basicsFile, amigaPaths, MessagePool.createDeferredPool()));
+        assertEquals(2, cache.getMemoryHitCount());
+
+        // Nodes.guide has been used least recently.
+        Guide.createGuide(nodesFile, amigaPaths, MessagePool.createDeferredPool());
+        assertEquals(2, cache.getMemoryHitCount());
+        assertEquals(4, cache.getMemoryMissCount());
+    }
+
+    @Test
+    public void testChangedGuideInMemoryIsParsedAgain() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        cache.setMaxMemoryGuideCount(2);
+        File guideFile = testTools.createGeneratedGuide("GuideCacheTest.testChangedGuideInMemoryIsParsedAgain.guide",
+                3);
+        assertEquals(3, Guide.createGuide(guideFile, amigaPaths).getNodeCount());
+
+        testTools.createGeneratedGuide("GuideCacheTest.testChangedGuideInMemoryIsParsedAgain.guide", 5);
+        guideFile.setLastModified(guideFile.lastModified() + 2000);
+        assertEquals(5, Guide.createGuide(guideFile, amigaPaths).getNodeCount());
+        assertEquals(0, cache.getMemoryHitCount());
+    }
+
+    @Test
+    public void testPilesShareGuidesInMemory() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        File rootFile = testTools.getTestInputFile("root.guide");
+        cache.setMaxMemoryGuideCount(16);
+
+        GuidePile pile = GuidePile.createGuidePile(rootFile, amigaPaths, 1, MessagePool.createDeferredPool());
+        GuidePile otherPile = GuidePile.createGuidePile(rootFile, amigaPaths, 1, MessagePool.createDeferredPool());
+        assertEquals(pile.getGuides().size(), cache.getMemoryHitCount());
+        for (Guide guide : pile.getGuides()) {
+            assertSame(guide, otherPile.getGuide(guide.getSourceFile()));
+            for (Link link : guide.getLinks()) {
+                assertEquals(link.toString(), pile.getLinkState(link), otherPile.getLinkState(link));
+                assertEquals(link.toString(), pile.getLinkTargetNodeName(link), otherPile.getLinkTargetNodeName(
+                        link));
+            }
+        }
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        List<File> guideFiles = getGuideFiles();
+        File cacheFolder = getCacheFolder("testBenchmark");
+
+        // Warm up.
+        for (File guideFile : guideFiles) {
+            Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+        }
+
+        long startTime = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+            for (File guideFile : guideFiles) {
+                Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+            }
+        }
+        long coldTime = System.nanoTime() - startTime;
+
+        cache.setFolder(cacheFolder);
+        for (File guideFile : guideFiles) {
+            Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+        }
+        startTime = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+            for (File guideFile : guideFiles) {
+                Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+            }
+        }
+        long warmTime = System.nanoTime() - startTime;
+
+        log.info("read time for " + guideFiles.size() + " guides: parsed=" + (coldTime / BENCHMARK_ROUNDS / 1000)
+                + "us, cached=" + (warmTime / BENCHMARK_ROUNDS / 1000) + "us, speedup="
+                + String.format("%.1f", ((double) coldTime) / warmTime));
+    }
+}
@@ -2,9 +2,13 @@ package net.sf.grotag.guide;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -40,6 +44,132 @@ public class GuidePileTest {
         assertEquals(4, pile.getGuides().size());
     }
 
+    /**
+     * Describe <code>pile</code> in a way that can be compared with other
+     * piles, including the order of the guides and the state of all links.
+     */
+    private List<String> describe(GuidePile pile) {
+        List<String> result = new ArrayList<String>();
+        for (Guide guide : pile.getGuides()) {
+            result.add(guide.getSource().getFullName());
+            for (Link link : guide.getLinks()) {
+                result.add("  " + link.getLinkCommand().toPrettyAmigaguide().trim() + ": " + pile.getLinkState(link));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Messages printed while creating a pile for <code>guideFile</code>
+     * using <code>parallelism</code> threads.
+     */
+    private String createGuidePileMessages(File guideFile, AmigaPathList amigaPaths, int parallelism,
+            List<String> pileDescription) throws IOException {
+        ByteArrayOutputStream messageStream = new ByteArrayOutputStream();
+        PrintStream originalErr = System.err;
+        System.setErr(new PrintStream(messageStream, true, "UTF-8"));
+        try {
+            GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths, parallelism);
+            pile.getMessagePool().flush();
+            pileDescription.addAll(describe(pile));
+        } finally {
+            System.setErr(originalErr);
+        }
+
+        // Only keep messages, but not log records.
+        String result = "";
+        for (String line : messageStream.toString("UTF-8").split("\\n")) {
+            if (line.matches("^[^ \\[]+\\[\\d+:\\d+\\]: .*")) {
+                result += line + "\n";
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testAddInParallel() throws Exception {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+
+        List<String> serialPile = new ArrayList<String>();
+        String serialMessages = createGuidePileMessages(rootGuideFile, amigaPaths, 1, serialPile);
+        for (int parallelism = 2; parallelism <= 4; parallelism += 1) {
+            List<String> parallelPile = new ArrayList<String>();
+            String parallelMessages = createGuidePileMessages(rootGuideFile, amigaPaths, parallelism, parallelPile);
+            assertEquals(serialPile, parallelPile);
+            assertEquals(serialMessages, parallelMessages);
+        }
+        assertEquals(4, GuidePile.createGuidePile(rootGuideFile, amigaPaths, 3).getGuides().size());
+    }
+
+    /**
+     * Assert that the node IDs in <code>pile</code> are dense and match the
+     * order of guides and nodes.
+     */
+    private void assertNodeIdsAreDense(GuidePile pile) {
+        int expectedNodeId = 0;
+        for (int guideId = 0; guideId < pile.getGuides().size(); guideId += 1) {
+            Guide guide = pile.getGuide(guideId);
+            assertSame(guide, pile.getGuides().get(guideId));
+            assertEquals(guideId, pile.getGuideId(guide));
+            assertSame(guide, pile.getGuide(guide.getSourceFile()));
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                assertEquals(expectedNodeId, pile.getNodeId(guide, nodeInfo));
+                expectedNodeId += 1;
+            }
+        }
+        assertEquals(expectedNodeId, pile.getNodeIdCount());
+    }
+
+    @Test
+    public void testNodeIds() throws Exception {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile pile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        assertNodeIdsAreDense(pile);
+
+        GuidePile lazyPile = GuidePile.createLazyGuidePile(rootGuideFile, amigaPaths);
+        int rootNodeCount = lazyPile.getGuides().get(0).getNodeCount();
+        assertEquals(rootNodeCount, lazyPile.getNodeIdCount());
+        for (Guide guide : pile.getGuides()) {
+            lazyPile.requireGuide(guide.getSourceFile());
+            assertNodeIdsAreDense(lazyPile);
+        }
+        assertEquals(pile.getNodeIdCount(), lazyPile.getNodeIdCount());
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile eagerPile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        GuidePile lazyPile = GuidePile.createLazyGuidePile(rootGuideFile, amigaPaths);
+
+        assertFalse(eagerPile.isLazy());
+        assertTrue(lazyPile.isLazy());
+        assertEquals(1, lazyPile.getGuides().size());
+        Guide rootGuide = lazyPile.getGuides().get(0);
+        int uncheckedLinkCount = 0;
+        for (Link link : rootGuide.getLinks()) {
+            if (lazyPile.getLinkState(link) == Link.State.UNCHECKED) {
+                uncheckedLinkCount += 1;
+            }
+        }
+        assertTrue(uncheckedLinkCount > 0);
+
+        // Once all guides are required, links must be the same as with an
+        // eager pile.
+        for (Guide eagerGuide : eagerPile.getGuides()) {
+            Guide lazyGuide = lazyPile.requireGuide(eagerGuide.getSourceFile());
+            assertNotNull(lazyGuide);
+            assertSame(lazyGuide, lazyPile.requireGuide(eagerGuide.getSourceFile()));
+        }
+        assertEquals(describe(eagerPile), describe(lazyPile));
+    }
+
     @Test
     @Ignore
     public void testRkrm() throws IOException, SAXException, ParserConfigurationException {
@@ -1,13 +1,32 @@
 package net.sf.grotag.guide;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
 
 import net.sf.grotag.common.AmigaPathList;
 import net.sf.grotag.common.TestTools;
+import net.sf.grotag.parse.AbstractItem;
+import net.sf.grotag.parse.AbstractTextItem;
+import net.sf.grotag.parse.CommandItem;
+import net.sf.grotag.parse.MessagePool;
+import net.sf.grotag.parse.PackedItemList;
+import net.sf.grotag.parse.SpaceItem;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -17,11 +36,37 @@ import org.junit.Test;
  * @author Thomas Aglassinger
  */
 public class GuideTest {
+    private static final String[] INPUT_GUIDE_NAMES = new String[] { "basics.guide", "blue.guide", "green.guide",
+            "macros.guide", "nestedMacros.guide", "nodes.guide", "recursiveMacros.guide", "red.guide", "root.guide",
+            "styles.guide", "unique.guide" };
+    private static final String[] GUIDE_NAMES = new String[] { "LhA.guide", "LichtTools.guide", "agr.guide",
+            "agr_test.guide", "amigaguide.guide" };
+    private static final Set<String> STRUCTURAL_ELEMENT_NAMES = new HashSet<String>(Arrays.asList("html", "head",
+            "body"));
+
     private TestTools testTools;
-    
+    private Logger log;
+
     @Before
     public void setUp() throws Exception {
         testTools = TestTools.getInstance();
+        log = Logger.getLogger(GuideTest.class.getName());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Guide.setPackingItems(false);
+    }
+
+    private List<File> getGuideFiles() {
+        List<File> result = new ArrayList<File>();
+        for (String guideName : INPUT_GUIDE_NAMES) {
+            result.add(testTools.getTestInputFile(guideName));
+        }
+        for (String guideName : GUIDE_NAMES) {
+            result.add(testTools.getTestGuideFile(guideName));
+        }
+        return result;
     }
 
     private void testGuide(String fileName) throws IOException {
@@ -44,9 +89,204 @@ public class GuideTest {
         testGuide("unique.guide");
     }
 
+    @Test
+    public void testNodeInfos() throws Exception {
+        final int nodeCount = 20;
+        File guideFile = testTools.createGeneratedGuide("GuideTest.testNodeInfos.guide", nodeCount);
+        Guide guide = Guide.createGuide(guideFile, new AmigaPathList());
+
+        assertEquals(nodeCount, guide.getNodeCount());
+        assertEquals(nodeCount, guide.getNodeInfos().size());
+        assertSame(guide.getNodeInfos(), guide.getNodeInfos());
+        assertEquals("main", guide.getFirstNodeInfo().getName());
+        for (int ordinal = 0; ordinal < nodeCount; ordinal += 1) {
+            NodeInfo nodeInfo = guide.getNodeInfo(ordinal);
+            assertEquals(ordinal, nodeInfo.getOrdinal());
+            assertSame(nodeInfo, guide.getNodeInfos().get(ordinal));
+            assertSame(nodeInfo, guide.getNodeInfo(nodeInfo.getName()));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNodeInfosCannotBeModified() throws Exception {
+        Guide guide = Guide.createGuide(testTools.getTestInputFile("nodes.guide"), new AmigaPathList());
+        guide.getNodeInfos().clear();
+    }
+
+    @Test
+    public void testRecursiveMacroGuide() throws Exception {
+        Guide guide = Guide.createGuide(testTools.getTestInputFile("recursiveMacros.guide"), new AmigaPathList());
+        String text = "";
+        int boldCount = 0;
+        for (AbstractItem item : guide.getItems()) {
+            if (item instanceof AbstractTextItem) {
+                text += ((AbstractTextItem) item).getText();
+            } else if (item instanceof SpaceItem) {
+                text += ((SpaceItem) item).getSpace();
+            } else if ((item instanceof CommandItem) && ((CommandItem) item).getCommandName().equals("b")) {
+                boldCount += 1;
+            }
+        }
+        assertTrue(text, text.contains("before  after"));
+        assertTrue(text, text.contains("ping pong "));
+        assertTrue(text, text.contains("repeated hugo repeated hugo repeated sepp"));
+        assertEquals(3, boldCount);
+    }
+
     @Test
     public void testMacroGuide() throws Exception {
         Guide guide = Guide.createGuide(testTools.getTestInputFile("macros.guide"), new AmigaPathList());
         assertNotNull(guide);
     }
+
+    @Test
+    public void testPackedItems() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        for (File guideFile : getGuideFiles()) {
+            Guide.setPackingItems(false);
+            Guide guide = Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+            Guide.setPackingItems(true);
+            Guide packedGuide = Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+
+            assertTrue(packedGuide.getItems() instanceof PackedItemList);
+            assertEquals(guide.getItems().size(), packedGuide.getItems().size());
+            for (int itemIndex = 0; itemIndex < guide.getItems().size(); itemIndex += 1) {
+                assertEquals(guide.getItems().get(itemIndex).toString(), packedGuide.getItems().get(itemIndex)
+                        .toString());
+            }
+            for (NodeInfo nodeInfo : packedGuide.getNodeInfos()) {
+                assertSame(packedGuide.getItems().get(nodeInfo.getStartItemIndex()), nodeInfo.getStartNode());
+            }
+            if (!guide.hasMacros()) {
+                StringWriter prettyWriter = new StringWriter();
+                StringWriter packedPrettyWriter = new StringWriter();
+                guide.writePretty(prettyWriter);
+                packedGuide.writePretty(packedPrettyWriter);
+                assertEquals(guideFile.getPath(), prettyWriter.toString(), packedPrettyWriter.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testPackedNodeDocuments() throws Exception {
+        File guideFile = testTools.getTestInputFile("basics.guide");
+        File targetFolder = testTools.getTestActualFile(testTools.getTestName(GuideTest.class,
+                "testPackedNodeDocuments"));
+        AmigaPathList amigaPaths = new AmigaPathList();
+        GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        Guide.setPackingItems(true);
+        GuidePile packedPile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        HtmlDomFactory factory = new HtmlDomFactory(pile, targetFolder);
+        HtmlDomFactory packedFactory = new HtmlDomFactory(packedPile, targetFolder);
+
+        for (Guide guide : pile.getGuides()) {
+            Guide packedGuide = packedPile.getGuide(guide.getSourceFile());
+            assertTrue(packedGuide.getItems() instanceof PackedItemList);
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                NodeInfo packedNodeInfo = packedGuide.getNodeInfo(nodeInfo.getName());
+                assertEquals(testTools.getCanonicalXml(factory.createNodeDocument(guide, nodeInfo),
+                        STRUCTURAL_ELEMENT_NAMES), testTools.getCanonicalXml(packedFactory.createNodeDocument(
+                        packedGuide, packedNodeInfo), STRUCTURAL_ELEMENT_NAMES));
+            }
+        }
+    }
+
+    private long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int round = 0; round < 3; round += 1) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Memory used by the guides in the test corpus, which remain referenced
+     * by <code>guides</code>.
+     */
+    private long getGuideMemory(boolean packingItems, List<Guide> guides) throws IOException {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        List<File> guideFiles = getGuideFiles();
+        Guide.setPackingItems(packingItems);
+        long usedMemoryBefore = getUsedMemory();
+        for (File guideFile : guideFiles) {
+            guides.add(Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool()));
+        }
+        return getUsedMemory() - usedMemoryBefore;
+    }
+
+    @Test
+    public void testPackedItemsMemory() throws Exception {
+        List<Guide> guides = new ArrayList<Guide>();
+        long unpackedMemory = getGuideMemory(false, guides);
+        guides.clear();
+        long packedMemory = getGuideMemory(true, guides);
+        int itemCount = 0;
+        for (Guide guide : guides) {
+            itemCount += guide.getItems().size();
+        }
+        log.info("memory used by " + guides.size() + " guides with " + itemCount + " items: unpacked="
+                + (unpackedMemory / 1024) + "KB, packed=" + (packedMemory / 1024) + "KB");
+    }
+
+    @Test
+    public void testFrozenGuide() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        for (File guideFile : getGuideFiles()) {
+            Guide guide = Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+            assertTrue(guideFile.getPath(), guide.isFrozen());
+            try {
+                guide.getItems().remove(0);
+                fail("items of frozen guide must not be modifiable: " + guideFile);
+            } catch (UnsupportedOperationException expectedError) {
+                // Ignore expected error.
+            }
+
+            int nodeCount = guide.getNodeCount();
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                int ordinal = nodeInfo.getOrdinal();
+                assertTrue(nodeInfo.isFrozen());
+                for (Relation relation : Relation.values()) {
+                    Link declaredLink = nodeInfo.getRelationLinkMap().get(relation);
+                    if (declaredLink != null) {
+                        assertSame(declaredLink, nodeInfo.getRelation(relation));
+                    }
+                }
+                if (nodeInfo.getRelationLinkMap().get(Relation.next) == null) {
+                    Link nextLink = nodeInfo.getRelation(Relation.next);
+                    if (ordinal + 1 < nodeCount) {
+                        assertEquals(guide.getNodeInfo(ordinal + 1).getName(), nextLink.getTargetNodeName());
+                    } else {
+                        assertNull(nextLink);
+                    }
+                }
+                if ((ordinal == 0) && (nodeInfo.getRelationLinkMap().get(Relation.previous) == null)) {
+                    assertNull(nodeInfo.getRelation(Relation.previous));
+                }
+                if (nodeInfo.getRelationLinkMap().get(Relation.help) == null) {
+                    assertSame(guide.getRelation(Relation.help), nodeInfo.getRelation(Relation.help));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRetainedMemoryPerGuide() throws Exception {
+        AmigaPathList amigaPaths = new AmigaPathList();
+        List<Guide> guides = new ArrayList<Guide>();
+        long totalMemory = 0;
+
+        // Read a guide once so loading classes is not measured.
+        Guide.createGuide(getGuideFiles().get(0), amigaPaths, MessagePool.createDeferredPool());
+        getUsedMemory();
+        for (File guideFile : getGuideFiles()) {
+            long usedMemoryBefore = getUsedMemory();
+            Guide guide = Guide.createGuide(guideFile, amigaPaths, MessagePool.createDeferredPool());
+            guides.add(guide);
+            long guideMemory = getUsedMemory() - usedMemoryBefore;
+            totalMemory += guideMemory;
+            log.info("memory retained by " + guideFile.getName() + " with " + guide.getNodeCount() + " nodes and "
+                    + guide.getItems().size() + " items: " + (guideMemory / 1024) + "KB");
+        }
+        log.info("memory retained by " + guides.size() + " guides: " + (totalMemory / 1024) + "KB");
+    }
 }
@@ -1,6 +1,8 @@
 package net.sf.grotag.guide;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 
@@ -12,6 +14,7 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * Test case for HtmlDocFactory.
@@ -60,6 +63,47 @@ public class HtmlDomFactoryTest {
         testCreateNodeDocument("root");
     }
 
+    /**
+     * Time in nanoseconds it takes to append the content of all nodes of a
+     * generated guide with <code>nodeCount</code> nodes.
+     */
+    private long appendAllNodeContentTime(int nodeCount) throws Exception {
+        File guideFile = testTools.createGeneratedGuide("generated-" + nodeCount + ".guide", nodeCount);
+        String testName = testTools.getTestName(HtmlDomFactoryTest.class, "testAppendNodeContentScalesLinearly");
+        File targetFolder = testTools.getTestActualFile(testName);
+        GuidePile pile = GuidePile.createGuidePile(guideFile, new AmigaPathList());
+        Guide guide = pile.getGuides().get(0);
+        HtmlDomFactory factory = new HtmlDomFactory(pile, targetFolder);
+        long result = Long.MAX_VALUE;
+
+        assertEquals(nodeCount, guide.getNodeInfos().size());
+        for (int run = 0; run < 3; run += 1) {
+            long startTime = System.nanoTime();
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                Element body = factory.getDom().createElement("body");
+                factory.appendNodeContent(body, guide, nodeInfo);
+            }
+            result = Math.min(result, System.nanoTime() - startTime);
+        }
+        return result;
+    }
+
+    @Test
+    public void testAppendNodeContentScalesLinearly() throws Exception {
+        final int smallNodeCount = 500;
+        final int largeNodeCount = 4 * smallNodeCount;
+
+        // Warm up so the JIT does not distort the first measurement.
+        appendAllNodeContentTime(smallNodeCount);
+
+        long smallTime = appendAllNodeContentTime(smallNodeCount);
+        long largeTime = appendAllNodeContentTime(largeNodeCount);
+        double ratio = (double) largeTime / Math.max(1, smallTime);
+
+        // Linear scaling yields a ratio of about 4, quadratic scaling about 16.
+        assertTrue("rendering " + largeNodeCount + " instead of " + smallNodeCount + " nodes took " + ratio
+                + " times as long", ratio < 10);
+    }
 
     private File readResourceFile(String filepath){
         ClassLoader classLoader = getClass().getClassLoader();
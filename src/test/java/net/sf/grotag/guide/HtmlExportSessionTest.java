@@ -0,0 +1,179 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.TestTools;
+import net.sf.grotag.common.Tools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Test case for HtmlExportSession.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class HtmlExportSessionTest {
+    private static final int BENCHMARK_NODE_COUNT = 300;
+
+    private TestTools testTools;
+    private Logger log;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+        log = Logger.getLogger(HtmlExportSessionTest.class.getName());
+    }
+
+    private File getTargetFolder(String testMethodName, String name) {
+        String testName = testTools.getTestName(HtmlExportSessionTest.class, testMethodName);
+        File result = new File(testTools.getTestActualFile(testName), name);
+        result.mkdirs();
+        return result;
+    }
+
+    private List<Path> getRelativePaths(File folder) throws Exception {
+        Path folderPath = folder.toPath();
+        try (Stream<Path> paths = Files.walk(folderPath)) {
+            return paths.filter(Files::isRegularFile).map(folderPath::relativize).sorted().collect(
+                    Collectors.toList());
+        }
+    }
+
+    /**
+     * Export all nodes the way it was done before sessions existed: with a
+     * new factory per guide and a new writer per node.
+     */
+    private long exportWithoutSession(GuidePile pile, File targetFolder) throws Exception {
+        long startTime = System.nanoTime();
+        for (Guide guide : pile.getGuides()) {
+            HtmlDomFactory factory = new HtmlDomFactory(pile, targetFolder);
+            factory.copyStyleFile();
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                Document htmlDocument = factory.createNodeDocument(guide, nodeInfo);
+                File targetFile = factory.getTargetFileFor(guide, nodeInfo);
+                DomWriter htmlWriter = new DomWriter(DomWriter.Dtd.HTML);
+                htmlWriter.write(htmlDocument, targetFile);
+            }
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private long exportWithSession(GuidePile pile, File targetFolder) throws Exception {
+        long startTime = System.nanoTime();
+        HtmlExportSession session = new HtmlExportSession(pile, targetFolder, DomWriter.Dtd.HTML);
+        session.exportAll();
+        return System.nanoTime() - startTime;
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        File guideFile = testTools.createGeneratedGuide("HtmlExportSessionTest.testBenchmark.guide",
+                BENCHMARK_NODE_COUNT);
+        GuidePile pile = GuidePile.createGuidePile(guideFile, new AmigaPathList());
+        File withoutSessionFolder = getTargetFolder("testBenchmark", "withoutSession");
+        File withSessionFolder = getTargetFolder("testBenchmark", "withSession");
+
+        // Warm up.
+        exportWithoutSession(pile, withoutSessionFolder);
+        exportWithSession(pile, withSessionFolder);
+
+        long withoutSessionTime = exportWithoutSession(pile, withoutSessionFolder);
+        long withSessionTime = exportWithSession(pile, withSessionFolder);
+        log.info("export time per node: without session=" + (withoutSessionTime / BENCHMARK_NODE_COUNT / 1000)
+                + "us, with session=" + (withSessionTime / BENCHMARK_NODE_COUNT / 1000) + "us");
+
+        // Both ways must result in the same files.
+        Guide guide = pile.getGuides().get(0);
+        HtmlExportSession session = new HtmlExportSession(pile, withSessionFolder, DomWriter.Dtd.HTML);
+        for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+            File withSessionFile = session.getTargetFileFor(guide, nodeInfo);
+            String relativePath = withSessionFolder.toPath().relativize(withSessionFile.toPath()).toString();
+            File withoutSessionFile = new File(withoutSessionFolder, relativePath);
+            assertTrue(withSessionFile.exists());
+            assertArrayEquals(relativePath, Files.readAllBytes(withoutSessionFile.toPath()), Files
+                    .readAllBytes(withSessionFile.toPath()));
+        }
+    }
+
+    @Test
+    public void testExportAllWithJobs() throws Exception {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile pile = GuidePile.createGuidePile(rootGuideFile, amigaPaths);
+        File serialFolder = getTargetFolder("testExportAllWithJobs", "serial");
+        File parallelFolder = getTargetFolder("testExportAllWithJobs", "parallel");
+
+        new HtmlExportSession(pile, serialFolder, DomWriter.Dtd.HTML).exportAll();
+        HtmlExportSession parallelSession = new HtmlExportSession(pile, parallelFolder, DomWriter.Dtd.HTML);
+        parallelSession.setJobs(4);
+        parallelSession.exportAll();
+
+        // Exporting with several jobs must result in exactly the same files.
+        List<Path> serialPaths = getRelativePaths(serialFolder);
+        assertTrue(serialPaths.size() > 1);
+        assertEquals(serialPaths, getRelativePaths(parallelFolder));
+        for (Path relativePath : serialPaths) {
+            assertArrayEquals(relativePath.toString(), Files.readAllBytes(serialFolder.toPath().resolve(
+                    relativePath)), Files.readAllBytes(parallelFolder.toPath().resolve(relativePath)));
+        }
+
+        // Nodes exported by several jobs must not be exported again on
+        // demand.
+        File homeFile = pile.getFirstHtmlFile(parallelFolder);
+        long oldLastModified = 1000000000000L;
+        assertTrue(homeFile.setLastModified(oldLastModified));
+        assertEquals(homeFile, parallelSession.exportOnDemand(homeFile));
+        assertEquals(oldLastModified, homeFile.lastModified());
+    }
+
+    @Test
+    public void testExportOnDemand() throws Exception {
+        File rootGuideFile = testTools.getTestInputFile("root.guide");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile pile = GuidePile.createLazyGuidePile(rootGuideFile, amigaPaths);
+        File targetFolder = getTargetFolder("testExportOnDemand", "lazy");
+        Tools.getInstance().attemptToDeleteAll(targetFolder);
+        targetFolder.mkdirs();
+        HtmlExportSession session = new HtmlExportSession(pile, targetFolder, DomWriter.Dtd.HTML);
+
+        File homeFile = pile.getFirstHtmlFile(targetFolder);
+        assertEquals(homeFile, session.exportOnDemand(homeFile));
+        assertTrue(homeFile.exists());
+        assertEquals(1, getRelativePaths(targetFolder).stream().filter(path -> path.toString().endsWith(".html"))
+                .count());
+
+        // Links to guides not read yet refer to placeholders.
+        Guide rootGuide = pile.getGuides().get(0);
+        File redGuideFile = testTools.getTestInputFile("red.guide");
+        File pendingFile = session.getFactory().getPendingNodeFile(redGuideFile, "main");
+        String homeHtml = new String(Files.readAllBytes(homeFile.toPath()), "UTF-8");
+        String pendingUrl = Tools.getInstance().getRelativeUrl(session.getTargetFileFor(rootGuide, rootGuide
+                .getFirstNodeInfo()), pendingFile);
+        assertTrue(homeHtml, homeHtml.contains(pendingUrl));
+
+        File redHomeFile = session.exportOnDemand(pendingFile);
+        assertEquals(2, pile.getGuides().size());
+        assertTrue(redHomeFile.exists());
+        Guide redGuide = pile.getGuide(redGuideFile);
+        assertEquals(session.getTargetFileFor(redGuide, redGuide.getNodeInfo("main")), redHomeFile);
+
+        // Files unknown to the session remain unchanged.
+        File otherFile = new File(targetFolder, "other.html");
+        assertEquals(otherFile, session.exportOnDemand(otherFile));
+    }
+}
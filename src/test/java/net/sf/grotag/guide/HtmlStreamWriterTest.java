@@ -0,0 +1,131 @@
+package net.sf.grotag.guide;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import net.sf.grotag.common.AmigaPathList;
+import net.sf.grotag.common.TestTools;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+/**
+ * Test case for HtmlStreamWriter.
+ *
+ * @author Thomas Aglassinger
+ */
+public class HtmlStreamWriterTest {
+    private static final int BENCHMARK_NODE_COUNT = 300;
+    private static final Set<String> STRUCTURAL_ELEMENT_NAMES = new HashSet<String>(Arrays.asList("html", "head",
+            "body"));
+
+    private TestTools testTools;
+    private Logger log;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+        log = Logger.getLogger(HtmlStreamWriterTest.class.getName());
+    }
+
+    private File getTargetFolder(String testMethodName) {
+        String testName = testTools.getTestName(HtmlStreamWriterTest.class, testMethodName);
+        File result = testTools.getTestActualFile(testName);
+        result.mkdirs();
+        return result;
+    }
+
+    private String canonical(Document document) {
+        return testTools.getCanonicalXml(document, STRUCTURAL_ELEMENT_NAMES);
+    }
+
+    private void testStreamIsEquivalentToDom(String guideBaseName) throws Exception {
+        File guideFile = testTools.getTestInputFile(guideBaseName + ".guide");
+        File targetFolder = getTargetFolder("testStreamIsEquivalentToDom");
+        AmigaPathList amigaPaths = new AmigaPathList();
+        amigaPaths.read(testTools.getTestInputFile("grotag_root.xml"));
+        GuidePile pile = GuidePile.createGuidePile(guideFile, amigaPaths);
+        HtmlDomFactory factory = new HtmlDomFactory(pile, targetFolder);
+        HtmlStreamWriter streamWriter = new HtmlStreamWriter(factory, DomWriter.Dtd.XHTML);
+        DocumentBuilder xhtmlParser = testTools.createXmlParser();
+
+        for (Guide guide : pile.getGuides()) {
+            for (NodeInfo nodeInfo : guide.getNodeInfos()) {
+                File targetFile = factory.getTargetFileFor(guide, nodeInfo);
+                streamWriter.write(guide, nodeInfo, targetFile);
+                Document streamedDocument = xhtmlParser.parse(targetFile);
+                Document domDocument = factory.createNodeDocument(guide, nodeInfo);
+                assertEquals(targetFile.getPath(), canonical(domDocument), canonical(streamedDocument));
+            }
+        }
+    }
+
+    @Test
+    public void testStreamIsEquivalentToDom() throws Exception {
+        testStreamIsEquivalentToDom("basics");
+        testStreamIsEquivalentToDom("macros");
+        testStreamIsEquivalentToDom("nodes");
+        testStreamIsEquivalentToDom("root");
+        testStreamIsEquivalentToDom("styles");
+        testStreamIsEquivalentToDom("unique");
+    }
+
+    @Test
+    public void testHtml() throws Exception {
+        File guideFile = testTools.getTestInputFile("basics.guide");
+        GuidePile pile = GuidePile.createGuidePile(guideFile, new AmigaPathList());
+        HtmlDomFactory factory = new HtmlDomFactory(pile, getTargetFolder("testHtml"));
+        HtmlStreamWriter streamWriter = new HtmlStreamWriter(factory, DomWriter.Dtd.HTML);
+        Guide guide = pile.getGuides().get(0);
+        NodeInfo nodeInfo = guide.getFirstNodeInfo();
+        File targetFile = factory.getTargetFileFor(guide, nodeInfo);
+
+        streamWriter.write(guide, nodeInfo, targetFile);
+        String html = new String(Files.readAllBytes(targetFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(html, html.startsWith("<!DOCTYPE html PUBLIC \"" + DomWriter.HTML_PUBLIC_ID + "\""));
+        assertTrue(html, html.contains("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">"));
+        assertTrue(html, html.contains("<hr>"));
+        assertTrue(html, html.contains("<span class=\"b\">Amigaguide®</span>"));
+        assertTrue(html, html.contains("<a href=\"text.html\">Playing with text</a>"));
+        assertTrue(html, html.contains("text &amp; style"));
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        File guideFile = testTools.createGeneratedGuide("HtmlStreamWriterTest.testBenchmark.guide",
+                BENCHMARK_NODE_COUNT);
+        GuidePile pile = GuidePile.createGuidePile(guideFile, new AmigaPathList());
+        File targetFolder = getTargetFolder("testBenchmark");
+        HtmlExportSession domSession = new HtmlExportSession(pile, new File(targetFolder, "dom"),
+                DomWriter.Dtd.HTML);
+        HtmlExportSession streamSession = new HtmlExportSession(pile, new File(targetFolder, "stream"),
+                DomWriter.Dtd.HTML);
+        streamSession.setStreaming(true);
+        domSession.getFactory().getStyleFile().getParentFile().mkdirs();
+        streamSession.getFactory().getStyleFile().getParentFile().mkdirs();
+
+        // Warm up.
+        domSession.exportAll();
+        streamSession.exportAll();
+
+        long startTime = System.nanoTime();
+        domSession.exportAll();
+        long domTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        streamSession.exportAll();
+        long streamTime = System.nanoTime() - startTime;
+        log.info("export time per node: dom=" + (domTime / BENCHMARK_NODE_COUNT / 1000) + "us, stream="
+                + (streamTime / BENCHMARK_NODE_COUNT / 1000) + "us");
+    }
+}
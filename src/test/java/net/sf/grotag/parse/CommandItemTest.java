@@ -0,0 +1,80 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import net.sf.grotag.guide.Relation;
+
+import org.junit.Test;
+
+/**
+ * Test case for CommandItem.
+ *
+ * @author Thomas Aglassinger
+ */
+public class CommandItemTest {
+    private CommandItem readCommand(String text) throws Exception {
+        StringSource source = new StringSource(CommandItemTest.class.getName() + File.separator + "command.guide",
+                text);
+        ItemReader reader = new ItemReader(source);
+        reader.read();
+        List<AbstractItem> items = reader.getItems();
+        AbstractItem result = items.get(0);
+        assertTrue(result.toString(), result instanceof CommandItem);
+        return (CommandItem) result;
+    }
+
+    @Test
+    public void testTagName() throws Exception {
+        CommandItem node = readCommand("@NODE main \"Main\"");
+        assertSame(Tag.Name.node, node.getTagName());
+        assertFalse(node.isLink());
+        assertFalse(node.isRelation());
+        assertNull(node.getRelation());
+
+        assertSame(Tag.Name.b, readCommand("@{b}").getTagName());
+        assertNull(readCommand("@$VER: test 1.0").getTagName());
+        assertNull(readCommand("@{oops}").getTagName());
+    }
+
+    @Test
+    public void testRelation() throws Exception {
+        CommandItem help = readCommand("@help help.guide/main");
+        assertSame(Tag.Name.help, help.getTagName());
+        assertTrue(help.isRelation());
+        assertSame(Relation.help, help.getRelation());
+        assertSame(Relation.help, help.copy().getRelation());
+    }
+
+    @Test
+    public void testLinkTypeName() throws Exception {
+        CommandItem link = readCommand("@{\"Label\" ALINK main}");
+        assertTrue(link.isLink());
+        assertNull(link.getTagName());
+        assertSame(Tag.Name.alink, link.getLinkTypeName());
+
+        CommandItem copy = link.copy();
+        link.setOption(0, Tag.Name.link.toString());
+        assertSame(Tag.Name.link, link.getLinkTypeName());
+        assertSame(Tag.Name.alink, copy.getLinkTypeName());
+
+        link.cutOptionsAt(0);
+        assertNull(link.getLinkTypeName());
+
+        assertNull(readCommand("@{\"Label\" oops main}").getLinkTypeName());
+        assertNull(readCommand("@{\"Label\"}").getLinkTypeName());
+    }
+
+    @Test
+    public void testValueOfOrNull() throws Exception {
+        assertEquals(Tag.Name.embed, Tag.Name.valueOfOrNull("embed"));
+        assertNull(Tag.Name.valueOfOrNull("EMBED"));
+        assertNull(Tag.Name.valueOfOrNull("oops"));
+    }
+}
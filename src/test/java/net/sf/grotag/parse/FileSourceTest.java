@@ -0,0 +1,98 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import net.sf.grotag.common.TestTools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for FileSource.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class FileSourceTest {
+    private TestTools testTools;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+    }
+
+    @Test
+    public void testReadText() throws Exception {
+        File guideFile = testTools.getTestInputFile("basics.guide");
+        FileSource source = new FileSource(guideFile);
+        CharSequence text = source.readText();
+        String expectedText = new String(Files.readAllBytes(guideFile.toPath()), StandardCharsets.ISO_8859_1);
+
+        assertEquals(expectedText, text.toString());
+        assertEquals(expectedText.length(), text.length());
+        assertEquals(expectedText.substring(3, 17), text.subSequence(3, 17).toString());
+        assertSame(text, source.readText());
+    }
+
+    @Test
+    public void testReadLatin1Text() throws Exception {
+        File textFile = testTools.getTestActualFile("FileSourceTest.testReadLatin1Text.txt");
+        byte[] allBytes = new byte[256];
+        for (int code = 0; code < allBytes.length; code += 1) {
+            allBytes[code] = (byte) code;
+        }
+        FileOutputStream out = new FileOutputStream(textFile);
+        try {
+            out.write(allBytes);
+        } finally {
+            out.close();
+        }
+        CharSequence text = new FileSource(textFile).readText();
+        assertEquals(allBytes.length, text.length());
+        for (int code = 0; code < allBytes.length; code += 1) {
+            assertEquals(code, text.charAt(code));
+        }
+    }
+
+    @Test
+    public void testEnsureIsAmigaguide() throws Exception {
+        new FileSource(testTools.getTestInputFile("basics.guide")).ensureIsAmigaguide();
+        try {
+            new FileSource(testTools.getTestInputFile("linked.txt")).ensureIsAmigaguide();
+            fail("text file must not be accepted as Amigaguide document");
+        } catch (IllegalArgumentException expectedError) {
+            // Ignore.
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingFile() throws Exception {
+        new FileSource(testTools.getTestActualFile("FileSourceTest.testMissingFile.guide")).readText();
+    }
+
+    @Test
+    public void testLineIndex() throws Exception {
+        String text = "a\nbc\r\n\rd\r\n";
+        LineIndex stringIndex = new LineIndex(text);
+        LineIndex latin1Index = new LineIndex(new Latin1Text(text.getBytes(StandardCharsets.ISO_8859_1)));
+        int[] expectedStarts = new int[] { 0, 2, 6, 7 };
+        int[] expectedEnds = new int[] { 1, 4, 6, 8 };
+
+        for (LineIndex lineIndex : new LineIndex[] { stringIndex, latin1Index }) {
+            assertEquals(expectedStarts.length, lineIndex.getLineCount());
+            for (int lineNumber = 0; lineNumber < expectedStarts.length; lineNumber += 1) {
+                assertEquals(expectedStarts[lineNumber], lineIndex.getLineStart(lineNumber));
+                assertEquals(expectedEnds[lineNumber], lineIndex.getLineEnd(lineNumber));
+            }
+        }
+        assertEquals(0, new LineIndex("").getLineCount());
+        assertEquals(1, new LineIndex("\n").getLineCount());
+    }
+}
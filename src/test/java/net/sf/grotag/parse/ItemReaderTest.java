@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -180,4 +181,78 @@ public class ItemReaderTest {
             logger.info(item.toString());
         }
     }
+
+    private String describeItems(String text) throws IOException {
+        ItemReader reader = new ItemReader(createStringSource("describeItems", text),
+                MessagePool.createDeferredPool());
+        reader.read();
+        String result = "";
+        for (AbstractItem item : reader.getItems()) {
+            result += "[" + item.getLine() + ":" + item.getColumn() + "]" + item.toPrettyAmigaguide() + "\n";
+        }
+        return result;
+    }
+
+    @Test
+    public void testLineSeparators() throws Exception {
+        String expected = describeItems("@node x\nhugo \\@ @{b}bold@{ub}\n\n@endnode\n");
+        assertEquals(expected, describeItems("@node x\r\nhugo \\@ @{b}bold@{ub}\r\n\r\n@endnode\r\n"));
+        assertEquals(expected, describeItems("@node x\rhugo \\@ @{b}bold@{ub}\r\r@endnode"));
+        assertEquals(expected, describeItems("@node x\nhugo \\@ @{b}bold@{ub}  \n \n@endnode"));
+    }
+
+    @Test
+    public void testItemsReferToSourceText() throws Exception {
+        AbstractSource guide = createStringSource("testItemsReferToSourceText", "hugo \"sepp\" \\@\n@title \"x\"");
+        ItemReader reader = new ItemReader(guide);
+        reader.read();
+        List<AbstractItem> items = reader.getItems();
+        assertEquals("hugo", ((TextItem) items.get(0)).getText());
+        assertEquals(" ", ((SpaceItem) items.get(1)).getSpace());
+        assertEquals("\"sepp\"", ((TextItem) items.get(2)).getText());
+        assertEquals("@", ((TextItem) items.get(4)).getText());
+        CommandItem title = (CommandItem) items.get(6);
+        assertEquals("x", ((StringItem) title.getItems().get(1)).getText());
+
+        // Once materialized, the same text is returned again.
+        TextItem hugo = (TextItem) items.get(0);
+        assertTrue(hugo.getText() == hugo.getText());
+    }
+
+    @Test
+    public void testItemIterator() throws Exception {
+        AbstractSource guide = new FileSource(testTools.getTestInputFile("basics.guide"));
+        ItemReader collectingReader = new ItemReader(guide, MessagePool.createDeferredPool());
+        collectingReader.read();
+        List<AbstractItem> collectedItems = collectingReader.getItems();
+
+        ItemReader.ItemIterator itemIterator = new ItemReader(guide, MessagePool.createDeferredPool())
+                .createItemIterator();
+        List<AbstractItem> iteratedItems = new ArrayList<AbstractItem>();
+        while (itemIterator.hasNext()) {
+            iteratedItems.add(itemIterator.next());
+        }
+        assertEquals(collectedItems.toString(), iteratedItems.toString());
+
+        List<AbstractItem> visitedItems = new ArrayList<AbstractItem>();
+        new ItemReader(guide, MessagePool.createDeferredPool()).read(item -> visitedItems.add(item));
+        assertEquals(collectedItems.toString(), visitedItems.toString());
+    }
+
+    @Test
+    public void testItemIteratorReadsLineByLine() throws Exception {
+        AbstractSource guide = createStringSource("testItemIteratorReadsLineByLine", "hugo\nsepp\\x\n");
+        MessagePool messagePool = MessagePool.createDeferredPool();
+        ItemReader.ItemIterator itemIterator = new ItemReader(guide, messagePool).createItemIterator();
+
+        // The dangling backslash in the second line has not been read yet.
+        assertEquals("hugo", ((TextItem) itemIterator.next()).getText());
+        assertTrue(itemIterator.next() instanceof NewLineItem);
+        assertEquals(0, messagePool.getReportedItems().size());
+
+        assertEquals("sepp\\x", ((TextItem) itemIterator.next()).getText());
+        assertEquals(1, messagePool.getReportedItems().size());
+        assertTrue(itemIterator.next() instanceof NewLineItem);
+        assertFalse(itemIterator.hasNext());
+    }
 }
@@ -3,7 +3,14 @@ package net.sf.grotag.parse;
 import static org.junit.Assert.*;
 
 import java.io.File;
-
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import net.sf.grotag.common.TestTools;
 import net.sf.grotag.common.Tools;
 import net.sf.grotag.parse.LineTokenizer;
 
@@ -11,11 +18,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 public class LineTokenizerTest {
+    private static final String[] GUIDE_NAMES = new String[] { "LhA.guide", "LichtTools.guide", "agr.guide",
+            "agr_test.guide", "amigaguide.guide" };
+    private static final String RANDOM_CHARS = "@@{{}}\"\\\\  \tab\u0012\u000c\u00e4";
+    private static final int RANDOM_LINE_COUNT = 20000;
+    private static final int BENCHMARK_ROUNDS = 20;
+
     private Tools tools;
+    private TestTools testTools;
+    private Logger log;
 
     @Before
     public void setUp() throws Exception {
         tools = Tools.getInstance();
+        testTools = TestTools.getInstance();
+        log = Logger.getLogger(LineTokenizerTest.class.getName());
     }
 
     @Test
@@ -143,6 +160,162 @@ public class LineTokenizerTest {
         testTokenizer("\u000cx", new String[] { "?", "x" });
     }
 
+    @Test
+    public void testEmptyString() {
+        testTokenizer("@{\"\" link x}", new String[] { "@", "{", "\"\" link x}\"", "}" });
+    }
+
+    @Test
+    public void testFixedMissingQuoteAtEndOfLine() {
+        testTokenizer("@node \"", new String[] { "@", "node", " ", "\"\"" });
+    }
+
+    /**
+     * Lines of all test input and guide files.
+     */
+    private List<String> getGuideLines() throws Exception {
+        List<String> result = new ArrayList<String>();
+        List<File> guideFiles = new ArrayList<File>();
+        for (File inputFile : testTools.getTestInputFile("basics.guide").getParentFile().listFiles()) {
+            if (inputFile.getName().endsWith(".guide")) {
+                guideFiles.add(inputFile);
+            }
+        }
+        for (String guideName : GUIDE_NAMES) {
+            guideFiles.add(testTools.getTestGuideFile(guideName));
+        }
+        for (File guideFile : guideFiles) {
+            result.addAll(Files.readAllLines(guideFile.toPath(), StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+    private List<String> getRandomLines() {
+        List<String> result = new ArrayList<String>();
+        Random random = new Random(0);
+        for (int lineIndex = 0; lineIndex < RANDOM_LINE_COUNT; lineIndex += 1) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int charIndex = 0; charIndex < length; charIndex += 1) {
+                line.append(RANDOM_CHARS.charAt(random.nextInt(RANDOM_CHARS.length())));
+            }
+            result.add(line.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Tokens with types and columns, and warnings for <code>line</code>
+     * using the current tokenizer.
+     */
+    private String describeTokens(AbstractSource source, String line) {
+        MessagePool messagePool = MessagePool.createDeferredPool();
+        LineTokenizer tokenizer = new LineTokenizer(source, 0, line, messagePool);
+        StringBuilder result = new StringBuilder();
+        while (tokenizer.hasNext()) {
+            tokenizer.advance();
+            result.append(tokenizer.getType()).append(':').append(tokenizer.getColumn()).append(':').append(
+                    tokenizer.getToken()).append('\n');
+        }
+        for (MessageItem message : messagePool.getReportedItems()) {
+            result.append(message.getColumn()).append(':').append(message.getText()).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Same as <code>describeTokens()</code> but using the
+     * <code>LegacyLineTokenizer</code>, or <code>null</code> if it cannot
+     * tokenize <code>line</code>.
+     */
+    private String describeLegacyTokens(AbstractSource source, String line) {
+        MessagePool messagePool = MessagePool.createDeferredPool();
+        LegacyLineTokenizer tokenizer = new LegacyLineTokenizer(source, 0, line, messagePool);
+        StringBuilder result = new StringBuilder();
+        try {
+            while (tokenizer.hasNext()) {
+                tokenizer.advance();
+                result.append(tokenizer.getType()).append(':').append(tokenizer.getColumn()).append(':').append(
+                        tokenizer.getToken()).append('\n');
+            }
+        } catch (StringIndexOutOfBoundsException error) {
+            // Quote at end of line, which LineTokenizer fixes instead.
+            result = null;
+        }
+        if (result != null) {
+            for (MessageItem message : messagePool.getReportedItems()) {
+                result.append(message.getColumn()).append(':').append(message.getText()).append('\n');
+            }
+        }
+        return (result != null) ? result.toString() : null;
+    }
+
+    @Test
+    public void testSameAsLegacyTokenizer() throws Exception {
+        AbstractSource source = new StringSource(LineTokenizerTest.class.getName(), "");
+        List<String> lines = getGuideLines();
+        lines.addAll(getRandomLines());
+        int comparedLineCount = 0;
+        for (String line : lines) {
+            String legacyTokens = describeLegacyTokens(source, line);
+            if (legacyTokens != null) {
+                assertEquals(tools.sourced(line), legacyTokens, describeTokens(source, line));
+                comparedLineCount += 1;
+            }
+        }
+        assertTrue(comparedLineCount > RANDOM_LINE_COUNT);
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        AbstractSource source = new StringSource(LineTokenizerTest.class.getName(), "");
+        List<String> lines = getGuideLines();
+        MessagePool messagePool = MessagePool.createDeferredPool();
+        int tokenCount = 0;
+
+        // Warm up.
+        for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+            for (String line : lines) {
+                LegacyLineTokenizer legacyTokenizer = new LegacyLineTokenizer(source, 0, line, messagePool);
+                while (legacyTokenizer.hasNext()) {
+                    legacyTokenizer.advance();
+                }
+                LineTokenizer tokenizer = new LineTokenizer(source, 0, line, messagePool);
+                while (tokenizer.hasNext()) {
+                    tokenizer.advance();
+                }
+            }
+        }
+
+        long startTime = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+            for (String line : lines) {
+                LegacyLineTokenizer tokenizer = new LegacyLineTokenizer(source, 0, line, messagePool);
+                while (tokenizer.hasNext()) {
+                    tokenizer.advance();
+                }
+            }
+        }
+        long legacyTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+            for (String line : lines) {
+                LineTokenizer tokenizer = new LineTokenizer(source, 0, line, messagePool);
+                while (tokenizer.hasNext()) {
+                    tokenizer.advance();
+                    tokenCount += 1;
+                }
+            }
+        }
+        long tableTime = System.nanoTime() - startTime;
+
+        log.info("tokenize time for " + lines.size() + " lines with " + (tokenCount / BENCHMARK_ROUNDS)
+                + " tokens: legacy=" + (legacyTime / BENCHMARK_ROUNDS / 1000) + "us, table="
+                + (tableTime / BENCHMARK_ROUNDS / 1000) + "us, speedup="
+                + String.format("%.1f", ((double) legacyTime) / tableTime));
+    }
+
     private void testTokenizer(String text, String[] expectedTokens) {
         AbstractSource source = new StringSource(LineTokenizer.class.getName() + File.separator + "testTokenizer", text);
         LineTokenizer tokenizer = new LineTokenizer(source, 3, text);
@@ -0,0 +1,56 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test for MacroTemplate.
+ * 
+ * @author Thomas Aglassinger
+ */
+public class MacroTemplateTest {
+    private CommandItem createCaller(String callText) throws Exception {
+        StringSource source = new StringSource(MacroTemplateTest.class.getName() + File.separator + "caller",
+                callText);
+        ItemReader reader = new ItemReader(source);
+        reader.read();
+        List<AbstractItem> items = reader.getItems();
+        CommandItem result = (CommandItem) items.get(0);
+        assertTrue(result.isInline());
+        return result;
+    }
+
+    @Test
+    public void testWithoutOptions() throws Exception {
+        MacroTemplate template = new MacroTemplate("some text");
+        assertFalse(template.hasOptions());
+        assertEquals("some text", template.resolve(createCaller("@{m hugo}")));
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        MacroTemplate template = new MacroTemplate("arg1=$1, arg2=$2, again=$1$2");
+        assertTrue(template.hasOptions());
+        assertEquals("arg1=hugo, arg2=sepp, again=hugosepp", template.resolve(createCaller("@{m hugo sepp}")));
+        assertEquals("arg1=hugo, arg2=, again=hugo", template.resolve(createCaller("@{m hugo}")));
+        assertEquals("arg1=, arg2=, again=", template.resolve(createCaller("@{m}")));
+    }
+
+    @Test
+    public void testManyOptions() throws Exception {
+        MacroTemplate template = new MacroTemplate("$10-$1");
+        assertEquals("j-a", template.resolve(createCaller("@{m a b c d e f g h i j}")));
+    }
+
+    @Test
+    public void testDollarWithoutDigit() throws Exception {
+        MacroTemplate template = new MacroTemplate("$ and $x and $0 and $");
+        assertEquals("$ and $x and  and $", template.resolve(createCaller("@{m a}")));
+    }
+}
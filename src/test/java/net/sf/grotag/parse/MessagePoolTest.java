@@ -0,0 +1,177 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.grotag.parse.MessageCode.Severity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for MessagePool.
+ *
+ * @author Thomas Aglassinger
+ */
+public class MessagePoolTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int MESSAGES_PER_THREAD = 1000;
+
+    private StringSource source;
+
+    @Before
+    public void setUp() throws Exception {
+        source = new StringSource(MessagePoolTest.class.getName() + File.separator + "messages.guide", "");
+    }
+
+    @Test
+    public void testIdenticalMessagesAreKeptOnce() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.add(source, 1, 2, "some message");
+        pool.add(source, 1, 2, "some message");
+        pool.add(source, 1, 2, "other message");
+        assertEquals(2, pool.getItems().size());
+        assertEquals(2, pool.getReportedItems().size());
+    }
+
+    @Test
+    public void testItemsAreSorted() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.add(source, 3, 0, "c");
+        pool.add(source, 1, 5, "b");
+        pool.add(source, 1, 5, "a");
+        List<String> texts = new ArrayList<String>();
+        for (MessageItem item : pool.getItems()) {
+            texts.add(item.getText());
+        }
+        assertEquals("[a, b, c]", texts.toString());
+        assertEquals("c", pool.getReportedItems().get(0).getText());
+    }
+
+    @Test
+    public void testMaxItemCount() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.setMaxItemCount(2);
+        for (int line = 0; line < 5; line += 1) {
+            pool.add(source, line, 0, "message");
+        }
+        assertEquals(2, pool.getItems().size());
+        assertEquals(3, pool.getDroppedItemCount());
+    }
+
+    @Test
+    public void testMaxItemCountForCode() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.setMaxItemCount(MessageCode.DANGLING_AT_SIGN, 1);
+        pool.setMaxItemCount(MessageCode.DANGLING_BACKSLASH, 0);
+        for (int line = 0; line < 3; line += 1) {
+            pool.add(MessageCode.DANGLING_AT_SIGN, source, line, 0, () -> "at sign");
+            pool.add(MessageCode.DANGLING_BACKSLASH, source, line, 0, () -> "backslash");
+            pool.add(MessageCode.MISSING_QUOTE, source, line, 0, () -> "quote");
+        }
+        assertEquals(4, pool.getItems().size());
+        assertEquals(5, pool.getDroppedItemCount());
+        assertFalse(pool.isKept(MessageCode.DANGLING_AT_SIGN));
+        assertTrue(pool.isKept(MessageCode.MISSING_QUOTE));
+    }
+
+    @Test
+    public void testMinSeverity() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.setMinSeverity(Severity.ERROR);
+        pool.add(MessageCode.DANGLING_AT_SIGN, source, 1, 0, () -> "warning");
+        pool.add(MessageCode.MISSING_FILE, source, 2, 0, () -> "error");
+        assertEquals(1, pool.getItems().size());
+        assertEquals("error", pool.getItems().first().getText());
+        assertSame(MessageCode.MISSING_FILE, pool.getItems().first().getCode());
+    }
+
+    @Test
+    public void testTextOfDroppedMessageIsNotRendered() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.setMaxItemCount(MessageCode.DANGLING_AT_SIGN, 0);
+        pool.add(MessageCode.DANGLING_AT_SIGN, source, 1, 0, () -> {
+            fail("text of dropped message must not be rendered");
+            return "dropped";
+        });
+        MessageItem droppedItem = new MessageItem(MessageCode.DANGLING_AT_SIGN, source, 2, 0, () -> {
+            fail("text of dropped message must not be rendered");
+            return "dropped";
+        });
+        pool.add(droppedItem);
+        assertEquals(2, pool.getDroppedItemCount());
+    }
+
+    @Test
+    public void testDeferredPoolWithSameSettings() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        pool.setMaxItemCount(MessageCode.DANGLING_AT_SIGN, 0);
+        pool.setMinSeverity(Severity.WARNING);
+        MessagePool deferredPool = MessagePool.createDeferredPool(pool);
+        assertEquals(0, deferredPool.getMaxItemCount(MessageCode.DANGLING_AT_SIGN));
+        assertSame(Severity.WARNING, deferredPool.getMinSeverity());
+        deferredPool.add(MessageCode.DANGLING_AT_SIGN, source, 1, 0, () -> "at sign");
+        deferredPool.drainTo(pool);
+        assertEquals(1, pool.getDroppedItemCount());
+    }
+
+    @Test
+    public void testHasSameLimits() {
+        MessagePool pool = MessagePool.createDeferredPool();
+        MessagePool otherPool = MessagePool.createDeferredPool();
+        assertTrue(pool.hasSameLimits(otherPool));
+        pool.setMaxItemCount(MessageCode.DANGLING_AT_SIGN, 0);
+        assertFalse(pool.hasSameLimits(otherPool));
+        assertTrue(pool.hasSameLimits(MessagePool.createDeferredPool(pool)));
+        otherPool.setMaxItemCount(MessageCode.DANGLING_AT_SIGN, 0);
+        otherPool.setMinSeverity(Severity.ERROR);
+        assertFalse(pool.hasSameLimits(otherPool));
+    }
+
+    @Test
+    public void testDrainTo() {
+        MessagePool deferredPool = MessagePool.createDeferredPool();
+        MessagePool targetPool = MessagePool.createDeferredPool();
+        deferredPool.add(source, 2, 0, "second");
+        deferredPool.add(source, 1, 0, "first");
+        deferredPool.drainTo(targetPool);
+        assertEquals(0, deferredPool.getItems().size());
+        assertEquals("second", targetPool.getReportedItems().get(0).getText());
+        assertEquals("first", targetPool.getReportedItems().get(1).getText());
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final MessagePool pool = MessagePool.createDeferredPool();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int threadIndex = 0; threadIndex < THREAD_COUNT; threadIndex += 1) {
+                futures.add(executor.submit(() -> {
+                    // Every thread adds the same messages, so only one of
+                    // each must be kept.
+                    for (int line = 0; line < MESSAGES_PER_THREAD; line += 1) {
+                        pool.add(source, line, 0, "message");
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(MESSAGES_PER_THREAD, pool.getItems().size());
+        assertEquals(MESSAGES_PER_THREAD, pool.getReportedItems().size());
+    }
+}
@@ -0,0 +1,98 @@
+package net.sf.grotag.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.grotag.common.TestTools;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for PackedItemList.
+ *
+ * @author Thomas Aglassinger
+ */
+public class PackedItemListTest {
+    private TestTools testTools;
+
+    @Before
+    public void setUp() throws Exception {
+        testTools = TestTools.getInstance();
+    }
+
+    private void assertSameItems(List<AbstractItem> expected, PackedItemList actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int itemIndex = 0; itemIndex < expected.size(); itemIndex += 1) {
+            AbstractItem expectedItem = expected.get(itemIndex);
+            AbstractItem actualItem = actual.get(itemIndex);
+            assertEquals(expectedItem.getClass(), actualItem.getClass());
+            assertEquals(expectedItem.toString(), actualItem.toString());
+            assertEquals(expectedItem.toPrettyAmigaguide(), actualItem.toPrettyAmigaguide());
+            assertSame(expectedItem.getFile(), actual.getSource(itemIndex));
+            assertEquals(expectedItem.getLine(), actual.getLine(itemIndex));
+            assertEquals(expectedItem.getColumn(), actual.getColumn(itemIndex));
+
+            PackedItemList.Kind kind = actual.getKind(itemIndex);
+            if (kind == PackedItemList.Kind.KEPT) {
+                assertSame(expectedItem, actualItem);
+                assertSame(expectedItem, actual.getKeptItem(itemIndex));
+            } else if (kind != PackedItemList.Kind.NEW_LINE) {
+                StringBuilder text = new StringBuilder();
+                actual.appendText(itemIndex, text);
+                String expectedText;
+                if (expectedItem instanceof SpaceItem) {
+                    expectedText = ((SpaceItem) expectedItem).getSpace();
+                } else {
+                    expectedText = ((AbstractTextItem) expectedItem).getText();
+                }
+                assertEquals(expectedText, text.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testPackedGuideItems() throws Exception {
+        File guideFile = testTools.getTestInputFile("basics.guide");
+        ItemReader reader = new ItemReader(new FileSource(guideFile));
+        reader.read();
+        List<AbstractItem> items = reader.getItems();
+
+        assertSameItems(items, new PackedItemList(items));
+    }
+
+    @Test
+    public void testPackedMixedItems() throws Exception {
+        StringSource source = new StringSource("PackedItemListTest" + File.separator + "mixed.guide",
+                "@node main\nsome \\@text \\\\ and @{b}bold@{ub}\n\n@endnode\n");
+        StringSource otherSource = new StringSource("PackedItemListTest" + File.separator + "other.guide", "");
+        ItemReader reader = new ItemReader(source);
+        reader.read();
+        List<AbstractItem> items = new ArrayList<AbstractItem>(reader.getItems());
+
+        // Add items with a materialized text, another source and a string.
+        TextItem materializedItem = new TextItem(source, 5, 0, new TextSlice("\\\\text", 0, 6));
+        materializedItem.getText();
+        items.add(materializedItem);
+        items.add(new SpaceItem(otherSource, 0, 0, " \t"));
+        items.add(new TextItem(otherSource, 0, 2, "other"));
+        items.add(new NewLineItem(otherSource, 0, 7));
+        items.add(new StringItem(otherSource, 1, 0, "\"string\""));
+
+        PackedItemList packedItems = new PackedItemList(items);
+        assertSameItems(items, packedItems);
+        assertEquals(PackedItemList.Kind.KEPT, packedItems.getKind(items.size() - 1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPackedItemsCannotBeModified() throws Exception {
+        List<AbstractItem> items = new ArrayList<AbstractItem>();
+        items.add(new SpaceItem(new StringSource("PackedItemListTest" + File.separator + "space.guide", " "), 0, 0,
+                " "));
+        new PackedItemList(items).remove(0);
+    }
+}
@@ -4,8 +4,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -45,4 +48,37 @@ public class TagPoolTest {
         assertFalse(linkType.startsWith(","));
         assertTrue(linkType.indexOf(',') > 0);
     }
+
+    @Test
+    public void testStandardTagsAreShared() {
+        TagPool otherTagPool = new TagPool();
+        assertSame(tagPool.getTag("b", Tag.Scope.INLINE), otherTagPool.getTag("b", Tag.Scope.INLINE));
+        assertSame(TagRegistry.getInstance().getTag("node", Tag.Scope.GLOBAL), tagPool.getTag("node",
+                Tag.Scope.GLOBAL));
+    }
+
+    @Test
+    public void testNodeScopeIncludesGlobalTags() {
+        assertNotNull(tagPool.getTag("endnode", Tag.Scope.NODE));
+        assertNull(tagPool.getTag("title", Tag.Scope.GLOBAL));
+        assertNotNull(tagPool.getTag("title", Tag.Scope.NODE));
+    }
+
+    @Test
+    public void testMacro() {
+        StringSource source = new StringSource(TagPoolTest.class.getName() + File.separator + "macro.guide", "");
+        Tag macro = Tag.createMacro("hugo", new StringItem(source, 0, 0, "\"@{b}$1@{ub}\""));
+        assertNull(tagPool.getMacro("hugo"));
+
+        tagPool.addMacro(macro);
+        assertSame(macro, tagPool.getMacro("hugo"));
+        assertSame(macro, tagPool.getMacro("HUGO"));
+        assertSame(macro, tagPool.getTag("hugo", Tag.Scope.INLINE));
+        assertNull(tagPool.getTag("hugo", Tag.Scope.GLOBAL));
+        assertNull(tagPool.getMacro("b"));
+
+        // Macros are only visible in the pool they have been added to.
+        assertNull(new TagPool().getMacro("hugo"));
+        assertNull(TagRegistry.getInstance().getTag("hugo", Tag.Scope.INLINE));
+    }
 }